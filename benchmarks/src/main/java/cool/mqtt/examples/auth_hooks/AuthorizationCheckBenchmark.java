@@ -0,0 +1,138 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import cool.mqtt.hooks.HookException;
+import cool.mqtt.hooks.MQTTCoolHook;
+import cool.mqtt.hooks.MqttMessage;
+import cool.mqtt.hooks.MqttSubscription;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the steady-state authorization checks ({@code canPublish}, {@code canSubscribe} and
+ * {@code canConnect}) of both Hooks, with one or many sessions per user, on one or all the
+ * available threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthorizationCheckBenchmark {
+
+  @Param({"AuthHook", "AuthHookWithAuthCache"})
+  String hookClass;
+
+  @Param({"1", "1000"})
+  int sessionsPerUser;
+
+  private MQTTCoolHook hook;
+
+  private String[] sessionIds;
+
+  private final MqttMessage allowedMessage = new StubMqttMessage("topics/topic_4");
+
+  private final MqttMessage deniedMessage = new StubMqttMessage("topics/topic_1");
+
+  private final MqttSubscription allowedSubscription = new StubMqttSubscription("topics/topic_1");
+
+  /** Round-robin cursor over the sessions, one per thread */
+  @State(Scope.Thread)
+  public static class Cursor {
+
+    int next;
+
+    String nextSession(String[] sessionIds) {
+      next = (next + 1) % sessionIds.length;
+      return sessionIds[next];
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    hook = HookFixture.create(hookClass);
+    sessionIds = new String[sessionsPerUser];
+    for (int i = 0; i < sessionsPerUser; i++) {
+      sessionIds[i] = "session-" + i;
+      HookFixture.openSession(hook, sessionIds[i], "user1", "ikgdfigdfhihdsih");
+    }
+
+    // Make sure any cache is filled before measuring.
+    hook.canPublish(sessionIds[0], "client", HookFixture.BROKER, allowedMessage);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    HookFixture.dispose(hook);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean publishAllowed(Cursor cursor) throws HookException {
+    return hook.canPublish(cursor.nextSession(sessionIds), "client", HookFixture.BROKER,
+        allowedMessage);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public boolean publishAllowedMultiThreaded(Cursor cursor) throws HookException {
+    return hook.canPublish(cursor.nextSession(sessionIds), "client", HookFixture.BROKER,
+        allowedMessage);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean publishDenied(Cursor cursor) {
+    try {
+      return hook.canPublish(cursor.nextSession(sessionIds), "client", HookFixture.BROKER,
+          deniedMessage);
+    } catch (HookException e) {
+      return false;
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean subscribeAllowed(Cursor cursor) throws HookException {
+    return hook.canSubscribe(cursor.nextSession(sessionIds), "client", HookFixture.BROKER,
+        allowedSubscription);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean connectAllowed(Cursor cursor) throws HookException {
+    return hook.canConnect(cursor.nextSession(sessionIds), "client", HookFixture.BROKER, null);
+  }
+}
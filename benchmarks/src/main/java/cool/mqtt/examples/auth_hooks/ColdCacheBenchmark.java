@@ -0,0 +1,79 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import cool.mqtt.hooks.HookException;
+import cool.mqtt.hooks.MQTTCoolHook;
+import cool.mqtt.hooks.MqttMessage;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the first publish of a user with no session open yet, which in
+ * {@code AuthHookWithAuthCache} has to wait for the authorization cache to be filled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColdCacheBenchmark {
+
+  @Param({"AuthHook", "AuthHookWithAuthCache"})
+  String hookClass;
+
+  private MQTTCoolHook hook;
+
+  private final MqttMessage message = new StubMqttMessage("topics/topic_4");
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    hook = HookFixture.create(hookClass);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    HookFixture.dispose(hook);
+  }
+
+  @Benchmark
+  public boolean openPublishClose() throws HookException {
+    // Being the only session of the user, its closure drops the cache.
+    HookFixture.openSession(hook, "cold", "user1", "ikgdfigdfhihdsih");
+    try {
+      return hook.canPublish("cold", "client", HookFixture.BROKER, message);
+    } finally {
+      hook.onSessionClose("cold");
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import cool.mqtt.hooks.HookException;
+import cool.mqtt.hooks.MQTTCoolHook;
+import cool.mqtt.hooks.MqttMessage;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the denial path of both Hooks under a flood of forbidden publishes, retried on the same
+ * topic or spread over more topics than the tracked ones, against the allowed path as a baseline.
+ * Capturing the stack traces shows the cost of the per-call exceptions; run with {@code -prof gc}
+ * to compare the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DenialFloodBenchmark {
+
+  /** More than the targets tracked for every session by default */
+  private static final int TOPICS = 64;
+
+  @Param({"AuthHook", "AuthHookWithAuthCache"})
+  String hookClass;
+
+  @Param({"false", "true"})
+  String stackTraces;
+
+  private MQTTCoolHook hook;
+
+  private final MqttMessage allowedMessage = new StubMqttMessage("topics/topic_4");
+
+  private final MqttMessage deniedMessage = new StubMqttMessage("topics/topic_1");
+
+  private final MqttMessage[] deniedMessages = new MqttMessage[TOPICS];
+
+  /** Round-robin cursor over the denied topics, one per thread */
+  @State(Scope.Thread)
+  public static class Cursor {
+
+    int next;
+
+    MqttMessage nextMessage(MqttMessage[] messages) {
+      next = (next + 1) % messages.length;
+      return messages[next];
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    hook = HookFixture.create(hookClass,
+        Collections.singletonMap("denial.stack_traces", stackTraces));
+    HookFixture.openSession(hook, "session", "user1", "ikgdfigdfhihdsih");
+    for (int i = 0; i < TOPICS; i++) {
+      deniedMessages[i] = new StubMqttMessage("forbidden/topic_" + i);
+    }
+
+    // Make sure any cache is filled before measuring.
+    hook.canPublish("session", "client", HookFixture.BROKER, allowedMessage);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    HookFixture.dispose(hook);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean publishAllowed() throws HookException {
+    return hook.canPublish("session", "client", HookFixture.BROKER, allowedMessage);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean publishDenied() {
+    try {
+      return hook.canPublish("session", "client", HookFixture.BROKER, deniedMessage);
+    } catch (HookException e) {
+      return false;
+    }
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public boolean publishDeniedMultiThreaded() {
+    try {
+      return hook.canPublish("session", "client", HookFixture.BROKER, deniedMessage);
+    } catch (HookException e) {
+      return false;
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean publishDeniedManyTopics(Cursor cursor) {
+    try {
+      return hook.canPublish("session", "client", HookFixture.BROKER,
+          cursor.nextMessage(deniedMessages));
+    } catch (HookException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import cool.mqtt.hooks.HookException;
+import cool.mqtt.hooks.MQTTCoolHook;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Creates and initializes the Hooks under benchmark, against a temporary MQTT.Cool configuration.
+ */
+final class HookFixture {
+
+  /** Address of the only configured broker. */
+  static final String BROKER = "tcp://localhost:1883";
+
+  private HookFixture() {}
+
+  /**
+   * Creates and initializes the specified Hook.
+   *
+   * @param hookClass the simple name of the Hook class
+   * @param settings the Hook settings (names without prefix)
+   * @return the initialized Hook
+   */
+  static MQTTCoolHook create(String hookClass, Map<String, String> settings)
+      throws IOException, HookException {
+
+    MQTTCoolHook hook;
+    switch (hookClass) {
+      case "AuthHook":
+        hook = new AuthHook();
+        break;
+
+      case "AuthHookWithAuthCache":
+        hook = new AuthHookWithAuthCache();
+        break;
+
+      default:
+        throw new IllegalArgumentException("Unknown Hook class " + hookClass);
+    }
+    hook.init(configDir(settings));
+    return hook;
+  }
+
+  static MQTTCoolHook create(String hookClass) throws IOException, HookException {
+    return create(hookClass, Collections.emptyMap());
+  }
+
+  /**
+   * Releases the resources held by the specified Hook.
+   *
+   * @param hook the Hook
+   */
+  static void dispose(MQTTCoolHook hook) {
+    if (hook instanceof AuthHookWithAuthCache) {
+      ((AuthHookWithAuthCache) hook).shutdown();
+    } else if (hook instanceof AuthHook) {
+      ((AuthHook) hook).shutdown();
+    }
+  }
+
+  /**
+   * Opens a session, failing if not authorized.
+   */
+  static void openSession(MQTTCoolHook hook, String sessionId, String user, String token)
+      throws HookException {
+
+    if (!hook.canOpenSession(sessionId, user, token, Collections.emptyMap(), null)) {
+      throw new IllegalStateException("Session " + sessionId + " not opened");
+    }
+  }
+
+  /*
+   * The Hooks look for "../conf/brokers_configuration.xml" relative to their configuration
+   * directory.
+   */
+  private static File configDir(Map<String, String> settings) throws IOException {
+    Path root = Files.createTempDirectory("auth-hook-bench");
+    Path hookDir = Files.createDirectories(root.resolve("hook"));
+    Path confDir = Files.createDirectories(root.resolve("conf"));
+
+    StringBuilder xml = new StringBuilder();
+    xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<mqttcool_conf>\n");
+    xml.append("  <param name=\"bench.server_address\">").append(BROKER).append("</param>\n");
+    settings.forEach((name, value) -> xml.append("  <param name=\"")
+        .append(HookSettings.PREFIX).append(name).append("\">").append(value)
+        .append("</param>\n"));
+    xml.append("</mqttcool_conf>\n");
+    Files.write(confDir.resolve("brokers_configuration.xml"),
+        xml.toString().getBytes(StandardCharsets.UTF_8));
+
+    root.toFile().deleteOnExit();
+    return hookDir.toFile();
+  }
+}
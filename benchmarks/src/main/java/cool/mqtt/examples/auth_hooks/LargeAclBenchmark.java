@@ -0,0 +1,98 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures permission checks of {@code DefaultPermissionInfo} as the number of granted topic
+ * filters grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LargeAclBenchmark {
+
+  @Param({"10", "1000", "50000"})
+  int grants;
+
+  private PermissionInfo permissions;
+
+  private String grantedTopic;
+
+  private String wildcardTopic;
+
+  private String deniedTopic;
+
+  private String grantedFilter;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    DefaultPermissionInfo.AuthorizationBuilder builder =
+        new DefaultPermissionInfo.AuthorizationBuilder().withBroker(HookFixture.BROKER);
+    for (int i = 0; i < grants; i++) {
+      // A mix of literal and wildcard grants.
+      builder.withPublishingTo("fleet/" + i + "/status")
+          .withPublishingTo("sensors/" + i + "/+/temp")
+          .withSubscribeTo("fleet/" + i + "/#");
+    }
+    permissions = builder.build();
+
+    int middle = grants / 2;
+    grantedTopic = "fleet/" + middle + "/status";
+    wildcardTopic = "sensors/" + middle + "/room-3/temp";
+    deniedTopic = "fleet/" + middle + "/commands";
+    grantedFilter = "fleet/" + middle + "/+/alarms";
+  }
+
+  @Benchmark
+  public boolean publishLiteral() {
+    return permissions.allowPublishTo(grantedTopic);
+  }
+
+  @Benchmark
+  public boolean publishWildcard() {
+    return permissions.allowPublishTo(wildcardTopic);
+  }
+
+  @Benchmark
+  public boolean publishDenied() {
+    return permissions.allowPublishTo(deniedTopic);
+  }
+
+  @Benchmark
+  public boolean subscribeFilter() {
+    return permissions.allowSubscribeTo(grantedFilter);
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import cool.mqtt.hooks.HookException;
+import cool.mqtt.hooks.MQTTCoolHook;
+import cool.mqtt.hooks.MqttMessage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead of the Hook metrics on the publish path, with the metrics disabled, with
+ * the default latency sampling and with every call timed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsOverheadBenchmark {
+
+  @Param({"AuthHook", "AuthHookWithAuthCache"})
+  String hookClass;
+
+  @Param({"disabled", "sampled", "timed"})
+  String metrics;
+
+  private MQTTCoolHook hook;
+
+  private final MqttMessage message = new StubMqttMessage("topics/topic_4");
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    Map<String, String> settings = new HashMap<>();
+    switch (metrics) {
+      case "disabled":
+        settings.put("metrics.enabled", "false");
+        break;
+
+      case "timed":
+        settings.put("metrics.latency_sampling", "1");
+        break;
+
+      default:
+        // Default sampling
+    }
+    hook = HookFixture.create(hookClass, settings);
+    HookFixture.openSession(hook, "session", "user1", "ikgdfigdfhihdsih");
+
+    // Make sure any cache is filled before measuring.
+    hook.canPublish("session", "client", HookFixture.BROKER, message);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    HookFixture.dispose(hook);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean publish() throws HookException {
+    return hook.canPublish("session", "client", HookFixture.BROKER, message);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public boolean publishMultiThreaded() throws HookException {
+    return hook.canPublish("session", "client", HookFixture.BROKER, message);
+  }
+}
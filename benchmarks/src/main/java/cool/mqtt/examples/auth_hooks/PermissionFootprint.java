@@ -0,0 +1,102 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Collections;
+
+/**
+ * Measures the heap retained by the permissions of many users, either granted a few shared roles
+ * or each holding its own copy of the same grants, as every user did before permissions were
+ * canonicalized. Not a JMH benchmark, as it measures space rather than time:
+ *
+ * <pre>
+ * java -Xmx4g -cp target/benchmarks.jar cool.mqtt.examples.auth_hooks.PermissionFootprint \
+ *     [users [roles]]
+ * </pre>
+ *
+ * The copies are made distinct by a different maximum payload size per user, which costs nothing
+ * in itself but defeats the sharing, so that both layouts hold the same brokers and topic filters.
+ */
+public final class PermissionFootprint {
+
+  private static final int BROKERS_PER_ROLE = 3;
+
+  private static final int FILTERS_PER_ROLE = 5;
+
+  private PermissionFootprint() {}
+
+  public static void main(String[] args) throws InterruptedException {
+    int users = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+    int roles = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+
+    System.out.printf("%,d users, %,d roles%n", users, roles);
+    measure("shared roles", users, roles, false);
+    measure("per-user copies", users, roles, true);
+  }
+
+  private static void measure(String layout, int users, int roles, boolean copies)
+      throws InterruptedException {
+
+    BrokerRegistry brokers = new BrokerRegistry(Collections.emptySet());
+    PermissionInfo[] rolePermissions = new PermissionInfo[roles];
+    for (int r = 0; r < roles; r++) {
+      DefaultPermissionInfo.AuthorizationBuilder role =
+          new DefaultPermissionInfo.AuthorizationBuilder();
+      for (int b = 0; b < BROKERS_PER_ROLE; b++) {
+        role.withBroker("tcp://broker-" + ((r + b) % 16) + ".example.com:1883");
+      }
+      for (int f = 0; f < FILTERS_PER_ROLE; f++) {
+        role.withSubscribeTo("fleet/" + r + "/+/sensor_" + f);
+        role.withPublishingTo("fleet/" + r + "/commands/" + f + "/#");
+      }
+      rolePermissions[r] = role.build();
+    }
+
+    long before = usedHeap();
+    PermissionSnapshot.Builder builder = new PermissionSnapshot.Builder();
+    for (int u = 0; u < users; u++) {
+      // Users are built as the loaders do, granting their role by name.
+      DefaultPermissionInfo.AuthorizationBuilder user =
+          new DefaultPermissionInfo.AuthorizationBuilder();
+      user.withPermissions(rolePermissions[u % roles]);
+      if (copies) {
+        user.withMaxPayloadSize(1_000_000 + u);
+      }
+      builder.withPermissions("user" + u, user.build());
+    }
+    PermissionSnapshot snapshot = builder.build(1, 0);
+    long retained = usedHeap() - before;
+
+    System.out.printf("%-16s %,15d bytes retained, %,7d bytes per user, %,d distinct permissions%n",
+        layout, retained, retained / users, PermissionInterner.SHARED.size());
+    if (snapshot.getUserCount() != users) {
+      throw new AssertionError();
+    }
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+}
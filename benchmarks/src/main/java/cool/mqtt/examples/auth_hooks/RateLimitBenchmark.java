@@ -0,0 +1,130 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import cool.mqtt.hooks.HookException;
+import cool.mqtt.hooks.MQTTCoolHook;
+import cool.mqtt.hooks.MqttMessage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of the rate limits on the publish path: with no limit, with a session limit
+ * only, and with session, topic prefix and user limits together, where the user limit is shared by
+ * the sessions of all the threads. Limits are either never reached or reached at once, in which
+ * case nearly every check is rejected.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RateLimitBenchmark {
+
+  @Param({"AuthHook", "AuthHookWithAuthCache"})
+  String hookClass;
+
+  @Param({"none", "session", "all"})
+  String limits;
+
+  @Param({"1000000000", "1"})
+  String rate;
+
+  private MQTTCoolHook hook;
+
+  private final AtomicInteger sessionCount = new AtomicInteger();
+
+  private final MqttMessage message = new StubMqttMessage("topics/topic_4");
+
+  /** Session opened for every thread, by the same user */
+  @State(Scope.Thread)
+  public static class ThreadSession {
+
+    String sessionId;
+
+    @Setup(Level.Trial)
+    public void setUp(RateLimitBenchmark benchmark) throws HookException {
+      sessionId = "session-" + benchmark.sessionCount.incrementAndGet();
+      HookFixture.openSession(benchmark.hook, sessionId, "user1", "ikgdfigdfhihdsih");
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    Map<String, String> settings = new HashMap<>();
+    switch (limits) {
+      case "all":
+        settings.put("rate_limit.publish.user", rate);
+        settings.put("rate_limit.publish.topic.topics/", rate);
+        settings.put("rate_limit.publish.session", rate);
+        break;
+
+      case "session":
+        settings.put("rate_limit.publish.session", rate);
+        break;
+
+      default:
+        // No limits
+    }
+    hook = HookFixture.create(hookClass, settings);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    HookFixture.dispose(hook);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean publish(ThreadSession session) {
+    return check(session);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public boolean publishMultiThreaded(ThreadSession session) {
+    return check(session);
+  }
+
+  private boolean check(ThreadSession session) {
+    try {
+      return hook.canPublish(session.sessionId, "client", HookFixture.BROKER, message);
+    } catch (HookException e) {
+      return false;
+    }
+  }
+}
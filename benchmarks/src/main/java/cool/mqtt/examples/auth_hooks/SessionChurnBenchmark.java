@@ -0,0 +1,137 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import cool.mqtt.hooks.HookException;
+import cool.mqtt.hooks.MQTTCoolHook;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures session churn, that is a {@code canOpenSession} immediately followed by the related
+ * {@code onSessionClose}, while another session of the same user keeps its cache alive. All the
+ * threads churn sessions of the same user, the worst case for the per-user structures; the
+ * throughput at 1, 4, 8, 16 and 32 threads shows how it scales with the shards of the session
+ * registry ({@code 0} sizes them to the available processors, {@code 1} disables sharding).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionChurnBenchmark {
+
+  @Param({"AuthHook", "AuthHookWithAuthCache"})
+  String hookClass;
+
+  @Param({"0", "1"})
+  String shards;
+
+  private MQTTCoolHook hook;
+
+  private final AtomicInteger threadIds = new AtomicInteger();
+
+  /** Generator of unique session ids, one per thread */
+  @State(Scope.Thread)
+  public static class SessionIds {
+
+    String prefix;
+
+    long next;
+
+    @Setup(Level.Trial)
+    public void setUp(SessionChurnBenchmark benchmark) {
+      prefix = "churn-" + benchmark.threadIds.incrementAndGet() + "-";
+    }
+
+    String next() {
+      return prefix + next++;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    hook = HookFixture.create(hookClass,
+        Collections.singletonMap("session_registry.shards", shards));
+    HookFixture.openSession(hook, "anchor", "user1", "ikgdfigdfhihdsih");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    HookFixture.dispose(hook);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void openAndClose(SessionIds ids) throws HookException {
+    churn(ids.next());
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void openAndClose4Threads(SessionIds ids) throws HookException {
+    churn(ids.next());
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void openAndClose8Threads(SessionIds ids) throws HookException {
+    churn(ids.next());
+  }
+
+  @Benchmark
+  @Threads(16)
+  public void openAndClose16Threads(SessionIds ids) throws HookException {
+    churn(ids.next());
+  }
+
+  @Benchmark
+  @Threads(32)
+  public void openAndClose32Threads(SessionIds ids) throws HookException {
+    churn(ids.next());
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public void openAndCloseMultiThreaded(SessionIds ids) throws HookException {
+    churn(ids.next());
+  }
+
+  private void churn(String sessionId) throws HookException {
+    HookFixture.openSession(hook, sessionId, "user1", "ikgdfigdfhihdsih");
+    hook.onSessionClose(sessionId);
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import cool.mqtt.hooks.MqttMessage;
+
+/**
+ * Minimal {@code MqttMessage} for feeding the Hooks in benchmarks.
+ */
+class StubMqttMessage implements MqttMessage {
+
+  private final String topicName;
+
+  private final byte[] payload;
+
+  private final int qos;
+
+  private final boolean retained;
+
+  StubMqttMessage(String topicName) {
+    this(topicName, new byte[16], 0, false);
+  }
+
+  StubMqttMessage(String topicName, byte[] payload, int qos, boolean retained) {
+    this.topicName = topicName;
+    this.payload = payload;
+    this.qos = qos;
+    this.retained = retained;
+  }
+
+  @Override
+  public String getTopicName() {
+    return topicName;
+  }
+
+  @Override
+  public byte[] getPayload() {
+    return payload;
+  }
+
+  @Override
+  public int getQos() {
+    return qos;
+  }
+
+  @Override
+  public boolean isRetained() {
+    return retained;
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import cool.mqtt.hooks.MqttSubscription;
+
+/**
+ * Minimal {@code MqttSubscription} for feeding the Hooks in benchmarks.
+ */
+class StubMqttSubscription implements MqttSubscription {
+
+  private final String topicFilter;
+
+  StubMqttSubscription(String topicFilter) {
+    this.topicFilter = topicFilter;
+  }
+
+  @Override
+  public String getTopicFilter() {
+    return topicFilter;
+  }
+
+  @Override
+  public int getQos() {
+    return 0;
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import cool.mqtt.hooks.HookException;
+
+/**
+ * {@link HookException} thrown when a client is denied an access.
+ * <p>
+ * A misbehaving client may keep on retrying a forbidden operation at high rate, so the exception
+ * doesn't capture the stack trace, unless explicitly asked to, and builds its message only if
+ * someone reads it. Being immutable, the same instance can also be thrown again for the same
+ * denial.
+ */
+final class AccessDeniedException extends HookException {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Kinds of denied accesses */
+  enum Access {
+
+    OPEN_SESSION(null),
+
+    CONNECT("' can't connect to broker '"),
+
+    PUBLISH("' can't publish messages to '"),
+
+    SUBSCRIBE("' can't receive messages from '");
+
+    private final String verb;
+
+    private Access(String verb) {
+      this.verb = verb;
+    }
+  }
+
+  private static final String PREFIX = "Unauthorized access: ";
+
+  private static final String RATE_LIMITED_PREFIX = "Rate limit exceeded: ";
+
+  private static final String PAYLOAD_TOO_LARGE_PREFIX = "Payload too large: ";
+
+  private static final String QOS_NOT_ALLOWED_PREFIX = "QoS not allowed: ";
+
+  private static final String RETAIN_NOT_ALLOWED_PREFIX = "Retain not allowed: ";
+
+  private final AuthorizationResult result;
+
+  private final Access access;
+
+  private final String user;
+
+  private final String target;
+
+  private transient String message;
+
+  /**
+   * Creates the exception.
+   *
+   * @param result the result of the authorization check
+   * @param access the kind of access
+   * @param user the user
+   * @param target the broker address or the topic, or {@code null} when opening a session
+   * @param stackTrace whether the stack trace has to be captured
+   */
+  AccessDeniedException(AuthorizationResult result, Access access, String user, String target,
+      boolean stackTrace) {
+
+    super(result.getCode(), null);
+    this.result = result;
+    this.access = access;
+    this.user = user;
+    this.target = target;
+    if (stackTrace) {
+      super.fillInStackTrace();
+    }
+  }
+
+  AuthorizationResult getResult() {
+    return result;
+  }
+
+  Access getAccess() {
+    return access;
+  }
+
+  @Override
+  public String getMessage() {
+    // Racy but benign, as Strings are immutable.
+    String current = message;
+    if (current == null) {
+      current = buildMessage();
+      message = current;
+    }
+    return current;
+  }
+
+  private String buildMessage() {
+    if (access.verb == null) {
+      return new StringBuilder(PREFIX.length() + 27 + user.length())
+          .append(PREFIX).append("token invalid for user '").append(user).append('\'')
+          .toString();
+    }
+    String prefix = prefixOf(result);
+    return new StringBuilder(prefix.length() + 8 + user.length() + access.verb.length()
+        + target.length() + 1)
+        .append(prefix).append("user '").append(user).append(access.verb).append(target)
+        .append('\'')
+        .toString();
+  }
+
+  private static String prefixOf(AuthorizationResult result) {
+    switch (result) {
+      case RATE_LIMITED:
+        return RATE_LIMITED_PREFIX;
+
+      case PAYLOAD_TOO_LARGE:
+        return PAYLOAD_TOO_LARGE_PREFIX;
+
+      case QOS_NOT_ALLOWED:
+        return QOS_NOT_ALLOWED_PREFIX;
+
+      case RETAIN_NOT_ALLOWED:
+        return RETAIN_NOT_ALLOWED_PREFIX;
+
+      default:
+        return PREFIX;
+    }
+  }
+
+  /*
+   * The stack trace is only captured in the constructor, if requested, as the super constructor
+   * calls this method before the fields are set.
+   */
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+}
@@ -19,6 +19,8 @@ package cool.mqtt.examples.auth_hooks;
 
 import static cool.mqtt.examples.auth_hooks.AuthorizationResult.OK;
 
+import cool.mqtt.examples.auth_hooks.AccessDeniedException.Access;
+import cool.mqtt.examples.auth_hooks.HookMetrics.Callback;
 import cool.mqtt.hooks.HookException;
 import cool.mqtt.hooks.MQTTCoolHook;
 import cool.mqtt.hooks.MqttBrokerConfig;
@@ -28,24 +30,142 @@ import cool.mqtt.hooks.MqttSubscription;
 
 import java.io.File;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
 
 /**
  * Hook class for authorization checks.
  */
 public class AuthHook implements MQTTCoolHook {
 
-  /** Map for sessionId-user pairs */
-  private final ConcurrentHashMap<String, String> sessionIdToUsers = new ConcurrentHashMap<>();
+  /**
+   * Interval between lookups of the permissions of a session which could not be retrieved (or
+   * whose user is unknown).
+   */
+  private static final long RETRY_MILLIS = 1000;
+
+  /** Permissions of a session, along with the version of the backend permissions they reflect */
+  private static final class ResolvedPermissions {
+
+    /** The permissions, or {@code null} if they could not be retrieved */
+    final PermissionInfo permissions;
+
+    final long version;
+
+    /** Number of the lookup, unique and increasing */
+    final long lookup;
+
+    /** Time after which the permissions are looked up again */
+    final long expiresAt;
+
+    ResolvedPermissions(PermissionInfo permissions, long version, long lookup, long expiresAt) {
+      this.permissions = permissions;
+      this.version = version;
+      this.lookup = lookup;
+      this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return the version of the decisions taken on these permissions, which changes whenever the
+     *         permissions are looked up again
+     */
+    long getDecisionVersion() {
+      // Both only increase over time, and the lookup number strictly, so the sum does too.
+      return version + lookup;
+    }
+  }
+
+  /** Registry of the sessions, each holding its user and the related permissions */
+  private SessionRegistry<ResolvedPermissions> sessions;
+
+  /** Counts the lookups of the permissions of the sessions */
+  private final AtomicLong lookups = new AtomicLong();
+
+  /**
+   * Time to live of the permissions of the sessions, if the backend doesn't track their changes,
+   * or {@code null} if they are looked up by every check
+   */
+  private CacheExpiry expiry;
+
+  /** Name of the MBean exposing the session registry */
+  private ObjectName sessionsName;
+
+  /** Name of the MBean revoking the open sessions */
+  private ObjectName revocationName;
+
+  /** Name of the MBean exposing the permission store, if in use */
+  private ObjectName permissionStoreName;
 
   private AuthorizationHandler authorizationHandler;
 
+  /** Builds, and logs in aggregate form, the exceptions of the denied accesses */
+  private DenialLog denialLog;
+
+  /** Invocations and latencies of the callbacks */
+  private HookMetrics metrics;
+
+  /** Configuration shared with the other Hooks, released upon shutdown */
+  private Configuration configuration;
+
+  /** Releases this Hook at JVM shutdown, unless shut down earlier */
+  private volatile Thread shutdownHook;
+
+  /** Set once this Hook has been shut down, so that it is shut down only once */
+  private final AtomicBoolean shutDown = new AtomicBoolean();
+
   @Override
   public void init(File configDir) throws HookException {
-    Configuration configuration = new Configuration(configDir);
-    Set<String> brokerAddresses = configuration.retrieveBrokerAddresses();
-    authorizationHandler = new AuthorizationHandler(brokerAddresses);
+    configuration = Configuration.of(configDir);
+    HookSettings settings = configuration.retrieveHookSettings();
+    authorizationHandler = new AuthorizationHandler(configuration.getBrokerRegistry(), settings);
+    sessions = new SessionRegistry<>(settings.getInt("session_cache.size", 8),
+        new RateLimiter(settings), settings.getInt("session_registry.shards", 0));
+    denialLog = new DenialLog(settings);
+    expiry = CacheExpiry.of(settings);
+    sessionsName =
+        JmxSupport.register(sessions, "SessionRegistry", AuthHook.class.getSimpleName());
+    revocationName = JmxSupport.register(
+        new SessionRevocation<>(sessions, authorizationHandler,
+            resolved -> resolved.permissions, null),
+        "SessionRevocation", AuthHook.class.getSimpleName());
+    if (authorizationHandler.getPermissionStore() != null) {
+      permissionStoreName = JmxSupport.register(authorizationHandler.getPermissionStore(),
+          "PermissionStore", AuthHook.class.getSimpleName());
+    }
+    metrics = new HookMetrics(AuthHook.class.getSimpleName(), settings);
+    sessions.addTo(metrics);
+    authorizationHandler.addTo(metrics);
+    metrics.publish();
+
+    // The Hook API offers no unload callback, so we release our threads at JVM shutdown.
+    shutDown.set(false);
+    shutdownHook = new Thread(this::shutdown, "AuthHook-Shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  /**
+   * Releases the threads and the JMX registrations of this Hook, which can't be used any longer.
+   * Invoking it again has no effect.
+   */
+  public void shutdown() {
+    if (!shutDown.compareAndSet(false, true)) {
+      return;
+    }
+    if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException e) {
+        // The JVM is already shutting down.
+      }
+    }
+    JmxSupport.unregister(sessionsName);
+    JmxSupport.unregister(revocationName);
+    JmxSupport.unregister(permissionStoreName);
+    metrics.withdraw();
+    authorizationHandler.shutdown();
+    configuration.close();
   }
 
   public MqttBrokerConfig resolveAlias(String alias) throws HookException {
@@ -57,6 +177,7 @@ public class AuthHook implements MQTTCoolHook {
   public boolean canOpenSession(String sessionId, String user, String password,
       @SuppressWarnings("rawtypes") Map clientContext, String clientPrincipal)
       throws HookException {
+    long start = metrics.start(Callback.OPEN_SESSION);
 
     /*
      * A user is connecting. We suppose the password works as an authentication token, generated by
@@ -67,15 +188,18 @@ public class AuthHook implements MQTTCoolHook {
      */
     AuthorizationResult result = authorizationHandler.validateToken(user, password);
     if (!OK.equals(result)) {
-      throw new HookException(result.getCode(),
-          "Unauthorized access: token invalid for user '" + user + "'");
+      metrics.record(Callback.OPEN_SESSION, result, start);
+      throw denialLog.deny(sessionId, Access.OPEN_SESSION, user, null, result);
     }
 
     /*
      * Since subsequent Hook calls will rely only on the sessionId, we store the user associated
-     * with this sessionId on an internal map.
+     * with this sessionId on an internal registry, along with a direct reference to his
+     * permissions, so that each subsequent check resolves them with a single lookup (as long as
+     * the backend permissions don't change, or for their time to live if the backend can't tell).
      */
-    sessionIdToUsers.put(sessionId, user);
+    sessions.register(sessionId, user, password, lookup(user));
+    metrics.record(Callback.OPEN_SESSION, OK, start);
     return true;
 
     /*
@@ -95,23 +219,63 @@ public class AuthHook implements MQTTCoolHook {
      */
   }
 
+  /*
+   * Only the backends tracking the changes of their permissions (like the file one) tell when the
+   * permissions have to be looked up again; those of the other backends (like the http one) are
+   * kept until the first of the soft and hard expiries of the cache settings, if any, or else not
+   * kept at all. Missing permissions are looked up again periodically.
+   */
+  private ResolvedPermissions lookup(String user) {
+    // The version is read first, so that a change during the lookup is not missed.
+    long version = authorizationHandler.getPermissionsVersion();
+    PermissionInfo permissions = authorizationHandler.lookupPermissions(user);
+    long now = System.currentTimeMillis();
+    long expiresAt;
+    if (permissions == null) {
+      expiresAt = now + RETRY_MILLIS;
+    } else if (authorizationHandler.hasVersionedPermissions()) {
+      expiresAt = Long.MAX_VALUE;
+    } else if (expiry != null) {
+      expiresAt = Math.min(expiry.softExpiry(now), expiry.hardExpiry(now));
+    } else {
+      expiresAt = now;
+    }
+    return new ResolvedPermissions(permissions, version, lookups.incrementAndGet(), expiresAt);
+  }
+
+  /*
+   * The permissions of the session are looked up again once the backend permissions changed (for
+   * instance, the permission file has been reloaded), or once expired.
+   */
+  private ResolvedPermissions resolve(SessionRegistry.Session<ResolvedPermissions> session) {
+    ResolvedPermissions resolved = session.getTarget();
+    if (resolved.version != authorizationHandler.getPermissionsVersion()
+        || System.currentTimeMillis() >= resolved.expiresAt) {
+      resolved = lookup(session.getUser());
+      session.setTarget(resolved);
+    }
+    return resolved;
+  }
+
   @Override
   public void onSessionClose(String sessionId) {
     /*
-     * A user is disconnecting. We clear the internal map from the association between this session
-     * Id and its user.
+     * A user is disconnecting. We clear the internal registry from the association between this
+     * session Id and its user.
      */
-    sessionIdToUsers.remove(sessionId);
+    sessions.unregister(sessionId);
+    denialLog.forget(sessionId);
   }
 
   @Override
   public boolean canConnect(String sessionId, String clientId, String brokerAddress,
       MqttConnectOptions connectOptions) throws HookException {
+    long start = metrics.start(Callback.CONNECT);
 
     /*
      * A user is trying to connect to the specified MQTT broker, we have to verify if he is
      * authorized to perform what it is asking for. To do this we first recover the user associated
-     * with the session Id from our internal map. This task might be performed by checking an
+     * with the session Id from our internal registry. This task might be performed by checking an
      * external service or a local cache. If a service has to be queried, it is, in most cases,
      * better to query it beforehand in the canOpenSession method. This class assumes such info has
      * been cached somewhere else. On the other hand, the AuthHookWithAuthCache class (available in
@@ -119,28 +283,38 @@ public class AuthHook implements MQTTCoolHook {
      * case this demo does not actually perform the request, as user authorizations are hard-coded
      * in the AuthorizationRequest class.
      */
-    String user = sessionIdToUsers.get(sessionId);
-    if (user == null) {
+    SessionRegistry.Session<ResolvedPermissions> session = sessions.get(sessionId);
+    if (session == null) {
+      metrics.record(Callback.CONNECT, null, start);
       return false; // Should never happen
     }
+    String user = session.getUser();
+    if (session.isRevoked()) {
+      metrics.record(Callback.CONNECT, AuthorizationResult.INVALID_TOKEN, start);
+      throw denialLog.deny(sessionId, Access.CONNECT, user, brokerAddress,
+          AuthorizationResult.INVALID_TOKEN);
+    }
 
-    AuthorizationResult result = authorizationHandler.authorizeMQTTConnection(user, brokerAddress);
+    AuthorizationResult result =
+        authorizationHandler.authorizeMQTTConnection(resolve(session).permissions, brokerAddress);
     if (!OK.equals(result)) {
-      throw new HookException(result.getCode(), String.format(
-          "Unauthorized access: user '%s' can't connect to broker '%s'", user, brokerAddress));
+      metrics.record(Callback.CONNECT, result, start);
+      throw denialLog.deny(sessionId, Access.CONNECT, user, brokerAddress, result);
     }
 
+    metrics.record(Callback.CONNECT, OK, start);
     return true;
   }
 
   @Override
   public boolean canPublish(String sessionId, String clientId, String brokerAddress,
       MqttMessage message) throws HookException {
+    long start = metrics.start(Callback.PUBLISH);
 
     /*
      * A user is trying to publish a message to a topic, we have to verify if he is authorized to
      * perform what it is asking for. To do this we first recover the user associated with the
-     * session Id from our internal map. This task might be performed by checking an external
+     * session Id from our internal registry. This task might be performed by checking an external
      * service or a local cache. If a service has to be queried, it is, in most cases, better to
      * query it beforehand in the canOpenSession method. This class assumes such info has been
      * cached somewhere else. On the other hand, the AuthHookWithAuthCache class (available in this
@@ -148,30 +322,65 @@ public class AuthHook implements MQTTCoolHook {
      * this demo does not actually perform the request, as user authorizations are hard-coded in the
      * AuthorizationRequest class.
      */
-    String user = sessionIdToUsers.get(sessionId);
-    if (user == null) {
+    SessionRegistry.Session<ResolvedPermissions> session = sessions.get(sessionId);
+    if (session == null) {
+      metrics.record(Callback.PUBLISH, null, start);
       return false; // Should never happen
     }
+    String user = session.getUser();
+    if (session.isRevoked()) {
+      metrics.record(Callback.PUBLISH, AuthorizationResult.INVALID_TOKEN, start);
+      throw denialLog.deny(sessionId, Access.PUBLISH, user, message.getTopicName(),
+          AuthorizationResult.INVALID_TOKEN);
+    }
 
+    /*
+     * Devices tend to publish to the same few topics over and over, so the last decisions are
+     * cached in the session slot, until the permissions are looked up again.
+     */
+    String topic = message.getTopicName();
+    ResolvedPermissions resolved = resolve(session);
+    long version = resolved.getDecisionVersion();
+    SessionDecisionCache decisions = session.getDecisions();
     AuthorizationResult result =
-        authorizationHandler.authorizePublishTo(user, message.getTopicName());
+        (decisions != null) ? decisions.getPublishDecision(topic, version, message) : null;
+    if (result == null) {
+      PermissionInfo permissions = resolved.permissions;
+      result = authorizationHandler.authorizePublishTo(permissions, topic);
+      PublishPolicy policy =
+          (permissions != null) ? permissions.getPublishPolicy() : PublishPolicy.UNRESTRICTED;
+      // Denials due to missing permissions are not cached, as they are looked up again.
+      if (decisions != null && permissions != null) {
+        decisions.putPublishDecision(topic, version, result, policy);
+      }
+      // Messages to allowed topics must also conform to the policy of the user.
+      if (OK.equals(result)) {
+        result = policy.check(message);
+      }
+    }
+    // If permitted, the request must also conform to the rate limits, never cached.
+    RateLimiter.SessionLimits limits = session.getRateLimits();
+    if (limits != null && OK.equals(result) && !limits.tryPublish(topic)) {
+      result = AuthorizationResult.RATE_LIMITED;
+    }
     if (!OK.equals(result)) {
-      throw new HookException(result.getCode(),
-          String.format("Unauthorized access: user '%s' can't publish messages to '%s'", user,
-              message.getTopicName()));
+      metrics.record(Callback.PUBLISH, result, start);
+      throw denialLog.deny(sessionId, Access.PUBLISH, user, topic, result);
     }
 
+    metrics.record(Callback.PUBLISH, OK, start);
     return true;
   }
 
   @Override
   public boolean canSubscribe(String sessionId, String clientId, String brokerAddress,
       MqttSubscription subscription) throws HookException {
+    long start = metrics.start(Callback.SUBSCRIBE);
 
     /*
      * A user is trying to subscribe to a topic, we have to verify if he is authorized to perform
      * what he's asking for. To do this we first recover the user associated with the session id
-     * from our internal map. This task might be performed by checking an external service or a
+     * from our internal registry. This task might be performed by checking an external service or a
      * local cache. If a service has to be queried, it is, in most cases, better to query it
      * beforehand in the canOpenSession method. This class assumes such info has been cached
      * somewhere else. On the other hand, the AuthHookWithAuthCache class (available in this
@@ -179,19 +388,43 @@ public class AuthHook implements MQTTCoolHook {
      * this demo does not actually perform the request, as user authorizations are hard-coded in the
      * AuthorizationRequest class.
      */
-    String user = sessionIdToUsers.get(sessionId);
-    if (user == null) {
+    SessionRegistry.Session<ResolvedPermissions> session = sessions.get(sessionId);
+    if (session == null) {
+      metrics.record(Callback.SUBSCRIBE, null, start);
       return false; // Should never happen
     }
+    String user = session.getUser();
+    if (session.isRevoked()) {
+      metrics.record(Callback.SUBSCRIBE, AuthorizationResult.INVALID_TOKEN, start);
+      throw denialLog.deny(sessionId, Access.SUBSCRIBE, user, subscription.getTopicFilter(),
+          AuthorizationResult.INVALID_TOKEN);
+    }
 
+    // The last decisions are cached in the session slot, until the permissions are looked up again.
+    String topicFilter = subscription.getTopicFilter();
+    ResolvedPermissions resolved = resolve(session);
+    long version = resolved.getDecisionVersion();
+    SessionDecisionCache decisions = session.getDecisions();
     AuthorizationResult result =
-        authorizationHandler.authorizeSubscribeTo(user, subscription.getTopicFilter());
+        (decisions != null) ? decisions.getSubscribeDecision(topicFilter, version) : null;
+    if (result == null) {
+      PermissionInfo permissions = resolved.permissions;
+      result = authorizationHandler.authorizeSubscribeTo(permissions, topicFilter);
+      if (decisions != null && permissions != null) {
+        decisions.putSubscribeDecision(topicFilter, version, result);
+      }
+    }
+    // If permitted, the request must also conform to the rate limits, never cached.
+    RateLimiter.SessionLimits limits = session.getRateLimits();
+    if (limits != null && OK.equals(result) && !limits.trySubscribe(topicFilter)) {
+      result = AuthorizationResult.RATE_LIMITED;
+    }
     if (!OK.equals(result)) {
-      throw new HookException(result.getCode(),
-          String.format("Unauthorized access: user '%s' can't receive messages from '%s'", user,
-              subscription.getTopicFilter()));
+      metrics.record(Callback.SUBSCRIBE, result, start);
+      throw denialLog.deny(sessionId, Access.SUBSCRIBE, user, topicFilter, result);
     }
 
+    metrics.record(Callback.SUBSCRIBE, OK, start);
     return true;
   }
 
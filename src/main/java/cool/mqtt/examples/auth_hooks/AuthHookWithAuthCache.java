@@ -19,6 +19,8 @@ package cool.mqtt.examples.auth_hooks;
 
 import static cool.mqtt.examples.auth_hooks.AuthorizationResult.OK;
 
+import cool.mqtt.examples.auth_hooks.AccessDeniedException.Access;
+import cool.mqtt.examples.auth_hooks.HookMetrics.Callback;
 import cool.mqtt.hooks.HookException;
 import cool.mqtt.hooks.MQTTCoolHook;
 import cool.mqtt.hooks.MqttBrokerConfig;
@@ -29,91 +31,602 @@ import cool.mqtt.hooks.MqttSubscription;
 import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.management.ObjectName;
 
 /**
  * Alternative Hook class for authorization checks, implementing a local cache.
  */
 public class AuthHookWithAuthCache implements MQTTCoolHook {
 
-  /** Map for sessionId-user pairs */
-  private final ConcurrentHashMap<String, String> sessionIdToUsers = new ConcurrentHashMap<>();
+  /** Registry of the sessions, each holding its user and a direct reference to his cache */
+  private SessionRegistry<UserAuthorizations> sessions;
+
+  /** Name of the MBean exposing the session registry */
+  private ObjectName sessionsName;
+
+  /** Name of the MBean revoking the open sessions */
+  private ObjectName revocationName;
+
+  /**
+   * Authorization cache for the user. Entries are created and removed atomically through the
+   * compute methods of the map, so that no shared lock is ever taken on the hot path.
+   */
+  private final ConcurrentHashMap<String, UserAuthorizations> authCache =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Dedicate thread pool to retrieve authorizations. Its size can be limited through the Hook
+   * settings and its usage is exposed through JMX.
+   */
+  private InstrumentedExecutor authorizationsThreads;
+
+  /** Name of the MBean exposing the thread pool */
+  private ObjectName authorizationsThreadsName;
+
+  /** Name of the MBean exposing the permission store, if in use */
+  private ObjectName permissionStoreName;
 
-  /** Authorization cache for the user */
-  private final Map<String, UserAuthorizations> authCache = new HashMap<>();
+  /** Counters of the authorization cache */
+  private AuthorizationCacheStats cacheStats;
 
-  /** Dedicate thread pool to retrieve authorizations. You might want to limit its size. */
-  private ExecutorService authorizationsThreads = Executors.newCachedThreadPool();
+  /** Name of the MBean exposing the counters of the authorization cache */
+  private ObjectName cacheStatsName;
 
   private AuthorizationHandler authorizationHandler;
 
+  /** Builds, and logs in aggregate form, the exceptions of the denied accesses */
+  private DenialLog denialLog;
+
+  /** Invocations and latencies of the callbacks */
+  private HookMetrics metrics;
+
+  /** Asynchronous retrieval of the authorizations, shared by all the sessions of a user */
+  private AuthorizationFetcher<PermissionInfo> fetcher;
+
+  /** Maximum number of decisions cached for every user */
+  private int maxDecisionsPerUser;
+
+  /** Expiry of the cached authorizations, or {@code null} if they are kept as long as used */
+  private CacheExpiry expiry;
+
+  /** Permissions and revocations shared with the other nodes of the cluster, if enabled */
+  private NearCache nearCache;
+
+  /** Name of the MBean exposing the near cache, if enabled */
+  private ObjectName nearCacheName;
+
+  /** Permissions saved before the last shutdown and saved for the next start, if enabled */
+  private WarmStartCache warmStart;
+
+  /** Configuration shared with the other Hooks, released upon shutdown */
+  private Configuration configuration;
+
+  /** Releases this Hook at JVM shutdown, unless shut down earlier */
+  private volatile Thread shutdownHook;
+
+  /** Set once this Hook has been shut down, so that it is shut down only once */
+  private final AtomicBoolean shutDown = new AtomicBoolean();
+
   /** Authorization cache class */
   private class UserAuthorizations {
 
-    int connectionCount = 0;
+    private final String user;
+
+    /**
+     * Open connections of the user, striped so that the sessions of the same user opened and closed
+     * on different cores don't contend for the same counter.
+     */
+    private final LongAdder connections = new LongAdder();
 
-    private Map<String, Map<String, AuthorizationResult>> authorizations;
+    /**
+     * Set, under the lock of the cache entry, while checking whether the entry can be removed, and
+     * left set once removed: a connection counted meanwhile has to be counted again under the lock.
+     */
+    private volatile boolean retiring;
 
     /*
-     * If we check for authorizations before they are filled, the request will be kept waiting by
-     * this CountDownLatch.
+     * The permissions being retrieved: if we check for authorizations before they are filled, the
+     * request will be kept waiting on this future.
      */
-    private CountDownLatch cacheWait = new CountDownLatch(1);
+    private volatile CompletableFuture<PermissionInfo> authorizations;
+
+    /** Version of the backend permissions when the retrieval was started */
+    private volatile long version;
+
+    /** Decisions taken so far, computed from the retrieved permissions */
+    private volatile DecisionCache decisions;
+
+    /** Time the last retrieval completed successfully, or 0 if none did */
+    private volatile long fetchTime;
 
     /**
-     * @return {@code true} if it is the first connection, {@code false} otherwise
+     * The permissions saved before the last restart, while served and not yet retrieved again:
+     * decisions taken on them are not cached by the sessions.
      */
-    synchronized boolean newConnection() {
-      connectionCount++;
-      return (connectionCount == 1);
+    private volatile CompletableFuture<PermissionInfo> provisional;
+
+    /**
+     * Time after which the permissions saved before the last restart are retrieved again, as the
+     * last retrieval failed
+     */
+    private volatile long revalidationRetry = Long.MAX_VALUE;
+
+    /** Number of failed retrievals in a row of the permissions saved before the last restart */
+    private int revalidationFailures;
+
+    /** Time after which the permissions are retrieved again in the background, while served */
+    private volatile long softExpiry = Long.MAX_VALUE;
+
+    /** Time after which the permissions are no longer served */
+    private volatile long hardExpiry = Long.MAX_VALUE;
+
+    /** Set while a background retrieval is in flight, so that a single one is started */
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    /** The background retrieval in flight, if any */
+    private CompletableFuture<PermissionInfo> pendingRefresh;
+
+    /** Number of failed background retrievals in a row */
+    private int refreshFailures;
+
+    /**
+     * Incremented whenever the served permissions are replaced, so that the decisions cached by the
+     * sessions are dropped as well.
+     */
+    private volatile long generation;
+
+    /** The first permissions of the user, completed once {@link #start()} is invoked */
+    private final CompletableFuture<PermissionInfo> initial = new CompletableFuture<>();
+
+    UserAuthorizations(String user) {
+      this.user = user;
+      this.version = authorizationHandler.getPermissionsVersion();
+      this.authorizations = initial;
     }
 
     /**
-     * @return {@code true} if it is the last connection, {@code false} otherwise
+     * Starts the first retrieval of the permissions. Invoked once the entry is in the cache, not
+     * while the lock of the map is held, as the retrieval may run on the calling thread.
      */
-    synchronized boolean endConnection() {
-      connectionCount--;
-      return (connectionCount == 0);
+    void start() {
+      WarmStartCache.Entry saved = (warmStart != null) ? warmStart.take(user) : null;
+      if (saved == null) {
+        fetch().whenComplete((permissions, error) -> {
+          if (error == null) {
+            initial.complete(permissions);
+          } else {
+            initial.completeExceptionally(error);
+          }
+        });
+      } else {
+        /*
+         * The permissions saved before the last restart are served at once, while they are
+         * retrieved again in the background: the retrieved ones replace them, unless a refresh or
+         * a revocation replaced them first. They expire as if retrieved by this run.
+         */
+        provisional = initial;
+        fetchTime = saved.getFetchTime();
+        if (expiry != null) {
+          softExpiry = expiry.softExpiry(fetchTime);
+          hardExpiry = expiry.hardExpiry(fetchTime);
+        }
+        initial.complete(saved.getPermissions());
+        revalidate();
+      }
+    }
+
+    /*
+     * The revalidation stands for the background retrieval of the expiry, so that the saved
+     * permissions past their soft expiry are not retrieved twice, and those past their hard expiry
+     * wait for it.
+     */
+    private synchronized void revalidate() {
+      CompletableFuture<PermissionInfo> revalidation = fetch();
+      refreshing.set(true);
+      pendingRefresh = revalidation;
+      revalidation.whenComplete(
+          (permissions, error) -> revalidated(initial, revalidation, error == null));
+    }
+
+    private CompletableFuture<PermissionInfo> fetch() {
+      CompletableFuture<PermissionInfo> future = fetcher.fetch(user);
+      future.thenRun(this::fetched);
+      return future;
+    }
+
+    private void fetched() {
+      long now = System.currentTimeMillis();
+      fetchTime = now;
+      if (expiry != null) {
+        softExpiry = expiry.softExpiry(now);
+        hardExpiry = expiry.hardExpiry(now);
+      }
+    }
+
+    /*
+     * A failed revalidation leaves the saved permissions in place, and is retried by a later check
+     * after a backoff, so that a backend unavailable upon the restart doesn't leave them
+     * provisional for good.
+     */
+    private synchronized void revalidated(CompletableFuture<PermissionInfo> served,
+        CompletableFuture<PermissionInfo> revalidation, boolean succeeded) {
+
+      if (pendingRefresh == revalidation) {
+        pendingRefresh = null;
+      }
+      if (authorizations != served) {
+        provisional = null; // Replaced meanwhile by a refresh, a revocation or an expiry
+        refreshing.set(false);
+      } else if (succeeded) {
+        authorizations = revalidation;
+        provisional = null;
+        generation++;
+        refreshing.set(false);
+      } else {
+        // Left set, as the retry stands for the background retrieval as well.
+        revalidationRetry = System.currentTimeMillis() + fetcher.retryDelay(++revalidationFailures);
+      }
+    }
+
+    private synchronized void retryRevalidation(long now) {
+      if (now < revalidationRetry) {
+        return; // Already retried by a concurrent check
+      }
+      revalidationRetry = Long.MAX_VALUE;
+      if (authorizations == provisional) {
+        revalidate();
+      } else {
+        refreshing.set(false);
+      }
+    }
+
+    /**
+     * Retries the revalidation of the permissions saved before the last restart, if due, and checks
+     * the expiry of the permissions, if enabled: past the soft expiry, they are still served while
+     * a single retrieval runs in the background; past the hard expiry, they are replaced by a
+     * retrieval the checks have to wait for.
+     */
+    void checkExpiry() {
+      long now = System.currentTimeMillis();
+      if (now >= revalidationRetry) {
+        retryRevalidation(now);
+      }
+      if (expiry == null) {
+        return;
+      }
+      if (now >= hardExpiry) {
+        expire(now);
+      } else if (now >= softExpiry && refreshing.compareAndSet(false, true)) {
+        refreshAhead();
+      }
+    }
+
+    private synchronized void refreshAhead() {
+      if (nearCache != null) {
+        nearCache.bypass(user);
+      }
+      CompletableFuture<PermissionInfo> served = authorizations;
+      CompletableFuture<PermissionInfo> future = fetch();
+      pendingRefresh = future;
+      cacheStats.refreshedAhead();
+      future.whenComplete((permissions, error) -> refreshed(served, future, error == null));
+    }
+
+    /*
+     * A failed refresh leaves the served permissions in place, until the hard expiry, and is
+     * retried after a backoff, rather than by the very next check; a successful one replaces them,
+     * unless a revocation or an expiry replaced them first.
+     */
+    private synchronized void refreshed(CompletableFuture<PermissionInfo> served,
+        CompletableFuture<PermissionInfo> future, boolean succeeded) {
+
+      if (!succeeded) {
+        softExpiry = System.currentTimeMillis() + fetcher.retryDelay(++refreshFailures);
+      } else {
+        refreshFailures = 0;
+        if (authorizations == served) {
+          authorizations = future;
+          generation++;
+        }
+      }
+      pendingRefresh = null;
+      refreshing.set(false);
+    }
+
+    private synchronized void expire(long now) {
+      if (now < hardExpiry) {
+        return; // Already expired by a concurrent check
+      }
+      hardExpiry = Long.MAX_VALUE; // Until the next successful retrieval
+      cacheStats.hardExpired();
+      // The checks wait for the background retrieval, if in flight, rather than starting another.
+      CompletableFuture<PermissionInfo> future = pendingRefresh;
+      if (future == null) {
+        if (nearCache != null) {
+          nearCache.bypass(user);
+        }
+        future = fetch();
+      }
+      authorizations = future;
+      decisions = null;
+      generation++;
     }
 
     /**
-     * Saves the authorization map and releases the CountDownLatch: any request, waiting for this
-     * authorizations list, can now continue. We expect this method to be called only once (it is),
-     * safety controls are out of scope here.
+     * @return a number incremented whenever the served permissions are replaced
+     */
+    long getGeneration() {
+      return generation;
+    }
+
+    /**
+     * Counts a new connection without taking the lock of the cache entry.
      *
-     * @param authorizations the authorization map
+     * @return {@code true} if counted, {@code false} if the entry is being removed, in which case
+     *         the connection has to be counted under the lock
+     */
+    boolean tryNewConnection() {
+      connections.increment();
+      if (retiring) {
+        connections.decrement();
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * Counts a new connection, under the lock of the cache entry.
+     */
+    void newConnection() {
+      connections.increment();
+    }
+
+    /**
+     * @return {@code true} if it might be the last connection, {@code false} otherwise
      */
-    void cacheAuthorizations(Map<String, Map<String, AuthorizationResult>> authorizations) {
-      this.authorizations = authorizations;
-      cacheWait.countDown();
+    boolean endConnection() {
+      connections.decrement();
+      return connections.sum() == 0;
     }
 
     /**
-     * Retrieves the authorizations map if already available, otherwise awaits.
+     * Checks, under the lock of the cache entry, whether no connection is left, in which case the
+     * entry must be removed, along with the authorizations kept for the fallback policy.
      *
-     * @return the authorizations map
+     * @return {@code true} if no connection is left, {@code false} otherwise
      */
-    Map<String, Map<String, AuthorizationResult>> getAuthorizations() {
-      try {
-        // We do not wait forever, we have to release the thread.
-        cacheWait.await(3, TimeUnit.SECONDS);
-      } catch (InterruptedException e) {
-        /* Ignore exception */
+    boolean retire() {
+      /*
+       * A connection counted concurrently either is seen by the sum or sees the flag (both are
+       * volatile accesses), in which case it is counted again under the lock.
+       */
+      retiring = true;
+      if (connections.sum() == 0) {
+        fetcher.forget(user);
+        return true;
+      }
+      retiring = false;
+      return false;
+    }
+
+    /**
+     * @return {@code true} if the permissions have been retrieved, and not served by the fallback
+     *         policy nor saved before the last restart
+     */
+    boolean isSettled() {
+      CompletableFuture<PermissionInfo> current = authorizations;
+      return current != provisional && current.isDone() && !current.isCompletedExceptionally();
+    }
+
+    /**
+     * Retrieves the decision cache if the permissions are already available, otherwise awaits (but
+     * not forever, we have to release the thread).
+     *
+     * @return the decision cache, or {@code null} if the permissions are not available
+     */
+    DecisionCache getAuthorizations(String user) {
+      /*
+       * If the backend permissions changed since our retrieval (for instance, the permission file
+       * has been reloaded), we retrieve them again: no cache is touched upon the change, each one
+       * is refreshed by the first check it serves afterwards.
+       */
+      long currentVersion = authorizationHandler.getPermissionsVersion();
+      if (currentVersion != version) {
+        refresh(user, currentVersion);
+      }
+
+      PermissionInfo permissions = fetcher.await(user, authorizations);
+      if (permissions == null) {
+        return null;
+      }
+
+      // The permissions change upon a refresh, or when served by the fallback policy.
+      DecisionCache current = decisions;
+      if (current == null || current.getPermissions() != permissions) {
+        current = cacheStats.newDecisionCache(permissions, maxDecisionsPerUser);
+        decisions = current;
+      }
+      return current;
+    }
+
+    /**
+     * @return the retrieved permissions, or {@code null} if not available yet or served by the
+     *         fallback policy
+     */
+    PermissionInfo getCurrentPermissions() {
+      CompletableFuture<PermissionInfo> current = authorizations;
+      return current.isDone() && !current.isCompletedExceptionally() ? current.getNow(null) : null;
+    }
+
+    /**
+     * @return the retrieved permissions with the time they were retrieved, or {@code null} if not
+     *         available yet or served by the fallback policy
+     */
+    WarmStartCache.Entry getSavedPermissions() {
+      PermissionInfo permissions = getCurrentPermissions();
+      long time = fetchTime;
+      return (permissions != null && time != 0) ? new WarmStartCache.Entry(permissions, time)
+          : null;
+    }
+
+    /**
+     * Retrieves the permissions again and drops the decisions taken so far, upon a revocation.
+     */
+    synchronized void invalidate() {
+      if (nearCache != null) {
+        nearCache.bypass(user);
+      }
+      fetcher.invalidate(user);
+      authorizationHandler.invalidatePermissions(user);
+      authorizations = fetch();
+      decisions = null;
+      generation++;
+    }
+
+    private synchronized void refresh(String user, long currentVersion) {
+      if (currentVersion != version) {
+        if (nearCache != null) {
+          nearCache.bypass(user);
+        }
+        authorizationHandler.invalidatePermissions(user);
+        // The future is replaced first, so that whoever sees the new version sees it as well.
+        authorizations = fetch();
+        decisions = null; // They may be outdated even if the permissions are the same
+        version = currentVersion;
+        generation++;
       }
-      return authorizations;
     }
   }
 
   @Override
   public void init(File configDir) throws HookException {
-    Configuration configuration = new Configuration(configDir);
-    Set<String> brokerAddresses = configuration.retrieveBrokerAddresses();
-    authorizationHandler = new AuthorizationHandler(brokerAddresses);
+    configuration = Configuration.of(configDir);
+    HookSettings settings = configuration.retrieveHookSettings();
+    authorizationHandler = new AuthorizationHandler(configuration.getBrokerRegistry(), settings);
+
+    sessions = new SessionRegistry<>(settings.getInt("session_cache.size", 8),
+        new RateLimiter(settings), settings.getInt("session_registry.shards", 0));
+    denialLog = new DenialLog(settings);
+    authorizationsThreads =
+        new InstrumentedExecutor("AuthHookWithAuthCache-Authorizations", settings, "executor.");
+    sessionsName = JmxSupport.register(sessions, "SessionRegistry",
+        AuthHookWithAuthCache.class.getSimpleName());
+    SessionRevocation<UserAuthorizations> revocation = new SessionRevocation<>(sessions,
+        authorizationHandler, UserAuthorizations::getCurrentPermissions,
+        UserAuthorizations::invalidate);
+    revocationName = JmxSupport.register(revocation, "SessionRevocation",
+        AuthHookWithAuthCache.class.getSimpleName());
+    authorizationsThreadsName = JmxSupport.register(authorizationsThreads, "AuthorizationExecutor",
+        AuthHookWithAuthCache.class.getSimpleName());
+    if (authorizationHandler.getPermissionStore() != null) {
+      permissionStoreName = JmxSupport.register(authorizationHandler.getPermissionStore(),
+          "PermissionStore", AuthHookWithAuthCache.class.getSimpleName());
+    }
+
+    /*
+     * The loader calls the backend with a blocking call. With the default backend of this demo the
+     * authorization list is hard-coded, the call will not block and will always work; with a
+     * remote backend it might fail or take long, so the fetcher applies timeouts, retries and a
+     * fallback policy (tunable through the Hook settings).
+     */
+    Function<String, CompletableFuture<PermissionInfo>> loader =
+        user -> authorizationHandler.getUserPermissions(user, authorizationsThreads);
+
+    /*
+     * In cluster mode, the permissions are looked up on the store shared by the nodes before
+     * asking the backend, and the revocations are relayed to the other nodes.
+     */
+    if (settings.getBoolean("cluster.enabled", false)) {
+      nearCache = new NearCache(loader, authorizationsThreads, settings);
+      nearCache.attach(revocation);
+      nearCacheName = JmxSupport.register(nearCache, "NearCache",
+          AuthHookWithAuthCache.class.getSimpleName());
+      loader = nearCache::load;
+    }
+    fetcher = new AuthorizationFetcher<>(loader, settings);
+
+    /*
+     * After a restart, the users return all at once: the permissions saved before the shutdown
+     * serve them while the backend is asked again at its own pace.
+     */
+    if (settings.getBoolean("warm_start.enabled", false)) {
+      warmStart = new WarmStartCache(settings, configuration.getBrokerRegistry());
+      warmStart.open();
+      warmStart.start(this::savedPermissions);
+    }
+    maxDecisionsPerUser = settings.getInt("cache.max_decisions_per_user", 1024);
+    expiry = CacheExpiry.of(settings);
+
+    cacheStats = new AuthorizationCacheStats(authCache::size, fetcher);
+    cacheStatsName = JmxSupport.register(cacheStats, "AuthorizationCache",
+        AuthHookWithAuthCache.class.getSimpleName());
+    metrics = new HookMetrics(AuthHookWithAuthCache.class.getSimpleName(), settings);
+    sessions.addTo(metrics);
+    authorizationHandler.addTo(metrics);
+    cacheStats.addTo(metrics);
+    if (nearCache != null) {
+      nearCache.addTo(metrics);
+    }
+    if (warmStart != null) {
+      warmStart.addTo(metrics);
+    }
+    metrics.publish();
+
+    // The Hook API offers no unload callback, so we release our threads at JVM shutdown.
+    shutDown.set(false);
+    shutdownHook = new Thread(this::shutdown, "AuthHookWithAuthCache-Shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  /**
+   * Writes the warm-start file, if enabled, and releases the threads and the JMX registrations of
+   * this Hook, which can't be used any longer. Invoking it again has no effect.
+   */
+  public void shutdown() {
+    if (!shutDown.compareAndSet(false, true)) {
+      return;
+    }
+    if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException e) {
+        // The JVM is already shutting down.
+      }
+    }
+    if (warmStart != null) {
+      warmStart.close();
+    }
+    JmxSupport.unregister(sessionsName);
+    JmxSupport.unregister(revocationName);
+    JmxSupport.unregister(authorizationsThreadsName);
+    JmxSupport.unregister(permissionStoreName);
+    JmxSupport.unregister(cacheStatsName);
+    JmxSupport.unregister(nearCacheName);
+    metrics.withdraw();
+    if (nearCache != null) {
+      nearCache.close();
+    }
+    authorizationsThreads.shutdown();
+    fetcher.shutdown();
+    authorizationHandler.shutdown();
+    configuration.close();
+  }
+
+  private Map<String, WarmStartCache.Entry> savedPermissions() {
+    Map<String, WarmStartCache.Entry> saved = new HashMap<>();
+    authCache.forEach((user, userCache) -> {
+      WarmStartCache.Entry entry = userCache.getSavedPermissions();
+      if (entry != null) {
+        saved.put(user, entry);
+      }
+    });
+    return saved;
   }
 
   @Override
@@ -126,6 +639,7 @@ public class AuthHookWithAuthCache implements MQTTCoolHook {
   public boolean canOpenSession(String sessionId, String user, String password,
       @SuppressWarnings("rawtypes") Map clientContext, String clientPrincipal)
       throws HookException {
+    long start = metrics.start(Callback.OPEN_SESSION);
 
     /*
      * A user is connecting. We suppose the password works as an authentication token, generated by
@@ -136,16 +650,10 @@ public class AuthHookWithAuthCache implements MQTTCoolHook {
      */
     AuthorizationResult result = authorizationHandler.validateToken(user, password);
     if (!OK.equals(result)) {
-      throw new HookException(result.getCode(),
-          "Unauthorized access: token invalid for user '" + user + "'");
+      metrics.record(Callback.OPEN_SESSION, result, start);
+      throw denialLog.deny(sessionId, Access.OPEN_SESSION, user, null, result);
     }
 
-    /*
-     * Since subsequent Hook calls will rely only on the sessionId, we store the user associated
-     * with this sessionId on an internal map.
-     */
-    sessionIdToUsers.put(sessionId, user);
-
     /*
      * NOTE: as the canOpenSession call is blocking, a further blocking call you may need to perform
      * the client lookup may require a proper configuration of the specific "SET" thread pool
@@ -164,41 +672,41 @@ public class AuthHookWithAuthCache implements MQTTCoolHook {
 
     /*
      * We now verify if a cache containing his authorizations is already available and, if not,
-     * query the external service to create one.
-     */
-    UserAuthorizations userCache;
-    synchronized (authCache) {
-      userCache = authCache.get(user);
-      if (userCache == null) {
-        userCache = new UserAuthorizations();
-        authCache.put(user, userCache);
-      }
-    }
-
-    /*
-     * The cache object also counts the connections associated to the related user, so we inform it
-     * to count a new connection.
+     * query the external service to create one. The cache object also counts the connections
+     * associated to the related user, so we inform it to count a new connection. If the cache is
+     * there, the connection is counted without any lock; otherwise, or if the cache is being
+     * removed by onSessionClose, both steps are performed atomically with respect to the removal,
+     * locking the entry of the user only.
      */
-    boolean isFirstConnection = userCache.newConnection();
-    if (isFirstConnection) {
+    UserAuthorizations userCache = authCache.get(user);
+    if (userCache == null || !userCache.tryNewConnection()) {
+      UserAuthorizations created = new UserAuthorizations(user);
+      userCache = authCache.compute(user, (key, current) -> {
+        UserAuthorizations entry = (current != null) ? current : created;
+        entry.newConnection();
+        return entry;
+      });
+
       /*
        * If this is the first connection we have to query the service to retrieve the list of
        * authorizations. We don't need it right away, thus it would be a pity to block the thread.
-       * So we will make the request to the service on a separate thread.
+       * So the request to the service is made asynchronously by the fetcher, and the resulting
+       * future is shared by all the sessions of this user. It is started once the entry is in
+       * place, so that no lock of the map is held meanwhile.
        */
-      UserAuthorizations retrievedUserCache = userCache;
-      authorizationsThreads.execute(() -> {
-        /*
-         * In a real case, here we would call the service with a blocking call. In this demo the
-         * authorization list is hard-coded in the AuthorizationRequest class, the call will not
-         * block and will always work; in a real case you will probably need a fallback mechanism to
-         * release the CountDownLatch in UserAuthorization if the authorization mechanism fails or a
-         * timeout expires.
-         */
-        retrievedUserCache.cacheAuthorizations(authorizationHandler.getUserAuthorizations(user));
-      });
+      if (userCache == created) {
+        created.start();
+      }
     }
 
+    /*
+     * Since subsequent Hook calls will rely only on the sessionId, we store the user associated
+     * with this sessionId on an internal registry, along with a direct reference to his cache
+     * object, so that each subsequent check resolves it with a single lookup.
+     */
+    sessions.register(sessionId, user, password, userCache);
+
+    metrics.record(Callback.OPEN_SESSION, OK, start);
     return true;
   }
 
@@ -207,38 +715,35 @@ public class AuthHookWithAuthCache implements MQTTCoolHook {
     /*
      * Once all the sessions for a certain user are closed we have to clean the cache, thus we have
      * to keep count of how many connections a user has. We now first recover (and remove) the user
-     * associated with the session Id from our internal map.
+     * associated with the session Id from our internal registry.
      */
-    String user = sessionIdToUsers.remove(sessionId);
-    if (user == null) {
+    SessionRegistry.Session<UserAuthorizations> session = sessions.unregister(sessionId);
+    denialLog.forget(sessionId);
+    if (session == null) {
       return; // Should never happen
     }
 
     /*
-     * Then we check his cache object to verify the number of active sessions. If this is the last
-     * one we simply destroy the cache.
+     * Then we check his cache object to verify the number of active sessions. If this might be the
+     * last one, we check it again under the lock of the entry and, if so, we simply destroy the
+     * cache (returning null from the remapping function removes the entry).
      */
-    synchronized (authCache) {
-      UserAuthorizations userCache = authCache.get(user);
-      if (userCache == null) {
-        return; // Should never happen
-      }
-
-      boolean isLastConnection = userCache.endConnection();
-      if (isLastConnection) {
-        authCache.remove(user);
-      }
+    UserAuthorizations target = session.getTarget();
+    if (target.endConnection()) {
+      authCache.computeIfPresent(session.getUser(),
+          (key, userCache) -> (userCache == target && userCache.retire()) ? null : userCache);
     }
   }
 
   @Override
   public boolean canConnect(String sessionId, String clientId, String brokerAddress,
       MqttConnectOptions connectOptions) throws HookException {
+    long start = metrics.start(Callback.CONNECT);
 
     /*
      * A user is trying to connect to the specified MQTT broker, we have to verify if he is
      * authorized to perform what it is asking for. To do this we first recover the user associated
-     * with the session Id from our internal map. This task might be performed by checking an
+     * with the session Id from our internal registry. This task might be performed by checking an
      * external service or a local cache. If a service has to be queried, it is, in most cases,
      * better to query it beforehand in the canOpenSession method. This class assumes such info has
      * been cached somewhere else. On the other hand, the AuthHookWithAuthCache class (available in
@@ -246,44 +751,52 @@ public class AuthHookWithAuthCache implements MQTTCoolHook {
      * case this demo does not actually perform the request, as user authorizations are hard-coded
      * in the AuthorizationRequest class.
      */
-    String user = sessionIdToUsers.get(sessionId);
-    if (user == null) {
+    SessionRegistry.Session<UserAuthorizations> session = sessions.get(sessionId);
+    if (session == null) {
+      metrics.record(Callback.CONNECT, null, start);
       return false; // Should never happen
     }
+    String user = session.getUser();
+    if (session.isRevoked()) {
+      metrics.record(Callback.CONNECT, AuthorizationResult.INVALID_TOKEN, start);
+      throw denialLog.deny(sessionId, Access.CONNECT, user, brokerAddress,
+          AuthorizationResult.INVALID_TOKEN);
+    }
 
-    synchronized (authCache) {
-      UserAuthorizations userCache = authCache.get(user);
-      if (userCache == null) {
-        return false; // Should never happen
-      }
-
-      Map<String, Map<String, AuthorizationResult>> authorizations = userCache.getAuthorizations();
-      if (authorizations == null) {
-        return false; // May happen if the authorization cache is taking too long to fill
-      }
-
-      // Retrieve the authorization results for connecting.
-      Map<String, AuthorizationResult> map = authorizations.get("connect");
+    /*
+     * No lock is taken here: the session slot directly references the cache object of the user
+     * and, if the authorizations are still being retrieved, we only wait on the entry of this very
+     * user.
+     */
+    UserAuthorizations userCache = session.getTarget();
+    userCache.checkExpiry();
 
-      // Check the cached authorization results.
-      AuthorizationResult result = map.get(brokerAddress);
-      if (!OK.equals(result)) {
-        throw new HookException(result.getCode(), String.format(
-            "Unauthorized access: user '%s' can't connect to broker '%s'", user, brokerAddress));
-      }
+    DecisionCache decisions = userCache.getAuthorizations(user);
+    if (decisions == null) {
+      metrics.record(Callback.CONNECT, null, start);
+      return false; // May happen if the authorization cache is taking too long to fill or failed
+    }
 
-      return true;
+    // Check the cached authorization results, computing them the first time.
+    AuthorizationResult result = decisions.authorizeMQTTConnection(brokerAddress);
+    if (!OK.equals(result)) {
+      metrics.record(Callback.CONNECT, result, start);
+      throw denialLog.deny(sessionId, Access.CONNECT, user, brokerAddress, result);
     }
+
+    metrics.record(Callback.CONNECT, OK, start);
+    return true;
   }
 
   @Override
   public boolean canPublish(String sessionId, String clientId, String brokerAddress,
       MqttMessage message) throws HookException {
+    long start = metrics.start(Callback.PUBLISH);
 
     /*
      * A user is trying to publish a message to a topic, we have to verify if he is authorized to
      * perform what it is asking for. To do this we first recover the user associated with the
-     * session Id from our internal map. This task might be performed by checking an external
+     * session Id from our internal registry. This task might be performed by checking an external
      * service or a local cache. If a service has to be queried, it is, in most cases, better to
      * query it beforehand in the canOpenSession method. This class assumes such info has been
      * cached somewhere else. On the other hand, the AuthHookWithAuthCache class (available in this
@@ -291,45 +804,78 @@ public class AuthHookWithAuthCache implements MQTTCoolHook {
      * this demo does not actually perform the request, as user authorizations are hard-coded in the
      * AuthorizationRequest class.
      */
-    String user = sessionIdToUsers.get(sessionId);
-    if (user == null) {
+    SessionRegistry.Session<UserAuthorizations> session = sessions.get(sessionId);
+    if (session == null) {
+      metrics.record(Callback.PUBLISH, null, start);
       return false; // Should never happen
     }
+    String user = session.getUser();
+    if (session.isRevoked()) {
+      metrics.record(Callback.PUBLISH, AuthorizationResult.INVALID_TOKEN, start);
+      throw denialLog.deny(sessionId, Access.PUBLISH, user, message.getTopicName(),
+          AuthorizationResult.INVALID_TOKEN);
+    }
 
-    synchronized (authCache) {
-      UserAuthorizations userCache = authCache.get(user);
-      if (userCache == null) {
-        return false; // Should never happen
-      }
+    /*
+     * No lock is taken here: the session slot directly references the cache object of the user
+     * and, if the authorizations are still being retrieved, we only wait on the entry of this very
+     * user.
+     */
+    UserAuthorizations userCache = session.getTarget();
 
-      Map<String, Map<String, AuthorizationResult>> authorizations = userCache.getAuthorizations();
-      if (authorizations == null) {
-        return false; // May happen if the authorization cache is taking too long to fill
+    /*
+     * Devices tend to publish to the same few topics over and over, so the last decisions are
+     * also cached in the session slot, as long as the permissions don't change: both the version of
+     * the backend permissions and the generation of the user permissions only grow, so their sum
+     * changes with either.
+     */
+    userCache.checkExpiry();
+    String topic = message.getTopicName();
+    long version = authorizationHandler.getPermissionsVersion() + userCache.getGeneration();
+    SessionDecisionCache sessionDecisions = session.getDecisions();
+    AuthorizationResult result =
+        (sessionDecisions != null) ? sessionDecisions.getPublishDecision(topic, version, message)
+            : null;
+    if (result == null) {
+      DecisionCache decisions = userCache.getAuthorizations(user);
+      if (decisions == null) {
+        metrics.record(Callback.PUBLISH, null, start);
+        return false; // May happen if the authorization cache is taking too long to fill or failed
       }
 
-      // Retrieve the authorization results for publishing.
-      Map<String, AuthorizationResult> map = authorizations.get("publish");
-
-      // Check the cached authorization results.
-      AuthorizationResult result = map.get(message.getTopicName());
-      if (!OK.equals(result)) {
-        throw new HookException(result.getCode(),
-            String.format("Unauthorized access: user '%s' can't publish messages to '%s'", user,
-                message.getTopicName()));
+      // Check the cached authorization results, computing them the first time.
+      result = decisions.authorizePublishTo(topic);
+      PublishPolicy policy = decisions.getPermissions().getPublishPolicy();
+      if (sessionDecisions != null && userCache.isSettled()) {
+        sessionDecisions.putPublishDecision(topic, version, result, policy);
+      }
+      // Messages to allowed topics must also conform to the policy of the user.
+      if (OK.equals(result)) {
+        result = policy.check(message);
       }
-      return true;
     }
-
+    // If permitted, the request must also conform to the rate limits, never cached.
+    RateLimiter.SessionLimits limits = session.getRateLimits();
+    if (limits != null && OK.equals(result) && !limits.tryPublish(topic)) {
+      result = AuthorizationResult.RATE_LIMITED;
+    }
+    if (!OK.equals(result)) {
+      metrics.record(Callback.PUBLISH, result, start);
+      throw denialLog.deny(sessionId, Access.PUBLISH, user, topic, result);
+    }
+    metrics.record(Callback.PUBLISH, OK, start);
+    return true;
   }
 
   @Override
   public boolean canSubscribe(String sessionId, String clientId, String brokerAddress,
       MqttSubscription subscription) throws HookException {
+    long start = metrics.start(Callback.SUBSCRIBE);
 
     /*
      * A user is trying to subscribe to a topic, we have to verify if he is authorized to perform
      * what he's asking for. To do this we first recover the user associated with the session id
-     * from our internal map. This task might be performed by checking an external service or a
+     * from our internal registry. This task might be performed by checking an external service or a
      * local cache. If a service has to be queried, it is, in most cases, better to query it
      * beforehand in the canOpenSession method. This class assumes such info has been cached
      * somewhere else. On the other hand, the AuthHookWithAuthCache class (available in this
@@ -337,35 +883,57 @@ public class AuthHookWithAuthCache implements MQTTCoolHook {
      * this demo does not actually perform the request, as user authorizations are hard-coded in the
      * AuthorizationRequest class.
      */
-    String user = sessionIdToUsers.get(sessionId);
-    if (user == null) {
+    SessionRegistry.Session<UserAuthorizations> session = sessions.get(sessionId);
+    if (session == null) {
+      metrics.record(Callback.SUBSCRIBE, null, start);
       return false; // Should never happen
     }
+    String user = session.getUser();
+    if (session.isRevoked()) {
+      metrics.record(Callback.SUBSCRIBE, AuthorizationResult.INVALID_TOKEN, start);
+      throw denialLog.deny(sessionId, Access.SUBSCRIBE, user, subscription.getTopicFilter(),
+          AuthorizationResult.INVALID_TOKEN);
+    }
 
-    synchronized (authCache) {
-      UserAuthorizations userCache = authCache.get(user);
-      if (userCache == null) {
-        return false; // Should never happen
-      }
-
-      Map<String, Map<String, AuthorizationResult>> authorizations = userCache.getAuthorizations();
-      if (authorizations == null) {
-        return false; // May happen if the authorization cache is taking too long to fill
+    /*
+     * No lock is taken here: the session slot directly references the cache object of the user
+     * and, if the authorizations are still being retrieved, we only wait on the entry of this very
+     * user.
+     */
+    UserAuthorizations userCache = session.getTarget();
+
+    // The last decisions are also cached in the session slot.
+    userCache.checkExpiry();
+    String topicFilter = subscription.getTopicFilter();
+    long version = authorizationHandler.getPermissionsVersion() + userCache.getGeneration();
+    SessionDecisionCache sessionDecisions = session.getDecisions();
+    AuthorizationResult result = (sessionDecisions != null)
+        ? sessionDecisions.getSubscribeDecision(topicFilter, version) : null;
+    if (result == null) {
+      DecisionCache decisions = userCache.getAuthorizations(user);
+      if (decisions == null) {
+        metrics.record(Callback.SUBSCRIBE, null, start);
+        return false; // May happen if the authorization cache is taking too long to fill or failed
       }
 
-      // Retrieve the authorization results for subscription.
-      Map<String, AuthorizationResult> map = authorizations.get("subscribe");
-
-      // Check the cached authorization results.
-      AuthorizationResult result = map.get(subscription.getTopicFilter());
-      if (!OK.equals(result)) {
-        throw new HookException(result.getCode(),
-            String.format("Unauthorized access: user '%s' can't receive messages from '%s'", user,
-                subscription.getTopicFilter()));
+      // Check the cached authorization results, computing them the first time.
+      result = decisions.authorizeSubscribeTo(topicFilter);
+      if (sessionDecisions != null && userCache.isSettled()) {
+        sessionDecisions.putSubscribeDecision(topicFilter, version, result);
       }
-
-      return true;
     }
+    // If permitted, the request must also conform to the rate limits, never cached.
+    RateLimiter.SessionLimits limits = session.getRateLimits();
+    if (limits != null && OK.equals(result) && !limits.trySubscribe(topicFilter)) {
+      result = AuthorizationResult.RATE_LIMITED;
+    }
+    if (!OK.equals(result)) {
+      metrics.record(Callback.SUBSCRIBE, result, start);
+      throw denialLog.deny(sessionId, Access.SUBSCRIBE, user, topicFilter, result);
+    }
+
+    metrics.record(Callback.SUBSCRIBE, OK, start);
+    return true;
   }
 
   @Override
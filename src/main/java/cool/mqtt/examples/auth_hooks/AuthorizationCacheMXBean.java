@@ -0,0 +1,96 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+/**
+ * Management interface of the authorization cache of {@link AuthHookWithAuthCache}.
+ */
+public interface AuthorizationCacheMXBean {
+
+  /**
+   * Returns the number of users whose authorizations are cached, that is the users with at least
+   * an open session.
+   *
+   * @return the number of users
+   */
+  int getCachedUsers();
+
+  /**
+   * Returns the number of checks answered by the decision caches of the users, without computing
+   * the decision from the permissions.
+   *
+   * @return the number of hits
+   */
+  long getDecisionHits();
+
+  long getDecisionMisses();
+
+  /**
+   * Returns the number of retrievals of the authorizations of a user, excluding the retries.
+   *
+   * @return the number of retrievals
+   */
+  long getFetches();
+
+  long getRetries();
+
+  /**
+   * Returns the number of retrievals which failed after all the attempts.
+   *
+   * @return the number of failures
+   */
+  long getFailures();
+
+  /**
+   * Returns how many times a check had to wait for the authorizations still being retrieved.
+   *
+   * @return the number of waits
+   */
+  long getBlockingWaits();
+
+  /**
+   * Returns how many times a check gave up waiting for the authorizations.
+   *
+   * @return the number of timeouts
+   */
+  long getWaitTimeouts();
+
+  /**
+   * Returns how many times the fallback policy served previously retrieved authorizations.
+   *
+   * @return the number of fallbacks
+   */
+  long getFallbacks();
+
+  /**
+   * Returns the number of retrievals started in the background for authorizations past their soft
+   * expiry, which were served meanwhile.
+   *
+   * @return the number of refreshes
+   */
+  long getRefreshesAhead();
+
+  /**
+   * Returns how many times the authorizations of a user were no longer served, as past their hard
+   * expiry, and the checks had to wait for them to be retrieved again.
+   *
+   * @return the number of expirations
+   */
+  long getHardExpirations();
+
+}
@@ -0,0 +1,155 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters of the authorization cache of {@link AuthHookWithAuthCache}, gathered from the
+ * decision caches of the users and from the fetcher.
+ */
+final class AuthorizationCacheStats implements AuthorizationCacheMXBean {
+
+  private final IntSupplier cachedUsers;
+
+  private final AuthorizationFetcher<?> fetcher;
+
+  private final LongAdder decisionHits = new LongAdder();
+
+  private final LongAdder decisionMisses = new LongAdder();
+
+  private final LongAdder refreshesAhead = new LongAdder();
+
+  private final LongAdder hardExpirations = new LongAdder();
+
+  AuthorizationCacheStats(IntSupplier cachedUsers, AuthorizationFetcher<?> fetcher) {
+    this.cachedUsers = cachedUsers;
+    this.fetcher = fetcher;
+  }
+
+  /**
+   * Creates a decision cache which reports its hits and misses here.
+   *
+   * @param permissions the permissions from which decisions are computed
+   * @param maxSize the maximum number of decisions kept
+   * @return the cache
+   */
+  DecisionCache newDecisionCache(PermissionInfo permissions, int maxSize) {
+    return new DecisionCache(permissions, maxSize, decisionHits, decisionMisses);
+  }
+
+  /**
+   * Counts a retrieval started in the background for permissions past their soft expiry.
+   */
+  void refreshedAhead() {
+    refreshesAhead.increment();
+  }
+
+  /**
+   * Counts permissions no longer served, as past their hard expiry.
+   */
+  void hardExpired() {
+    hardExpirations.increment();
+  }
+
+  /**
+   * Adds the counters to the specified metrics.
+   *
+   * @param metrics the metrics
+   */
+  void addTo(HookMetrics metrics) {
+    metrics.addGauge("cached_users", "Users whose authorizations are cached.",
+        this::getCachedUsers);
+    metrics.addCounter("decision_cache_hits",
+        "Checks answered by the decision caches of the users.", this::getDecisionHits);
+    metrics.addCounter("decision_cache_misses",
+        "Checks computed from the permissions of the users.", this::getDecisionMisses);
+    metrics.addCounter("fetches", "Retrievals of the authorizations of a user.", this::getFetches);
+    metrics.addCounter("fetch_retries", "Retried retrievals.", this::getRetries);
+    metrics.addCounter("fetch_failures", "Retrievals failed after all the attempts.",
+        this::getFailures);
+    metrics.addCounter("fetch_waits", "Checks waiting for the authorizations being retrieved.",
+        this::getBlockingWaits);
+    metrics.addCounter("fetch_wait_timeouts",
+        "Checks which gave up waiting for the authorizations.", this::getWaitTimeouts);
+    metrics.addCounter("fetch_fallbacks",
+        "Checks served by the fallback policy with previously retrieved authorizations.",
+        this::getFallbacks);
+    metrics.addCounter("refreshes_ahead",
+        "Retrievals started in the background for authorizations past their soft expiry.",
+        this::getRefreshesAhead);
+    metrics.addCounter("hard_expirations",
+        "Authorizations no longer served, as past their hard expiry.", this::getHardExpirations);
+  }
+
+  @Override
+  public int getCachedUsers() {
+    return cachedUsers.getAsInt();
+  }
+
+  @Override
+  public long getDecisionHits() {
+    return decisionHits.sum();
+  }
+
+  @Override
+  public long getDecisionMisses() {
+    return decisionMisses.sum();
+  }
+
+  @Override
+  public long getFetches() {
+    return fetcher.getFetches();
+  }
+
+  @Override
+  public long getRetries() {
+    return fetcher.getRetries();
+  }
+
+  @Override
+  public long getFailures() {
+    return fetcher.getFailures();
+  }
+
+  @Override
+  public long getBlockingWaits() {
+    return fetcher.getBlockingWaits();
+  }
+
+  @Override
+  public long getWaitTimeouts() {
+    return fetcher.getWaitTimeouts();
+  }
+
+  @Override
+  public long getFallbacks() {
+    return fetcher.getFallbacks();
+  }
+
+  @Override
+  public long getRefreshesAhead() {
+    return refreshesAhead.sum();
+  }
+
+  @Override
+  public long getHardExpirations() {
+    return hardExpirations.sum();
+  }
+}
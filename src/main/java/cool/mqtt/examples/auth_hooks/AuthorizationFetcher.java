@@ -0,0 +1,312 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Retrieves the authorizations of users asynchronously, applying a timeout to every attempt and
+ * retrying failed attempts with an exponential backoff.
+ *
+ * @param <T> the type of the retrieved authorizations
+ */
+class AuthorizationFetcher<T> {
+
+  /**
+   * Authorizations last retrieved for a user, along with the retrieval time, or the time they were
+   * invalidated if the value is {@code null}.
+   */
+  private static class Retrieved<T> {
+
+    final T value;
+
+    final long timestamp;
+
+    Retrieved(T value, long timestamp) {
+      this.value = value;
+      this.timestamp = timestamp;
+    }
+  }
+
+  /** The actual (asynchronous) retrieval, typically a call to an external service */
+  private final Function<String, CompletableFuture<T>> loader;
+
+  /** Single thread used to schedule timeouts and retries */
+  private final ScheduledExecutorService scheduler;
+
+  private final long attemptTimeoutMillis;
+
+  private final int maxAttempts;
+
+  private final long backoffInitialMillis;
+
+  private final long backoffMaxMillis;
+
+  private final long waitTimeoutMillis;
+
+  private final FallbackPolicy fallbackPolicy;
+
+  private final long staleMaxAgeMillis;
+
+  /** Maximum number of users whose authorizations are kept for the fallback policies */
+  private final int fallbackMaxUsers;
+
+  /**
+   * Authorizations last retrieved for every user, used by the fallback policies; the entries are
+   * dropped as the users are no longer cached.
+   */
+  private final ConcurrentHashMap<String, Retrieved<T>> lastRetrieved = new ConcurrentHashMap<>();
+
+  private final LongAdder fetches = new LongAdder();
+
+  private final LongAdder retries = new LongAdder();
+
+  private final LongAdder failures = new LongAdder();
+
+  private final LongAdder blockingWaits = new LongAdder();
+
+  private final LongAdder waitTimeouts = new LongAdder();
+
+  private final LongAdder fallbacks = new LongAdder();
+
+  AuthorizationFetcher(Function<String, CompletableFuture<T>> loader, HookSettings settings) {
+    this.loader = loader;
+    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread thread = new Thread(r, "AuthorizationFetcher-Scheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Timeouts are cancelled as soon as their attempts complete, drop them from the queue at once.
+    scheduler.setRemoveOnCancelPolicy(true);
+    this.scheduler = scheduler;
+    this.attemptTimeoutMillis = settings.getLong("fetch.attempt_timeout_millis", 2000);
+    this.maxAttempts = Math.max(1, settings.getInt("fetch.max_attempts", 3));
+    this.backoffInitialMillis = settings.getLong("fetch.backoff_initial_millis", 100);
+    this.backoffMaxMillis = settings.getLong("fetch.backoff_max_millis", 2000);
+    this.waitTimeoutMillis = settings.getLong("fetch.wait_timeout_millis", 3000);
+    this.fallbackPolicy =
+        settings.getEnum("fetch.fallback", FallbackPolicy.class, FallbackPolicy.DENY);
+    this.staleMaxAgeMillis = settings.getLong("fetch.stale_max_age_millis", 60000);
+    this.fallbackMaxUsers = settings.getInt("fetch.fallback_max_users", 100_000);
+  }
+
+  /**
+   * Starts the retrieval of the authorizations of the specified user.
+   *
+   * @param user the user
+   * @return a future completed with the authorizations, or exceptionally once all attempts failed
+   */
+  CompletableFuture<T> fetch(String user) {
+    fetches.increment();
+    CompletableFuture<T> result = new CompletableFuture<>();
+    attempt(user, 1, System.currentTimeMillis(), result);
+    return result;
+  }
+
+  private void attempt(String user, int attempt, long started, CompletableFuture<T> result) {
+    /*
+     * The timeout is applied to a dependent future, so that a late completion of a shared future
+     * (like the ones of batched lookups) is not prevented.
+     */
+    CompletableFuture<T> current = load(user).thenApply(Function.identity());
+    ScheduledFuture<?> timeout =
+        scheduler.schedule(() -> current.completeExceptionally(new TimeoutException()),
+            attemptTimeoutMillis, TimeUnit.MILLISECONDS);
+
+    current.whenComplete((value, error) -> {
+      timeout.cancel(false);
+      if (error == null) {
+        remember(user, value, started);
+        result.complete(value);
+      } else if (attempt < maxAttempts) {
+        retries.increment();
+        scheduler.schedule(() -> attempt(user, attempt + 1, started, result), backoff(attempt),
+            TimeUnit.MILLISECONDS);
+      } else {
+        failures.increment();
+        result.completeExceptionally(error);
+      }
+    });
+  }
+
+  /*
+   * A loader failing synchronously (for instance, because its executor rejected the task) counts
+   * as a failed attempt, rather than escaping to the caller or to the scheduler.
+   */
+  private CompletableFuture<T> load(String user) {
+    try {
+      return loader.apply(user);
+    } catch (RuntimeException e) {
+      CompletableFuture<T> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+  }
+
+  /*
+   * Only the fallback policies need the retrieved authorizations. Those of a retrieval started
+   * before an invalidation of the user are not kept, as they may have been revoked since, and new
+   * users are not added once the map is full.
+   */
+  private void remember(String user, T value, long started) {
+    if (fallbackPolicy == FallbackPolicy.DENY
+        || (lastRetrieved.size() >= fallbackMaxUsers && !lastRetrieved.containsKey(user))) {
+      return;
+    }
+    lastRetrieved.compute(user,
+        (key, last) -> (last != null && last.value == null && last.timestamp >= started) ? last
+            : new Retrieved<>(value, System.currentTimeMillis()));
+  }
+
+  /**
+   * Drops the authorizations kept for the fallback policies, when the user is no longer cached.
+   *
+   * @param user the user
+   */
+  void forget(String user) {
+    lastRetrieved.remove(user);
+  }
+
+  /**
+   * Drops the authorizations kept for the fallback policies upon a revocation, along with those of
+   * the retrievals still in flight.
+   *
+   * @param user the user
+   */
+  void invalidate(String user) {
+    if (fallbackPolicy != FallbackPolicy.DENY) {
+      lastRetrieved.put(user, new Retrieved<>(null, System.currentTimeMillis()));
+    }
+  }
+
+  private long backoff(int attempt) {
+    long delay = backoffInitialMillis << Math.min(attempt - 1, 30);
+    return Math.min(delay, backoffMaxMillis);
+  }
+
+  /**
+   * Returns the delay before retrying a retrieval after the specified number of failed retrievals
+   * in a row: the backoff of the attempts, randomly shortened by up to a half, so that the
+   * retrievals which failed together are not retried together.
+   *
+   * @param failures the number of failed retrievals in a row
+   * @return the delay, in milliseconds
+   */
+  long retryDelay(int failures) {
+    long delay = backoff(failures);
+    return delay - ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+  }
+
+  /**
+   * Gets the authorizations from the supplied future, blocking the calling thread only if they are
+   * not available yet. If they can't be obtained within the configured wait timeout, the fallback
+   * policy applies.
+   *
+   * @param user the user
+   * @param future the future returned by {@link #fetch(String)}
+   * @return the authorizations, or {@code null} if the check has to be denied
+   */
+  T await(String user, CompletableFuture<T> future) {
+    if (future.isDone() && !future.isCompletedExceptionally()) {
+      return future.getNow(null);
+    }
+
+    if (!future.isDone()) {
+      // The Hook API is synchronous, so there is no way but blocking here.
+      blockingWaits.increment();
+    }
+    try {
+      return future.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      waitTimeouts.increment();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      // The retrieval failed.
+    }
+    return fallback(user);
+  }
+
+  private T fallback(String user) {
+    Retrieved<T> retrieved = lastRetrieved.get(user);
+    if (retrieved == null || retrieved.value == null) {
+      return null;
+    }
+
+    switch (fallbackPolicy) {
+      case SERVE_STALE:
+        if (System.currentTimeMillis() - retrieved.timestamp > staleMaxAgeMillis) {
+          return null;
+        }
+        break;
+
+      case LAST_KNOWN_GOOD:
+        break;
+
+      default:
+        return null;
+    }
+    fallbacks.increment();
+    return retrieved.value;
+  }
+
+  /**
+   * Stops the internal scheduler.
+   */
+  void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  long getFetches() {
+    return fetches.sum();
+  }
+
+  long getRetries() {
+    return retries.sum();
+  }
+
+  long getFailures() {
+    return failures.sum();
+  }
+
+  /**
+   * Returns how many times a thread had to block waiting for authorizations.
+   *
+   * @return the number of blocking waits
+   */
+  long getBlockingWaits() {
+    return blockingWaits.sum();
+  }
+
+  long getWaitTimeouts() {
+    return waitTimeouts.sum();
+  }
+
+  long getFallbacks() {
+    return fallbacks.sum();
+  }
+}
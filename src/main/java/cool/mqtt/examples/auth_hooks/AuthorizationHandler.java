@@ -17,103 +17,123 @@
  */
 package cool.mqtt.examples.auth_hooks;
 
+import java.io.IOException;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
- * Handles authorization requests issued by the user.
+ * Handles authorization requests issued by the user, delegating the actual lookups to the
+ * configured backend.
  */
 class AuthorizationHandler {
 
-  /** User-token map, shared with the demo client. */
-  private final ConcurrentHashMap<String, String> tokens = new ConcurrentHashMap<>();
+  /** Validator of the user tokens */
+  private final TokenValidator tokenValidator;
 
-  /** Set of URIs of the allowed MQTT brokers to connect to. */
-  private final Set<String> allowedBrokers;
+  /** Cache of the token validations, if enabled */
+  private final CachingTokenValidator tokenCache;
 
-  /**
-   * User-authorization map, shared with the demo client (the client simply shows these infos in the
-   * interface, does not directly use them).
-   */
-  private Map<String, PermissionInfo> authorizations;
+  /** Source of the user permissions */
+  private final PermissionSource permissionSource;
 
-  public AuthorizationHandler(Set<String> allowedBrokers) {
-    this.allowedBrokers = Collections.unmodifiableSet(allowedBrokers);
-    initUserTokenMap();
-    initAuthorizations();
-  }
+  /** Registry of the configured brokers */
+  private final BrokerRegistry brokers;
 
-  private void initUserTokenMap() {
-    // To be used from all other live demos, as this Hook is deployed into
-    // "https://cloud.mqtt.cool".
-    tokens.put("demouser", "");
+  /** The reloadable store of the {@code file} backend, if in use */
+  private final PermissionStore permissionStore;
 
-    // Expected users from the "Authentication and Authorization" demo client.
-    tokens.put("user1", "ikgdfigdfhihdsih");
-    tokens.put("user2", "slaoejkauekalkew");
-    tokens.put("patient0", "lookihaveanewtokenhere");
-    tokens.put("leto", "powerfultoken");
-    tokens.put("gollum", "toobadforyou");
-    tokens.put("lucky", "srsly");
+  public AuthorizationHandler(Set<String> allowedBrokers) {
+    this(allowedBrokers, HookSettings.DEFAULTS);
   }
 
-  private void initAuthorizations() {
-    Map<String, PermissionInfo> userAuthorizations = new HashMap<>();
-
-    // Authorizations for user "user1":
-    PermissionInfo user1Auth =
-        new DefaultPermissionInfo.AuthorizationBuilder().withBrokers(allowedBrokers)
-            .withSubscribeTo("topics/topic_1").withSubscribeTo("topics/topic_2")
-            .withSubscribeTo("topics/topic_3").withPublishingTo("topics/topic_4")
-            .withPublishingTo("topics/topic_5").withPublishingTo("topics/topic_6").build();
-    userAuthorizations.put("user1", user1Auth);
-
-    /*
-     * Authorizations for user "user2", which will be able to open a session but not to connect to
-     * the MQTT broker.
-     */
-    PermissionInfo user2Auth = new DefaultPermissionInfo.AuthorizationBuilder().build();
-    userAuthorizations.put("user2", user2Auth);
-
-    // Authorizations for user "leto", which will be able to authorized to do everything.
-    PermissionInfo letoAuth = DefaultPermissionInfo.AuthorizationBuilder.ALL;
-    userAuthorizations.put("leto", letoAuth);
-
-    // Authorizations for user "gollum", which will only be able to connect to the MQTT brokers.
-    PermissionInfo gollumAuth =
-        new DefaultPermissionInfo.AuthorizationBuilder().withBrokers(allowedBrokers).build();
-    userAuthorizations.put("gollum", gollumAuth);
+  public AuthorizationHandler(Set<String> allowedBrokers, HookSettings settings) {
+    this(new BrokerRegistry(allowedBrokers), settings);
+  }
 
-    // Authorizations for user "lucky":
-    PermissionInfo lucyAuth =
-        new DefaultPermissionInfo.AuthorizationBuilder().withBrokers(allowedBrokers)
-            .withPublishingTo("topics/topic_13").withPublishingTo("topics/topic_17").build();
-    userAuthorizations.put("lucky", lucyAuth);
+  /**
+   * Creates a handler whose permissions follow the updates of the configured brokers.
+   *
+   * @param allowedBrokers the registry of the configured brokers
+   * @param settings the Hook settings
+   */
+  AuthorizationHandler(BrokerRegistry allowedBrokers, HookSettings settings) {
+    this.brokers = allowedBrokers;
+    TokenValidator validator;
+    PermissionStore store = null;
+    String backend = settings.getString("backend", "static");
+    switch (backend.toLowerCase()) {
+      case "static":
+        StaticAuthorizationBackend staticBackend = new StaticAuthorizationBackend(allowedBrokers);
+        validator = staticBackend;
+        this.permissionSource = staticBackend;
+        break;
+
+      case "file":
+        store = new PermissionStore(allowedBrokers, settings);
+        validator = store;
+        this.permissionSource = store;
+        break;
+
+      case "http":
+        HttpAuthorizationBackend httpBackend =
+            new HttpAuthorizationBackend(settings, allowedBrokers);
+        if (settings.getBoolean("backend.batch.enabled", false)) {
+          // Batching coalesces concurrent lookups as well.
+          BatchingAuthorizationBackend batching =
+              new BatchingAuthorizationBackend(httpBackend, httpBackend, settings);
+          validator = batching;
+          this.permissionSource = batching;
+        } else if (settings.getBoolean("backend.coalesce", true)) {
+          CoalescingAuthorizationBackend coalescing =
+              new CoalescingAuthorizationBackend(httpBackend, httpBackend);
+          validator = coalescing;
+          this.permissionSource = coalescing;
+        } else {
+          validator = httpBackend;
+          this.permissionSource = httpBackend;
+        }
+        break;
+
+      default:
+        throw new IllegalArgumentException("Unknown backend '" + backend + "'");
+    }
 
-    // Authorizations for user "demouser", used for all other live demos.
-    PermissionInfo demouserAuth = DefaultPermissionInfo.AuthorizationBuilder.ALL;
-    userAuthorizations.put("demouser", demouserAuth);
+    if (settings.getBoolean("token_cache.enabled", true)) {
+      this.tokenCache = new CachingTokenValidator(validator, settings);
+      this.tokenValidator = tokenCache;
+    } else {
+      this.tokenCache = null;
+      this.tokenValidator = validator;
+    }
 
-    // As last note, user "patient0" will never be able to open a new session, therefore
-    // there is no need to specify any PerimissionInfo.
+    this.permissionStore = store;
+    if (store != null && tokenCache != null) {
+      // Tokens may have been revoked by the new snapshot.
+      store.addListener(snapshot -> tokenCache.invalidateAll());
+    }
+  }
 
-    authorizations = Collections.unmodifiableMap(userAuthorizations);
+  AuthorizationHandler(TokenValidator tokenValidator, PermissionSource permissionSource) {
+    this.tokenCache = null;
+    this.tokenValidator = tokenValidator;
+    this.permissionSource = permissionSource;
+    this.permissionStore = null;
+    this.brokers = new BrokerRegistry(Collections.emptySet());
   }
 
   public AuthorizationResult validateToken(String user, String token) {
     /*
-     * In a real case, the application would lookup the user-token pair on an external service (or a
-     * local cache); in this demo we simply lookup the hard-coded map.
+     * The user-token pair is looked up on the backend, which in this demo is by default the
+     * hard-coded map, but might also be an external service.
      */
-    String correctToken = tokens.get(user);
-    if ((correctToken != null) && correctToken.equals(token)) {
-      return AuthorizationResult.OK;
+    try {
+      if (tokenValidator.isValid(user, token)) {
+        return AuthorizationResult.OK;
+      }
+    } catch (IOException e) {
+      // The token can't be validated, so it is not considered valid.
     }
 
     // Return the appropriate error.
@@ -122,10 +142,15 @@ class AuthorizationHandler {
 
   public AuthorizationResult authorizeMQTTConnection(String user, String broker) {
     /*
-     * In a real case, the application would lookup the user authorizations on an external service
-     * (or a local cache); in this demo we simply lookup the hard-coded map.
+     * The user authorizations are looked up on the backend, which in this demo is by default the
+     * hard-coded map, but might also be an external service.
      */
-    PermissionInfo authorizationInfo = authorizations.get(user);
+    return authorizeMQTTConnection(lookupPermissions(user), broker);
+  }
+
+  public AuthorizationResult authorizeMQTTConnection(PermissionInfo authorizationInfo,
+      String broker) {
+
     if ((authorizationInfo != null) && authorizationInfo.allowConnectionTo(broker)) {
       return AuthorizationResult.OK;
     }
@@ -136,10 +161,13 @@ class AuthorizationHandler {
 
   public AuthorizationResult authorizePublishTo(String user, String topic) {
     /*
-     * In a real case, the application would lookup the user authorizations on an external service
-     * (or a local cache); in this demo we simply lookup the hard-coded map.
+     * The user authorizations are looked up on the backend, which in this demo is by default the
+     * hard-coded map, but might also be an external service.
      */
-    PermissionInfo permissioInfo = authorizations.get(user);
+    return authorizePublishTo(lookupPermissions(user), topic);
+  }
+
+  public AuthorizationResult authorizePublishTo(PermissionInfo permissioInfo, String topic) {
     if ((permissioInfo != null) && permissioInfo.allowPublishTo(topic)) {
       return AuthorizationResult.OK;
     }
@@ -150,10 +178,15 @@ class AuthorizationHandler {
 
   public AuthorizationResult authorizeSubscribeTo(String user, String topicFilter) {
     /*
-     * In a real case, the application would lookup the user authorizations on an external service
-     * (or a local cache); in this demo we simply lookup the hard-coded map.
+     * The user authorizations are looked up on the backend, which in this demo is by default the
+     * hard-coded map, but might also be an external service.
      */
-    PermissionInfo permissionInfo = authorizations.get(user);
+    return authorizeSubscribeTo(lookupPermissions(user), topicFilter);
+  }
+
+  public AuthorizationResult authorizeSubscribeTo(PermissionInfo permissionInfo,
+      String topicFilter) {
+
     if ((permissionInfo != null) && permissionInfo.allowSubscribeTo(topicFilter)) {
       return AuthorizationResult.OK;
     }
@@ -161,45 +194,127 @@ class AuthorizationHandler {
     return AuthorizationResult.SUBSCRIPTION_NOT_ALLOWED;
   }
 
-  public Map<String, Map<String, AuthorizationResult>> getUserAuthorizations(String user) {
+  /**
+   * Looks up the permissions of the specified user, blocking the calling thread.
+   *
+   * @param user the user
+   * @return the permissions of the user, or {@code null} if they can't be retrieved
+   */
+  public PermissionInfo lookupPermissions(String user) {
+    try {
+      return permissionSource.getPermissions(user);
+    } catch (IOException e) {
+      // Permissions can't be retrieved, so nothing is allowed.
+      return null;
+    }
+  }
+
+  public CompletableFuture<PermissionInfo> getUserPermissions(String user, Executor executor) {
     /*
-     * In a real case, the application would lookup the user authorizations on an external service
-     * (or a local cache); in this demo we simply preload a map with the possible authorization
-     * results from the hard-coded map.
+     * The user authorizations are looked up on the backend, which in this demo is by default the
+     * hard-coded map, but might also be an external service. No decision is precomputed here: they
+     * are taken lazily, as topics are actually requested. The lookup is asynchronous: it is either
+     * run on the supplied executor or, for batching backends, gathered with other lookups into a
+     * bulk request. Backend failures are propagated, so that the invoker can retry.
      */
-    PermissionInfo permissionInfos = authorizations.get(user);
-
-    ConcurrentMap<String, AuthorizationResult> connectResults = allowedBrokers.stream()
-        .collect(Collectors.toConcurrentMap(Function.identity(), brokerAddress -> {
-          AuthorizationResult connectionResult =
-              permissionInfos.allowConnectionTo(brokerAddress) ? AuthorizationResult.OK
-                  : AuthorizationResult.BROKER_CONNECTION_NOT_ALLOWED;
-          return connectionResult;
-        }));
-
-    Map<String, Map<String, AuthorizationResult>> results = new ConcurrentHashMap<>();
-    results.put("connect", connectResults);
-
-    Map<String, AuthorizationResult> subscribeResults = new ConcurrentHashMap<>();
-    Map<String, AuthorizationResult> pulishResults = new ConcurrentHashMap<>();
-
-    String topicPrefix = "topics/topic_";
-    for (int i = 0; i < 30; i++) {
-      String topic = topicPrefix + i;
-      AuthorizationResult subscriptionResult =
-          permissionInfos.allowSubscribeTo(topic) ? AuthorizationResult.OK
-              : AuthorizationResult.SUBSCRIPTION_NOT_ALLOWED;
-      subscribeResults.put(topic, subscriptionResult);
-
-      AuthorizationResult publishResult =
-          permissionInfos.allowSubscribeTo(topic) ? AuthorizationResult.OK
-              : AuthorizationResult.PUBLISHING_NOT_ALLOWED;
-      pulishResults.put(topic, publishResult);
+    return permissionSource.getPermissionsAsync(user, executor)
+        .thenApply(permissionInfo -> (permissionInfo != null) ? permissionInfo
+            : DefaultPermissionInfo.AuthorizationBuilder.NONE);
+  }
+
+  /**
+   * Returns the version of the permissions served by the backend, which changes whenever
+   * permissions retrieved earlier (or decisions taken on them) may be outdated, including when the
+   * configured brokers change.
+   *
+   * @return the version of the permissions
+   */
+  public long getPermissionsVersion() {
+    // Both versions only increase, so their sum changes whenever either changes.
+    return permissionSource.getVersion() + brokers.getVersion();
+  }
+
+  /**
+   * Tells whether the version returned by {@link #getPermissionsVersion()} changes whenever the
+   * permissions served by the backend change, so that the permissions retrieved can be kept until
+   * then.
+   *
+   * @return {@code true} if the backend tracks the changes of its permissions
+   */
+  public boolean hasVersionedPermissions() {
+    return permissionSource.isVersioned();
+  }
+
+  /**
+   * Returns the reloadable store of the {@code file} backend.
+   *
+   * @return the store, or {@code null} if another backend is in use
+   */
+  PermissionStore getPermissionStore() {
+    return permissionStore;
+  }
+
+  /**
+   * Invalidates the cached validations of all the tokens of the specified user, so that they are
+   * validated again on the backend.
+   *
+   * @param user the user
+   */
+  public void invalidateTokens(String user) {
+    if (tokenCache != null) {
+      tokenCache.invalidate(user);
     }
+  }
 
-    results.put("subscribe", subscribeResults);
-    results.put("publish", pulishResults);
+  /**
+   * Invalidates the cached validation of the specified token.
+   *
+   * @param user the user
+   * @param token the token
+   */
+  public void invalidateToken(String user, String token) {
+    if (tokenCache != null) {
+      tokenCache.invalidate(user, token);
+    }
+  }
+
+  /**
+   * Makes the next lookups of the permissions of the specified user reach the backend, rather than
+   * joining a lookup started earlier, whose outcome may be outdated by a revocation or by a change
+   * of the permissions.
+   *
+   * @param user the user
+   */
+  public void invalidatePermissions(String user) {
+    if (permissionSource instanceof CoalescingAuthorizationBackend) {
+      ((CoalescingAuthorizationBackend) permissionSource).invalidatePermissions(user);
+    } else if (permissionSource instanceof BatchingAuthorizationBackend) {
+      ((BatchingAuthorizationBackend) permissionSource).invalidatePermissions(user);
+    }
+  }
+
+  /**
+   * Adds the counters of the backend, if any, to the specified metrics.
+   *
+   * @param metrics the metrics
+   */
+  void addTo(HookMetrics metrics) {
+    if (permissionSource instanceof CoalescingAuthorizationBackend) {
+      ((CoalescingAuthorizationBackend) permissionSource).addTo(metrics);
+    } else if (permissionSource instanceof BatchingAuthorizationBackend) {
+      ((BatchingAuthorizationBackend) permissionSource).addTo(metrics);
+    }
+  }
 
-    return results;
+  /**
+   * Releases the resources held by the backend.
+   */
+  void shutdown() {
+    if (permissionSource instanceof BatchingAuthorizationBackend) {
+      ((BatchingAuthorizationBackend) permissionSource).shutdown();
+    }
+    if (permissionStore != null) {
+      permissionStore.shutdown();
+    }
   }
 }
@@ -45,7 +45,29 @@ enum AuthorizationResult {
   /**
    * Result in case subscription to the requested topic is not authorized.
    */
-  SUBSCRIPTION_NOT_ALLOWED(4);
+  SUBSCRIPTION_NOT_ALLOWED(4),
+
+  /**
+   * Result in case the client is publishing or subscribing faster than allowed; the same request
+   * may succeed later.
+   */
+  RATE_LIMITED(5),
+
+  /**
+   * Result in case the payload of the message to publish exceeds the maximum size allowed to the
+   * user.
+   */
+  PAYLOAD_TOO_LARGE(6),
+
+  /**
+   * Result in case the message to publish requests a QoS level not allowed to the user.
+   */
+  QOS_NOT_ALLOWED(7),
+
+  /**
+   * Result in case the message to publish is retained, which is not allowed to the user.
+   */
+  RETAIN_NOT_ALLOWED(8);
 
   /** Code sent to the client to react appropriately on the user interface */
   private int code;
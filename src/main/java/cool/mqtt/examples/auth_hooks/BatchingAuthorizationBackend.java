@@ -0,0 +1,181 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decorator of a backend which gathers the token validations and the permission lookups issued
+ * within a small time window and sends them to the backend as bulk requests, so that a burst of
+ * sessions (for instance, after a broker or a load balancer restart) does not turn into as many
+ * backend calls. Concurrent lookups for the same key are coalesced as well.
+ */
+class BatchingAuthorizationBackend implements TokenValidator, PermissionSource {
+
+  private final TokenValidator tokenValidator;
+
+  private final PermissionSource permissionSource;
+
+  private final ScheduledExecutorService scheduler;
+
+  private final ExecutorService bulkThreads;
+
+  private final MicroBatcher<Credentials, Boolean> validations;
+
+  private final MicroBatcher<String, PermissionInfo> permissions;
+
+  /** Maximum time a blocking lookup waits for its batch */
+  private final long waitTimeoutMillis;
+
+  BatchingAuthorizationBackend(TokenValidator tokenValidator, PermissionSource permissionSource,
+      HookSettings settings) {
+
+    this.tokenValidator = tokenValidator;
+    this.permissionSource = permissionSource;
+
+    int maxBatchSize = settings.getInt("backend.batch.max_size", 100);
+    long windowMillis = settings.getLong("backend.batch.window_millis", 10);
+    this.waitTimeoutMillis = settings.getLong("backend.batch.wait_timeout_millis", 5000);
+
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("Scheduler"));
+    this.bulkThreads = Executors.newFixedThreadPool(
+        settings.getInt("backend.batch.concurrency", 4), daemonThreads("Bulk"));
+
+    this.validations = new MicroBatcher<>(tokenValidator::validateAll, maxBatchSize,
+        windowMillis, scheduler, bulkThreads);
+    this.permissions = new MicroBatcher<>(permissionSource::getAllPermissions, maxBatchSize,
+        windowMillis, scheduler, bulkThreads);
+  }
+
+  @Override
+  public boolean isValid(String user, String token) throws IOException {
+    return Boolean.TRUE.equals(await(validations.submit(new Credentials(user, token))));
+  }
+
+  @Override
+  public Map<Credentials, Boolean> validateAll(Collection<Credentials> credentials)
+      throws IOException {
+
+    // Already a bulk request, no need to batch it further.
+    return tokenValidator.validateAll(credentials);
+  }
+
+  @Override
+  public PermissionInfo getPermissions(String user) throws IOException {
+    return await(permissions.submit(user));
+  }
+
+  @Override
+  public Map<String, PermissionInfo> getAllPermissions(Collection<String> users)
+      throws IOException {
+
+    return permissionSource.getAllPermissions(users);
+  }
+
+  /*
+   * No thread is held while the batch is being gathered and executed.
+   */
+  @Override
+  public CompletableFuture<PermissionInfo> getPermissionsAsync(String user, Executor executor) {
+    return permissions.submit(user);
+  }
+
+  /**
+   * Makes the next lookups of the permissions of the specified user skip the lookup already in
+   * flight, if any, whose outcome may have been revoked meanwhile.
+   *
+   * @param user the user
+   */
+  void invalidatePermissions(String user) {
+    permissions.invalidate(user);
+  }
+
+  /**
+   * Stops the internal threads and fails the lookups still pending.
+   */
+  void shutdown() {
+    scheduler.shutdownNow();
+    bulkThreads.shutdownNow();
+    validations.abort();
+    permissions.abort();
+  }
+
+  /**
+   * Adds the counters of the batches to the specified metrics.
+   *
+   * @param metrics the metrics
+   */
+  void addTo(HookMetrics metrics) {
+    metrics.addCounter("validation_batches", "Bulk token validation requests sent.",
+        validations::getBatches);
+    metrics.addCounter("submitted_validations",
+        "Token validations submitted for batching, including the coalesced ones.",
+        validations::getSubmitted);
+    metrics.addCounter("coalesced_validations",
+        "Token validations served by joining a request already in flight.",
+        validations::getCoalesced);
+    metrics.addCounter("permission_batches", "Bulk permission lookup requests sent.",
+        permissions::getBatches);
+    metrics.addCounter("submitted_permission_lookups",
+        "Permission lookups submitted for batching, including the coalesced ones.",
+        permissions::getSubmitted);
+    metrics.addCounter("coalesced_permission_lookups",
+        "Permission lookups served by joining a request already in flight.",
+        permissions::getCoalesced);
+  }
+
+  private <V> V await(CompletableFuture<V> future) throws IOException {
+    try {
+      return future.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a batch");
+    } catch (TimeoutException e) {
+      throw new IOException("Timed out while waiting for a batch", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private static ThreadFactory daemonThreads(String name) {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, "BatchingAuthorizationBackend-" + name + "-"
+          + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * Concurrent map holding up to a maximum number of entries, which evicts the least recently used
+ * ones according to the CLOCK (second chance) approximation of LRU: reads only set a flag on the
+ * entry, with no lock and no reordering.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+class BoundedCache<K, V> {
+
+  /** Holder of a value, along with its reference flag */
+  private static final class Node<V> {
+
+    volatile V value;
+
+    volatile boolean referenced = true;
+
+    Node(V value) {
+      this.value = value;
+    }
+  }
+
+  private final int maxSize;
+
+  private final ConcurrentHashMap<K, Node<V>> map = new ConcurrentHashMap<>();
+
+  /** Keys in insertion order, scanned by the clock hand; may contain stale keys */
+  private final ConcurrentLinkedQueue<K> clock = new ConcurrentLinkedQueue<>();
+
+  /** Number of keys in the clock queue, stale ones included */
+  private final AtomicInteger clockSize = new AtomicInteger();
+
+  private final LongAdder evictions = new LongAdder();
+
+  BoundedCache(int maxSize) {
+    this.maxSize = Math.max(1, maxSize);
+  }
+
+  /**
+   * Returns the value mapped to the specified key, marking it as recently used.
+   *
+   * @param key the key
+   * @return the value, or {@code null} if not present
+   */
+  V get(K key) {
+    Node<V> node = map.get(key);
+    if (node == null) {
+      return null;
+    }
+    if (!node.referenced) {
+      // Avoid writing to shared memory when not needed.
+      node.referenced = true;
+    }
+    return node.value;
+  }
+
+  /**
+   * Atomically computes a new value for the specified key, as in
+   * {@link ConcurrentHashMap#compute(Object, BiFunction)}.
+   *
+   * @param key the key
+   * @param function the function computing the new value from the current one ({@code null} if not
+   *        present); returning {@code null} removes the entry
+   * @return the new value
+   */
+  V compute(K key, BiFunction<? super K, ? super V, ? extends V> function) {
+    boolean[] added = new boolean[1];
+    Node<V> result = map.compute(key, (k, node) -> {
+      V value = function.apply(k, (node != null) ? node.value : null);
+      if (value == null) {
+        return null;
+      }
+      if (node == null) {
+        added[0] = true;
+        return new Node<>(value);
+      }
+      node.value = value;
+      node.referenced = true;
+      return node;
+    });
+
+    if (added[0]) {
+      clock.add(key);
+      clockSize.incrementAndGet();
+      evictIfNeeded();
+    }
+    return (result != null) ? result.value : null;
+  }
+
+  V put(K key, V value) {
+    return compute(key, (k, current) -> value);
+  }
+
+  V remove(K key) {
+    Node<V> node = map.remove(key);
+    return (node != null) ? node.value : null;
+  }
+
+  void clear() {
+    map.clear();
+  }
+
+  int size() {
+    return map.size();
+  }
+
+  long getEvictions() {
+    return evictions.sum();
+  }
+
+  private void evictIfNeeded() {
+    while (map.size() > maxSize) {
+      K key = clock.poll();
+      if (key == null) {
+        return;
+      }
+      clockSize.decrementAndGet();
+
+      Node<V> node = map.get(key);
+      if (node == null) {
+        continue; // Stale key
+      }
+      if (node.referenced) {
+        // Second chance
+        node.referenced = false;
+        clock.add(key);
+        clockSize.incrementAndGet();
+      } else if (map.remove(key, node)) {
+        evictions.increment();
+      }
+    }
+
+    // Purge the stale and duplicate keys left by removals, so that the queue does not grow
+    // unbounded.
+    if (clockSize.get() > 2 * maxSize) {
+      Set<K> seen = new HashSet<>();
+      clock.removeIf(key -> {
+        if (map.containsKey(key) && seen.add(key)) {
+          return false;
+        }
+        clockSize.decrementAndGet();
+        return true;
+      });
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Live set of the addresses of the brokers configured in MQTT.Cool, which is updated as the
+ * configuration file changes. Permissions granting the connection to all the configured brokers
+ * refer to it, so that they follow the updates without being rebuilt.
+ */
+final class BrokerRegistry {
+
+  /** The current addresses, replaced as a whole on every update */
+  private volatile Set<String> addresses;
+
+  /** Increased on every update which actually changes the addresses */
+  private volatile long version;
+
+  BrokerRegistry(Set<String> addresses) {
+    this.addresses = Collections.unmodifiableSet(new HashSet<>(addresses));
+  }
+
+  /**
+   * Asks whether the specified address is among the configured ones.
+   *
+   * @param address the broker address
+   * @return {@code true} if the broker is configured, {@code false} otherwise
+   */
+  boolean contains(String address) {
+    return addresses.contains(address);
+  }
+
+  Set<String> getAddresses() {
+    return addresses;
+  }
+
+  /**
+   * Returns the version of the addresses, which changes on every update.
+   *
+   * @return the version
+   */
+  long getVersion() {
+    return version;
+  }
+
+  /**
+   * Replaces the configured addresses.
+   *
+   * @param newAddresses the new addresses
+   */
+  synchronized void update(Set<String> newAddresses) {
+    if (!newAddresses.equals(addresses)) {
+      addresses = Collections.unmodifiableSet(new HashSet<>(newAddresses));
+      version++;
+    }
+  }
+}
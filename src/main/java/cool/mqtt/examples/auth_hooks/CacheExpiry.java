@@ -0,0 +1,89 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Expiry policy of the authorizations cached by {@link AuthHookWithAuthCache}. Past the soft
+ * expiry, the permissions are still served while retrieved again in the background; past the hard
+ * expiry, they are no longer served and the checks wait for the retrieval, as for a new user. Both
+ * are shortened by a random jitter, so that users retrieved together are not refreshed together.
+ */
+final class CacheExpiry {
+
+  private final long softTtlMillis;
+
+  private final long hardTtlMillis;
+
+  /** Maximum fraction of the time to live cut by the jitter, in percent */
+  private final int jitterPercent;
+
+  private CacheExpiry(long softTtlMillis, long hardTtlMillis, int jitterPercent) {
+    this.softTtlMillis = softTtlMillis;
+    this.hardTtlMillis = hardTtlMillis;
+    this.jitterPercent = jitterPercent;
+  }
+
+  /**
+   * Creates the policy from the Hook settings.
+   *
+   * @param settings the settings
+   * @return the policy, or {@code null} if the cached authorizations never expire
+   * @throws IllegalArgumentException if the settings are inconsistent
+   */
+  static CacheExpiry of(HookSettings settings) {
+    long softTtlMillis = Math.max(0, settings.getLong("cache.soft_ttl_millis", 0));
+    long hardTtlMillis = Math.max(0, settings.getLong("cache.hard_ttl_millis", 0));
+    int jitterPercent = Math.min(Math.max(0, settings.getInt("cache.ttl_jitter_percent", 10)), 100);
+    if (softTtlMillis == 0 && hardTtlMillis == 0) {
+      return null;
+    }
+    if (softTtlMillis != 0 && hardTtlMillis != 0 && softTtlMillis >= hardTtlMillis) {
+      throw new IllegalArgumentException("Setting '" + HookSettings.PREFIX
+          + "cache.soft_ttl_millis' must be lower than '" + HookSettings.PREFIX
+          + "cache.hard_ttl_millis'");
+    }
+    return new CacheExpiry(softTtlMillis, hardTtlMillis, jitterPercent);
+  }
+
+  /**
+   * @param fetchTime the time the permissions were retrieved
+   * @return the time after which the permissions are refreshed in the background
+   */
+  long softExpiry(long fetchTime) {
+    return expiry(fetchTime, softTtlMillis);
+  }
+
+  /**
+   * @param fetchTime the time the permissions were retrieved
+   * @return the time after which the permissions are no longer served
+   */
+  long hardExpiry(long fetchTime) {
+    return expiry(fetchTime, hardTtlMillis);
+  }
+
+  private long expiry(long fetchTime, long ttlMillis) {
+    if (ttlMillis == 0) {
+      return Long.MAX_VALUE;
+    }
+    long jitter = ttlMillis * jitterPercent / 100;
+    return fetchTime + ttlMillis
+        - ((jitter > 0) ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0);
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decorator of a token validator which caches the validation outcomes, so that sessions reopened
+ * by the same clients are validated entirely from memory.
+ * <p>
+ * Tokens are never stored: the cache is keyed by user and keeps, for every recently validated
+ * token, a salted hash of the token, which is compared in constant time. Valid tokens are cached
+ * for the positive TTL, invalid ones for the (typically much shorter) negative TTL.
+ * <p>
+ * An outcome is not cached if an invalidation concerning its user occurred while the token was
+ * being validated, as the validation may predate the revocation.
+ */
+class CachingTokenValidator implements TokenValidator {
+
+  /** Validation outcome of a token */
+  private static final class Entry {
+
+    final byte[] hash;
+
+    final boolean valid;
+
+    final long expiresAt;
+
+    Entry(byte[] hash, boolean valid, long expiresAt) {
+      this.hash = hash;
+      this.valid = valid;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final TokenValidator delegate;
+
+  private final long positiveTtlMillis;
+
+  private final long negativeTtlMillis;
+
+  private final int maxTokensPerUser;
+
+  /** Immutable arrays of the cached outcomes, keyed by user */
+  private final BoundedCache<String, Entry[]> cache;
+
+  /** Random salt, so that the hashes are of no use outside this process */
+  private final byte[] salt = new byte[16];
+
+  /** Number of stripes of the per-user invalidation epochs, a power of 2 */
+  private static final int EPOCH_STRIPES = 256;
+
+  /** Incremented by every invalidation of all the outcomes */
+  private final AtomicLong globalEpoch = new AtomicLong();
+
+  /**
+   * Incremented by every invalidation of the outcomes of a user, striped by user: a collision
+   * only prevents an outcome from being cached.
+   */
+  private final AtomicLongArray userEpochs = new AtomicLongArray(EPOCH_STRIPES);
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  CachingTokenValidator(TokenValidator delegate, HookSettings settings) {
+    this.delegate = delegate;
+    this.positiveTtlMillis = settings.getLong("token_cache.positive_ttl_millis", 300000);
+    this.negativeTtlMillis = settings.getLong("token_cache.negative_ttl_millis", 5000);
+    this.maxTokensPerUser = Math.max(1, settings.getInt("token_cache.max_tokens_per_user", 4));
+    this.cache = new BoundedCache<>(settings.getInt("token_cache.max_users", 100000));
+    new SecureRandom().nextBytes(salt);
+  }
+
+  @Override
+  public boolean isValid(String user, String token) throws IOException {
+    byte[] hash = hash(token);
+    long now = System.currentTimeMillis();
+
+    Entry[] entries = cache.get(user);
+    if (entries != null) {
+      for (Entry entry : entries) {
+        if (MessageDigest.isEqual(entry.hash, hash) && entry.expiresAt > now) {
+          hits.increment();
+          return entry.valid;
+        }
+      }
+    }
+
+    misses.increment();
+    int stripe = stripe(user);
+    long global = globalEpoch.get();
+    long epoch = userEpochs.get(stripe);
+    boolean valid = delegate.isValid(user, token);
+    Entry entry = new Entry(hash, valid, now + (valid ? positiveTtlMillis : negativeTtlMillis));
+    cache.compute(user, (key, current) -> (globalEpoch.get() == global
+        && userEpochs.get(stripe) == epoch) ? merge(current, entry, now) : current);
+    return valid;
+  }
+
+  /**
+   * Invalidates all the cached outcomes of the specified user.
+   *
+   * @param user the user
+   */
+  void invalidate(String user) {
+    // The epoch is moved first, so that validations in flight either see it or get removed.
+    userEpochs.incrementAndGet(stripe(user));
+    cache.remove(user);
+  }
+
+  /**
+   * Invalidates the cached outcome of the specified token.
+   *
+   * @param user the user
+   * @param token the token
+   */
+  void invalidate(String user, String token) {
+    byte[] hash = hash(token);
+    userEpochs.incrementAndGet(stripe(user));
+    cache.compute(user, (key, current) -> {
+      if (current == null) {
+        return null;
+      }
+      List<Entry> kept = new ArrayList<>(current.length);
+      for (Entry entry : current) {
+        if (!MessageDigest.isEqual(entry.hash, hash)) {
+          kept.add(entry);
+        }
+      }
+      return kept.isEmpty() ? null : kept.toArray(new Entry[0]);
+    });
+  }
+
+  void invalidateAll() {
+    globalEpoch.incrementAndGet();
+    cache.clear();
+  }
+
+  long getHits() {
+    return hits.sum();
+  }
+
+  long getMisses() {
+    return misses.sum();
+  }
+
+  long getEvictions() {
+    return cache.getEvictions();
+  }
+
+  /*
+   * Replaces the outcome of the same token, drops the expired ones and, if still too many, the
+   * oldest ones.
+   */
+  private Entry[] merge(Entry[] current, Entry entry, long now) {
+    List<Entry> merged = new ArrayList<>(maxTokensPerUser);
+    merged.add(entry);
+    if (current != null) {
+      for (Entry existing : current) {
+        if (merged.size() == maxTokensPerUser) {
+          break;
+        }
+        if (existing.expiresAt > now && !MessageDigest.isEqual(existing.hash, entry.hash)) {
+          merged.add(existing);
+        }
+      }
+    }
+    return merged.toArray(new Entry[0]);
+  }
+
+  private static int stripe(String user) {
+    return (user.hashCode() * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(EPOCH_STRIPES));
+  }
+
+  private byte[] hash(String token) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(salt);
+      return digest.digest(String.valueOf(token).getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e); // SHA-256 is always available
+    }
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and latency histograms of a Hook callback, by result. Histograms are only created for
+ * the results actually returned, as most combinations of callbacks and results never occur.
+ * <p>
+ * The invocations are counted by {@link HookMetrics} with per-thread counters, so that the
+ * successful ones, by far the most frequent, only cost a plain write; here only the other results
+ * are counted, while the successful ones are derived.
+ */
+final class CallbackMetrics implements CallbackMetricsMXBean {
+
+  /** Label of the checks which couldn't be performed */
+  static final String UNAVAILABLE = "UNAVAILABLE";
+
+  private static final AuthorizationResult[] RESULTS = AuthorizationResult.values();
+
+  private static final int OK_INDEX = AuthorizationResult.OK.ordinal() + 1;
+
+  /** Total invocations */
+  private final LongSupplier totalCalls;
+
+  /**
+   * Counters by result, at index ordinal + 1, and at index 0 for the unavailable ones; the counter
+   * of {@code OK} is not used
+   */
+  private final LongAdder[] calls = new LongAdder[RESULTS.length + 1];
+
+  /** Histograms by result, indexed as the counters */
+  private final AtomicReferenceArray<LatencyHistogram> latencies =
+      new AtomicReferenceArray<>(RESULTS.length + 1);
+
+  /**
+   * Creates the metrics of a callback.
+   *
+   * @param totalCalls the supplier of the total number of invocations
+   */
+  CallbackMetrics(LongSupplier totalCalls) {
+    this.totalCalls = totalCalls;
+    for (int i = 0; i < calls.length; i++) {
+      calls[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Records an invocation, which has already been counted in the total.
+   *
+   * @param result the result, or {@code null} if the check couldn't be performed
+   * @param nanos the latency, or a negative value if not measured
+   */
+  void record(AuthorizationResult result, long nanos) {
+    int index = indexOf(result);
+    if (index != OK_INDEX) {
+      calls[index].increment();
+    }
+    if (nanos >= 0) {
+      LatencyHistogram histogram = latencies.get(index);
+      if (histogram == null) {
+        latencies.compareAndSet(index, null, new LatencyHistogram());
+        histogram = latencies.get(index);
+      }
+      histogram.record(nanos);
+    }
+  }
+
+  /**
+   * Returns the label of the result at the specified index.
+   */
+  static String labelOf(int index) {
+    return (index == 0) ? UNAVAILABLE : RESULTS[index - 1].name();
+  }
+
+  int size() {
+    return calls.length;
+  }
+
+  long getCalls(int index) {
+    if (index != OK_INDEX) {
+      return calls[index].sum();
+    }
+    // The total is read last, so that a concurrent invocation can't make the difference negative.
+    long others = 0;
+    for (int i = 0; i < calls.length; i++) {
+      if (i != OK_INDEX) {
+        others += calls[i].sum();
+      }
+    }
+    return Math.max(0, totalCalls.getAsLong() - others);
+  }
+
+  /**
+   * Returns the histogram of the result at the specified index.
+   *
+   * @return the histogram, or {@code null} if no latency has been recorded for the result
+   */
+  LatencyHistogram getLatencies(int index) {
+    return latencies.get(index);
+  }
+
+  @Override
+  public long getCalls() {
+    return totalCalls.getAsLong();
+  }
+
+  @Override
+  public Map<String, Long> getCallsByResult() {
+    Map<String, Long> result = new LinkedHashMap<>();
+    for (int i = 0; i < calls.length; i++) {
+      result.put(labelOf(i), getCalls(i));
+    }
+    return result;
+  }
+
+  @Override
+  public long getTimedCalls() {
+    long total = 0;
+    for (long count : mergedSnapshot()) {
+      total += count;
+    }
+    return total;
+  }
+
+  @Override
+  public double getMeanMicros() {
+    long count = 0;
+    long totalNanos = 0;
+    for (int i = 0; i < calls.length; i++) {
+      LatencyHistogram histogram = latencies.get(i);
+      if (histogram != null) {
+        for (long bucket : histogram.snapshot()) {
+          count += bucket;
+        }
+        totalNanos += histogram.getTotalNanos();
+      }
+    }
+    return (count == 0) ? 0 : totalNanos / (count * 1000.0);
+  }
+
+  @Override
+  public double getP50Micros() {
+    return LatencyHistogram.percentile(mergedSnapshot(), 50) / 1000.0;
+  }
+
+  @Override
+  public double getP90Micros() {
+    return LatencyHistogram.percentile(mergedSnapshot(), 90) / 1000.0;
+  }
+
+  @Override
+  public double getP99Micros() {
+    return LatencyHistogram.percentile(mergedSnapshot(), 99) / 1000.0;
+  }
+
+  @Override
+  public double getP999Micros() {
+    return LatencyHistogram.percentile(mergedSnapshot(), 99.9) / 1000.0;
+  }
+
+  @Override
+  public double getMaxMicros() {
+    long max = 0;
+    for (int i = 0; i < calls.length; i++) {
+      LatencyHistogram histogram = latencies.get(i);
+      if (histogram != null) {
+        max = Math.max(max, histogram.getMaxNanos());
+      }
+    }
+    return max / 1000.0;
+  }
+
+  @Override
+  public Map<String, Double> getP99MicrosByResult() {
+    Map<String, Double> result = new LinkedHashMap<>();
+    for (int i = 0; i < calls.length; i++) {
+      LatencyHistogram histogram = latencies.get(i);
+      if (histogram != null) {
+        result.put(labelOf(i), LatencyHistogram.percentile(histogram.snapshot(), 99) / 1000.0);
+      }
+    }
+    return result;
+  }
+
+  private long[] mergedSnapshot() {
+    long[] merged = null;
+    for (int i = 0; i < calls.length; i++) {
+      LatencyHistogram histogram = latencies.get(i);
+      if (histogram == null) {
+        continue;
+      }
+      long[] snapshot = histogram.snapshot();
+      if (merged == null) {
+        merged = snapshot;
+      } else {
+        for (int j = 0; j < merged.length; j++) {
+          merged[j] += snapshot[j];
+        }
+      }
+    }
+    return (merged != null) ? merged : new long[0];
+  }
+
+  private static int indexOf(AuthorizationResult result) {
+    return (result == null) ? 0 : result.ordinal() + 1;
+  }
+}
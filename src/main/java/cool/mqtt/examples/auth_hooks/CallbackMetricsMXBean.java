@@ -0,0 +1,70 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.Map;
+
+/**
+ * Management interface of the metrics of a Hook callback.
+ */
+public interface CallbackMetricsMXBean {
+
+  /**
+   * Returns the number of invocations of the callback.
+   *
+   * @return the number of calls
+   */
+  long getCalls();
+
+  /**
+   * Returns the number of invocations of the callback for every result, where
+   * {@code UNAVAILABLE} counts the checks which couldn't be performed (for instance, because the
+   * authorizations were not retrieved in time).
+   *
+   * @return the number of calls, by result
+   */
+  Map<String, Long> getCallsByResult();
+
+  /**
+   * Returns the number of invocations whose latency has been recorded, which may be a sample of
+   * all of them.
+   *
+   * @return the number of timed calls
+   */
+  long getTimedCalls();
+
+  double getMeanMicros();
+
+  double getP50Micros();
+
+  double getP90Micros();
+
+  double getP99Micros();
+
+  double getP999Micros();
+
+  double getMaxMicros();
+
+  /**
+   * Returns the 99th percentile of the latency for every result.
+   *
+   * @return the percentiles, in microseconds, by result
+   */
+  Map<String, Double> getP99MicrosByResult();
+
+}
@@ -0,0 +1,79 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.IOException;
+
+/**
+ * Decorator of a backend which coalesces concurrent lookups for the same user (and token) into a
+ * single request, so that a storm of sessions opened by the same user does not turn into as many
+ * backend calls.
+ */
+class CoalescingAuthorizationBackend implements TokenValidator, PermissionSource {
+
+  private final TokenValidator tokenValidator;
+
+  private final PermissionSource permissionSource;
+
+  private final RequestCoalescer<Credentials, Boolean> validations =
+      new RequestCoalescer<>();
+
+  private final RequestCoalescer<String, PermissionInfo> permissions = new RequestCoalescer<>();
+
+  CoalescingAuthorizationBackend(TokenValidator tokenValidator,
+      PermissionSource permissionSource) {
+
+    this.tokenValidator = tokenValidator;
+    this.permissionSource = permissionSource;
+  }
+
+  @Override
+  public boolean isValid(String user, String token) throws IOException {
+    return validations.execute(new Credentials(user, token),
+        () -> tokenValidator.isValid(user, token));
+  }
+
+  @Override
+  public PermissionInfo getPermissions(String user) throws IOException {
+    return permissions.execute(user, () -> permissionSource.getPermissions(user));
+  }
+
+  /**
+   * Makes the next lookups of the permissions of the specified user skip the lookup already in
+   * flight, if any, whose outcome may have been revoked meanwhile.
+   *
+   * @param user the user
+   */
+  void invalidatePermissions(String user) {
+    permissions.invalidate(user);
+  }
+
+  /**
+   * Adds the counters of the coalesced requests to the specified metrics.
+   *
+   * @param metrics the metrics
+   */
+  void addTo(HookMetrics metrics) {
+    metrics.addCounter("coalesced_validations",
+        "Token validations served by joining a request already in flight.",
+        validations::getCoalesced);
+    metrics.addCounter("coalesced_permission_lookups",
+        "Permission lookups served by joining a request already in flight.",
+        permissions::getCoalesced);
+  }
+}
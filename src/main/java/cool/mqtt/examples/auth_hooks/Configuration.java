@@ -19,68 +19,257 @@ package cool.mqtt.examples.auth_hooks;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * Utility class for retrieving configuration parameters.
+ * <p>
+ * The configuration file is read in a single streaming pass, which extracts both the broker
+ * addresses and the Hook settings. The outcome is shared by all the Hooks configured from the same
+ * file, and the file is read again as soon as it changes: the broker addresses are then published
+ * through the {@link BrokerRegistry}, whereas the Hook settings only apply to the Hooks initialized
+ * afterwards. Each Hook releases the instance upon shutdown, and the file is no longer watched
+ * once all its Hooks have been shut down.
  */
 public class Configuration {
 
-  private final DocumentBuilderFactory documentBuilderFactory =
-      DocumentBuilderFactory.newInstance();
-  private final File configurationDir;
+  /** Path of the configuration file, relative to the configuration directory of the Hook */
+  private static final String CONFIGURATION_FILE = "../conf/brokers_configuration.xml";
+
+  /** Instances shared by all the Hooks, keyed by configuration file */
+  private static final ConcurrentHashMap<Path, Configuration> INSTANCES =
+      new ConcurrentHashMap<>();
+
+  private final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+  private final Path configurationFile;
+
+  private final BrokerRegistry brokers;
+
+  private volatile HookSettings hookSettings;
+
+  /** Hooks using this instance, guarded by the {@link #INSTANCES} entry */
+  private int users;
+
+  /** Service notifying the changes of the file, or {@code null} if not available */
+  private WatchService watchService;
+
+  /** Outcome of a single pass over the configuration file */
+  private static final class Parameters {
+
+    final Set<String> brokerAddresses = new HashSet<>();
 
-  Configuration(File configurationDir) {
-    this.configurationDir = configurationDir;
+    final Map<String, String> hookSettings = new HashMap<>();
   }
 
-  Set<String> retrieveBrokerAddresses() {
+  private Configuration(Path configurationFile) {
+    this.configurationFile = configurationFile;
+    inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+    Parameters parameters;
     try {
-      Document configurationFile = parseConfigurationFile(configurationDir);
-      Stream<Node> nodes = streamOfParameters(configurationFile);
-      return extractServerAddresses(nodes);
+      parameters = parse();
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
+    this.brokers = new BrokerRegistry(parameters.brokerAddresses);
+    this.hookSettings = toHookSettings(parameters);
+    watch();
+  }
+
+  /**
+   * Returns the configuration read from the directory of the Hook, which is parsed only the first
+   * time.
+   *
+   * @param configurationDir the configuration directory supplied to the Hook
+   * @return the configuration
+   */
+  static Configuration of(File configurationDir) {
+    Path file =
+        Paths.get(configurationDir.getPath(), CONFIGURATION_FILE).toAbsolutePath().normalize();
+    return INSTANCES.compute(file, (key, shared) -> {
+      Configuration configuration = shared != null ? shared : new Configuration(key);
+      configuration.users++;
+      return configuration;
+    });
+  }
+
+  /**
+   * Releases this configuration on behalf of a Hook being shut down. When no Hook uses it any
+   * longer, the file is no longer watched and a later {@link #of(File)} parses it again.
+   */
+  void close() {
+    INSTANCES.computeIfPresent(configurationFile, (key, shared) -> {
+      if (shared != this || --users > 0) {
+        return shared;
+      }
+      if (watchService != null) {
+        closeQuietly(watchService); // Also terminates the watcher thread
+      }
+      return null;
+    });
+  }
+
+  Set<String> retrieveBrokerAddresses() {
+    return brokers.getAddresses();
+  }
+
+  /**
+   * Returns the registry of the broker addresses, which follows the changes of the file.
+   *
+   * @return the registry
+   */
+  BrokerRegistry getBrokerRegistry() {
+    return brokers;
+  }
+
+  HookSettings retrieveHookSettings() {
+    return hookSettings;
+  }
+
+  private Parameters parse() throws IOException, XMLStreamException {
+    Parameters parameters = new Parameters();
+    try (InputStream in = Files.newInputStream(configurationFile)) {
+      XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+      try {
+        while (reader.hasNext()) {
+          if (reader.next() != XMLStreamConstants.START_ELEMENT
+              || !reader.getLocalName().equals("param")) {
+            continue;
+          }
+
+          String name = reader.getAttributeValue(null, "name");
+          String value = readText(reader);
+          if (name == null) {
+            continue;
+          }
+          if (name.contains(".server_address")) {
+            parameters.brokerAddresses.add(value);
+          } else if (name.startsWith(HookSettings.PREFIX)) {
+            parameters.hookSettings.put(name.substring(HookSettings.PREFIX.length()), value);
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    return parameters;
+  }
+
+  /**
+   * Reads the text of the current element, including the text of any nested elements, and leaves
+   * the reader on its end tag.
+   */
+  private static String readText(XMLStreamReader reader) throws XMLStreamException {
+    StringBuilder text = new StringBuilder();
+    int depth = 0;
+    while (true) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          if (depth-- == 0) {
+            return text.toString();
+          }
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+        case XMLStreamConstants.ENTITY_REFERENCE:
+          text.append(reader.getText());
+          break;
+        default:
+          // Comments and processing instructions carry no text.
+      }
+    }
   }
 
-  private Document parseConfigurationFile(File configDir)
-      throws ParserConfigurationException, SAXException, IOException {
+  private HookSettings toHookSettings(Parameters parameters) {
+    return new HookSettings(parameters.hookSettings, configurationFile.getParent());
+  }
+
+  /**
+   * Starts a daemon thread which reads the file again whenever it changes.
+   */
+  private void watch() {
+    WatchService watchService;
+    try {
+      watchService = configurationFile.getFileSystem().newWatchService();
+    } catch (IOException e) {
+      // Changes will not be detected, the configuration read so far still applies.
+      return;
+    }
+    try {
+      configurationFile.getParent().register(watchService,
+          StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    } catch (IOException e) {
+      closeQuietly(watchService);
+      return;
+    }
+    this.watchService = watchService;
+
+    Thread watcher = new Thread(() -> {
+      while (true) {
+        WatchKey key;
+        try {
+          key = watchService.take();
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+          return;
+        }
 
-    DocumentBuilder builder = documentBuilderFactory.newDocumentBuilder();
-    Path path = Paths.get(configDir.getPath(), "../conf/brokers_configuration.xml");
-    Document configurationFile = builder.parse(path.toFile());
-    return configurationFile;
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+          changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+              || configurationFile.getFileName().equals(event.context());
+        }
+        if (changed) {
+          reload();
+        }
+        if (!key.reset()) {
+          return; // The directory is no longer accessible
+        }
+      }
+    }, "Configuration-Watcher");
+    watcher.setDaemon(true);
+    watcher.start();
   }
 
-  private Stream<Node> streamOfParameters(Document configurationFile) {
-    NodeList nodeList = configurationFile.getElementsByTagName("param");
-    List<Node> nodes = new ArrayList<>(nodeList.getLength());
-    for (int i = 0; i < nodeList.getLength(); i++) {
-      nodes.add(nodeList.item(i));
+  private static void closeQuietly(WatchService watchService) {
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      // Nothing left to release.
     }
-    return nodes.stream();
   }
 
-  private Set<String> extractServerAddresses(Stream<Node> nodes) {
-    return nodes.filter(node -> {
-      Node nameAttribute = node.getAttributes().getNamedItem("name");
-      return nameAttribute.getTextContent().contains(".server_address");
-    }).map(Node::getTextContent).collect(Collectors.toSet());
+  private void reload() {
+    Parameters parameters;
+    try {
+      parameters = parse();
+    } catch (IOException | XMLStreamException e) {
+      // The file may be still being written, we'll get notified again.
+      return;
+    }
+    brokers.update(parameters.brokerAddresses);
+    hookSettings = toHookSettings(parameters);
   }
 }
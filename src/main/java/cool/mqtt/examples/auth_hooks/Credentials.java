@@ -0,0 +1,60 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.Objects;
+
+/**
+ * User-token pair supplied when opening a session.
+ */
+public final class Credentials {
+
+  private final String user;
+
+  private final String token;
+
+  public Credentials(String user, String token) {
+    this.user = user;
+    this.token = token;
+  }
+
+  public String getUser() {
+    return user;
+  }
+
+  public String getToken() {
+    return token;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof Credentials)) {
+      return false;
+    }
+    Credentials other = (Credentials) obj;
+    return Objects.equals(user, other.user) && Objects.equals(token, other.token);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(user, token);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the authorization decisions taken for a user, which are computed lazily from
+ * the user permissions as brokers and topics are actually requested.
+ */
+class DecisionCache {
+
+  /** The permissions from which decisions are computed */
+  private final PermissionInfo permissions;
+
+  /** Maximum number of decisions kept, over all the actions */
+  private final int maxSize;
+
+  /** Current number of decisions kept, over all the actions */
+  private final AtomicInteger size = new AtomicInteger();
+
+  private final ConcurrentHashMap<String, AuthorizationResult> connectResults =
+      new ConcurrentHashMap<>();
+
+  private final ConcurrentHashMap<String, AuthorizationResult> publishResults =
+      new ConcurrentHashMap<>();
+
+  private final ConcurrentHashMap<String, AuthorizationResult> subscribeResults =
+      new ConcurrentHashMap<>();
+
+  private final LongAdder hits;
+
+  private final LongAdder misses;
+
+  /**
+   * Creates a cache.
+   *
+   * @param permissions the permissions from which decisions are computed
+   * @param maxSize the maximum number of decisions kept
+   * @param hits the counter of the hits, shared by all the caches
+   * @param misses the counter of the misses, shared by all the caches
+   */
+  DecisionCache(PermissionInfo permissions, int maxSize, LongAdder hits, LongAdder misses) {
+    this.permissions = permissions;
+    this.maxSize = maxSize;
+    this.hits = hits;
+    this.misses = misses;
+  }
+
+  PermissionInfo getPermissions() {
+    return permissions;
+  }
+
+  AuthorizationResult authorizeMQTTConnection(String broker) {
+    AuthorizationResult result = connectResults.get(broker);
+    if (result != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+      result = permissions.allowConnectionTo(broker) ? AuthorizationResult.OK
+          : AuthorizationResult.BROKER_CONNECTION_NOT_ALLOWED;
+      remember(connectResults, broker, result);
+    }
+    return result;
+  }
+
+  AuthorizationResult authorizePublishTo(String topic) {
+    AuthorizationResult result = publishResults.get(topic);
+    if (result != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+      result = permissions.allowPublishTo(topic) ? AuthorizationResult.OK
+          : AuthorizationResult.PUBLISHING_NOT_ALLOWED;
+      remember(publishResults, topic, result);
+    }
+    return result;
+  }
+
+  AuthorizationResult authorizeSubscribeTo(String topicFilter) {
+    AuthorizationResult result = subscribeResults.get(topicFilter);
+    if (result != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+      result = permissions.allowSubscribeTo(topicFilter) ? AuthorizationResult.OK
+          : AuthorizationResult.SUBSCRIPTION_NOT_ALLOWED;
+      remember(subscribeResults, topicFilter, result);
+    }
+    return result;
+  }
+
+  /*
+   * Once the cache is full, further decisions are simply not remembered: they are still correct,
+   * as they are computed from the permissions every time.
+   */
+  private void remember(ConcurrentHashMap<String, AuthorizationResult> results, String key,
+      AuthorizationResult result) {
+
+    if (size.get() < maxSize && results.putIfAbsent(key, result) == null) {
+      size.incrementAndGet();
+    }
+  }
+}
@@ -17,6 +17,7 @@
  */
 package cool.mqtt.examples.auth_hooks;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -24,45 +25,118 @@ import java.util.Set;
 /**
  * Default implementation of {@code IPermissionInfo} interface, which wraps a predefined permissions
  * set.
+ * <p>
+ * Instances are canonical: the {@link AuthorizationBuilder} returns the very same instance for
+ * identical permissions (see {@link PermissionInterner}), so that they can be shared by any number
+ * of users.
  */
 class DefaultPermissionInfo implements PermissionInfo {
 
+  private static final String[] NO_ROLES = new String[0];
+
+  /** What these permissions grant, or {@code null} for the short-cut instances */
+  private final PermissionInterner.Definition definition;
+
   /** Set of contactable broker addresses */
-  private Set<String> allowedBrokers;
+  private final Set<String> allowedBrokers;
+
+  /** The configured brokers, if all contactable, or {@code null} */
+  private final BrokerRegistry configuredBrokers;
+
+  /** Trie of subscribable topic filters */
+  private final TopicTrie allowedTopicForSubscribing;
 
-  /** Set of subscribable topics */
-  private final Set<String> allowedTopicForSubscribing;
+  /** Trie of allowed topic filters for publishing */
+  private final TopicTrie allowedTopicForPublishing;
 
-  /** Set of allowed topics for publishing */
-  private final Set<String> allowedTopicForPublishing;
+  /** Restrictions on the published messages */
+  private final PublishPolicy publishPolicy;
 
-  private DefaultPermissionInfo(Set<String> allowedBrokers, Set<String> allowedTopicForSubscribing,
-      Set<String> allowedTopicForPublishing) {
+  private DefaultPermissionInfo(PermissionInterner.Definition definition,
+      TopicTrie allowedTopicForSubscribing, TopicTrie allowedTopicForPublishing) {
 
-    this.allowedBrokers = Collections.unmodifiableSet(allowedBrokers);
-    this.allowedTopicForSubscribing = Collections.unmodifiableSet(allowedTopicForSubscribing);
-    this.allowedTopicForPublishing = Collections.unmodifiableSet(allowedTopicForPublishing);
+    this.definition = definition;
+    this.allowedBrokers = definition.brokers;
+    this.configuredBrokers = definition.configuredBrokers;
+    this.allowedTopicForSubscribing = allowedTopicForSubscribing;
+    this.allowedTopicForPublishing = allowedTopicForPublishing;
+    this.publishPolicy = definition.publishPolicy;
   }
 
   private DefaultPermissionInfo() {
+    this.definition = null;
     this.allowedBrokers = Collections.emptySet();
-    this.allowedTopicForSubscribing = Collections.emptySet();
-    this.allowedTopicForPublishing = Collections.emptySet();
+    this.configuredBrokers = null;
+    this.allowedTopicForSubscribing = TopicTrie.EMPTY;
+    this.allowedTopicForPublishing = TopicTrie.EMPTY;
+    this.publishPolicy = PublishPolicy.UNRESTRICTED;
+  }
+
+  Set<String> getAllowedBrokers() {
+    return allowedBrokers;
+  }
+
+  BrokerRegistry getConfiguredBrokers() {
+    return configuredBrokers;
+  }
+
+  TopicTrie getAllowedTopicsForSubscribing() {
+    return allowedTopicForSubscribing;
+  }
+
+  TopicTrie getAllowedTopicsForPublishing() {
+    return allowedTopicForPublishing;
   }
 
   @Override
   public boolean allowConnectionTo(String broker) {
-    return allowedBrokers.contains(broker);
+    return allowedBrokers.contains(broker)
+        || (configuredBrokers != null && configuredBrokers.contains(broker));
   }
 
   @Override
   public boolean allowSubscribeTo(String topic) {
-    return allowedTopicForSubscribing.contains(topic);
+    // The requested filter has to be a subset of the granted ones.
+    return allowedTopicForSubscribing.covers(topic);
   }
 
   @Override
   public boolean allowPublishTo(String topic) {
-    return allowedTopicForPublishing.contains(topic);
+    return allowedTopicForPublishing.matches(topic);
+  }
+
+  @Override
+  public PublishPolicy getPublishPolicy() {
+    return publishPolicy;
+  }
+
+  @Override
+  public boolean hasRole(String role) {
+    return definition != null && Arrays.binarySearch(definition.roles, role) >= 0;
+  }
+
+  /**
+   * Returns the names of the granted roles.
+   *
+   * @return the sorted names, not to be modified
+   */
+  String[] getRoles() {
+    return (definition != null) ? definition.roles : NO_ROLES;
+  }
+
+  /**
+   * Compiles the topic filters of the specified frozen definition.
+   */
+  private static PermissionInfo compile(PermissionInterner.Definition definition) {
+    TopicTrie.Builder subscribing = new TopicTrie.Builder();
+    for (String filter : definition.subscribeFilters) {
+      subscribing.add(filter);
+    }
+    TopicTrie.Builder publishing = new TopicTrie.Builder();
+    for (String filter : definition.publishFilters) {
+      publishing.add(filter);
+    }
+    return new DefaultPermissionInfo(definition, subscribing.build(), publishing.build());
   }
 
   /**
@@ -70,6 +144,11 @@ class DefaultPermissionInfo implements PermissionInfo {
    */
   static class AuthorizationBuilder {
 
+    /**
+     * Short-cut representing no granted permission at all.
+     */
+    public final static PermissionInfo NONE = new DefaultPermissionInfo();
+
     /**
      * Short-cut representing granted permissions on everything.
      */
@@ -94,12 +173,27 @@ class DefaultPermissionInfo implements PermissionInfo {
     /** Set of contactable broker addresses */
     private Set<String> contactableBrokers = new HashSet<>();
 
-    /** Set of subscribable topics */
+    /** The configured brokers, if all contactable */
+    private BrokerRegistry configuredBrokers;
+
+    /** Subscribable topic filters, compiled only if the permissions are new */
     private Set<String> subscribableTopics = new HashSet<>();
 
-    /** Set of allowed topics for publishing */
+    /** Topic filters allowed for publishing, compiled only if the permissions are new */
     private Set<String> publishableTopics = new HashSet<>();
 
+    /** Maximum payload size of the published messages */
+    private int maxPayloadSize = PublishPolicy.UNLIMITED;
+
+    /** Bit mask of the QoS levels allowed for publishing */
+    private int allowedQos = PublishPolicy.ALL_QOS;
+
+    /** Whether published messages may be retained */
+    private boolean retainAllowed = true;
+
+    /** Names of the granted roles */
+    private Set<String> roles = new HashSet<>();
+
     /**
      * Grant the permission to connect to the specified MQTT broker address.
      *
@@ -123,9 +217,22 @@ class DefaultPermissionInfo implements PermissionInfo {
     }
 
     /**
-     * Grant the permission to subscribe to the specified topic.
+     * Grant the permission to connect to all the brokers configured in MQTT.Cool, including the ones
+     * configured after the permissions are built.
      *
-     * @param topic the subscribable topic
+     * @param brokers the registry of the configured brokers
+     * @return a reference to this object
+     */
+    AuthorizationBuilder withConfiguredBrokers(BrokerRegistry brokers) {
+      configuredBrokers = brokers;
+      return this;
+    }
+
+    /**
+     * Grant the permission to subscribe to the specified topic filter, which may contain the
+     * {@code +} and {@code #} wildcards.
+     *
+     * @param topic the subscribable topic filter
      * @return a reference to this object
      */
     public AuthorizationBuilder withSubscribeTo(String topic) {
@@ -134,9 +241,10 @@ class DefaultPermissionInfo implements PermissionInfo {
     }
 
     /**
-     * Grant the permission to publish to the specified topic.
+     * Grant the permission to publish to the topics matched by the specified topic filter, which
+     * may contain the {@code +} and {@code #} wildcards.
      *
-     * @param topic the topic allowed for publishing
+     * @param topic the topic filter allowed for publishing
      * @return a reference to this object
      */
     public AuthorizationBuilder withPublishingTo(String topic) {
@@ -145,13 +253,178 @@ class DefaultPermissionInfo implements PermissionInfo {
     }
 
     /**
-     * Builds a new instance of {@code IAuthorizationInfo} which contains all provided
-     * authorizations.
+     * Limits the size of the payload of the published messages.
+     *
+     * @param maxPayloadSize the maximum size in bytes, or {@link PublishPolicy#UNLIMITED}
+     * @return a reference to this object
+     */
+    AuthorizationBuilder withMaxPayloadSize(int maxPayloadSize) {
+      this.maxPayloadSize = maxPayloadSize;
+      return this;
+    }
+
+    /**
+     * Limits the QoS levels of the published messages.
+     *
+     * @param allowedQos the bit mask of the allowed QoS levels, with bit {@code n} standing for QoS
+     *        {@code n}
+     * @return a reference to this object
+     */
+    AuthorizationBuilder withAllowedQos(int allowedQos) {
+      this.allowedQos = allowedQos;
+      return this;
+    }
+
+    /**
+     * Grants or revokes the permission to publish retained messages.
+     *
+     * @param retainAllowed whether published messages may be retained
+     * @return a reference to this object
+     */
+    AuthorizationBuilder withRetain(boolean retainAllowed) {
+      this.retainAllowed = retainAllowed;
+      return this;
+    }
+
+    /**
+     * Applies the restrictions of the specified policy to the published messages.
+     *
+     * @param policy the policy
+     * @return a reference to this object
+     */
+    AuthorizationBuilder withPublishPolicy(PublishPolicy policy) {
+      maxPayloadSize = policy.getMaxPayloadSize();
+      allowedQos = policy.getAllowedQos();
+      retainAllowed = policy.isRetainAllowed();
+      return this;
+    }
+
+    /**
+     * Grant all the permissions of the specified role, previously built by an
+     * {@code AuthorizationBuilder}, recording its name.
+     *
+     * @param name the name of the role
+     * @param permissionInfo the permissions of the role
+     * @return a reference to this object
+     * @throws IllegalArgumentException if the permissions are {@link #ALL} or were not built by an
+     *         {@code AuthorizationBuilder}
+     */
+    AuthorizationBuilder withRole(String name, PermissionInfo permissionInfo) {
+      withPermissions(permissionInfo);
+      roles.add(name);
+      return this;
+    }
+
+    /**
+     * Grant all the permissions held by the specified instance, previously built by an
+     * {@code AuthorizationBuilder}.
+     *
+     * @param permissionInfo the permissions to grant
+     * @return a reference to this object
+     * @throws IllegalArgumentException if the permissions are {@link #ALL} or were not built by an
+     *         {@code AuthorizationBuilder}
+     */
+    AuthorizationBuilder withPermissions(PermissionInfo permissionInfo) {
+      if (permissionInfo == ALL || !(permissionInfo instanceof DefaultPermissionInfo)) {
+        throw new IllegalArgumentException("Permissions can't be enumerated");
+      }
+      PermissionInterner.Definition granted = ((DefaultPermissionInfo) permissionInfo).definition;
+      if (granted == null) {
+        return this; // Nothing granted
+      }
+      contactableBrokers.addAll(granted.brokers);
+      if (granted.configuredBrokers != null) {
+        configuredBrokers = granted.configuredBrokers;
+      }
+      Collections.addAll(subscribableTopics, granted.subscribeFilters);
+      Collections.addAll(publishableTopics, granted.publishFilters);
+      Collections.addAll(roles, granted.roles);
+      return withPublishPolicy(granted.publishPolicy);
+    }
+
+    /**
+     * Revoke the permission to connect to the specified MQTT broker address.
+     *
+     * @param broker the MQTT broker address
+     * @return a reference to this object
+     */
+    AuthorizationBuilder withoutBroker(String broker) {
+      contactableBrokers.remove(broker);
+      return this;
+    }
+
+    /**
+     * Revoke the permission to connect to all the configured brokers, apart from the ones granted
+     * explicitly.
+     *
+     * @return a reference to this object
+     */
+    AuthorizationBuilder withoutConfiguredBrokers() {
+      configuredBrokers = null;
+      return this;
+    }
+
+    /**
+     * Revoke the permission to subscribe to the specified topic filter, previously granted as is.
+     *
+     * @param topic the topic filter
+     * @return a reference to this object
+     */
+    AuthorizationBuilder withoutSubscribeTo(String topic) {
+      subscribableTopics.remove(topic);
+      return this;
+    }
+
+    /**
+     * Revoke the permission to publish to the specified topic filter, previously granted as is.
+     *
+     * @param topic the topic filter
+     * @return a reference to this object
+     */
+    AuthorizationBuilder withoutPublishingTo(String topic) {
+      publishableTopics.remove(topic);
+      return this;
+    }
+
+    /**
+     * Returns the canonical instance with the permissions of the specified compiled tries, as read
+     * from a binary snapshot, which are kept if the permissions are new.
+     *
+     * @param brokers the contactable broker addresses
+     * @param configuredBrokers the configured brokers, if all contactable, or {@code null}
+     * @param subscribing the trie of subscribable topic filters
+     * @param publishing the trie of topic filters allowed for publishing
+     * @param publishPolicy the restrictions on the published messages
+     * @param roles the names of the granted roles
+     * @return the permissions
+     */
+    static PermissionInfo fromTries(Set<String> brokers, BrokerRegistry configuredBrokers,
+        TopicTrie subscribing, TopicTrie publishing, PublishPolicy publishPolicy,
+        Set<String> roles) {
+
+      Set<String> subscribeFilters = new HashSet<>();
+      subscribing.forEach(subscribeFilters::add);
+      Set<String> publishFilters = new HashSet<>();
+      publishing.forEach(publishFilters::add);
+      PermissionInterner.Definition definition = new PermissionInterner.Definition(brokers,
+          configuredBrokers, subscribeFilters, publishFilters, publishPolicy, roles);
+      return PermissionInterner.SHARED.intern(definition,
+          frozen -> new DefaultPermissionInfo(frozen, subscribing, publishing));
+    }
+
+    /**
+     * Returns the instance of {@code IAuthorizationInfo} which contains all provided
+     * authorizations: the same instance is returned for the same authorizations, which are
+     * compiled only the first time.
      *
      * @return an instance of {@code IAuthorizationInfo}.
+     * @throws IllegalArgumentException if the publish restrictions are not valid
      */
     public PermissionInfo build() {
-      return new DefaultPermissionInfo(contactableBrokers, subscribableTopics, publishableTopics);
+      PermissionInterner.Definition definition = new PermissionInterner.Definition(
+          contactableBrokers, configuredBrokers, subscribableTopics, publishableTopics,
+          PublishPolicy.of(maxPayloadSize, allowedQos, retainAllowed), roles);
+      return PermissionInterner.SHARED.intern(definition, DefaultPermissionInfo::compile);
     }
 
   }
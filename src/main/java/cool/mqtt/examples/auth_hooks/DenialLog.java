@@ -0,0 +1,167 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import cool.mqtt.examples.auth_hooks.AccessDeniedException.Access;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds the exceptions for the denied accesses and logs them, aggregating the repeated ones.
+ * <p>
+ * A client retrying a forbidden operation at high rate would otherwise flood the heap with
+ * exceptions and the log with identical lines. Hence, for every session and target (broker address,
+ * topic or topic filter) the first denial is logged at once, while the following ones are only
+ * counted and reported in a single line at most once per interval. The exception is built once too,
+ * and thrown again as long as the outcome of the check doesn't change, unless stack traces are
+ * requested for troubleshooting.
+ * <p>
+ * At most a configured number of targets is tracked for every session; the denials of further
+ * targets, as well as the ones of session openings, are all aggregated together.
+ */
+final class DenialLog {
+
+  private static final Logger log = Logger.getLogger(DenialLog.class.getName());
+
+  /** Denials of a target, or of the untracked ones */
+  private static final class Denials {
+
+    volatile AccessDeniedException exception;
+
+    /** Denials not logged yet */
+    final LongAdder pending = new LongAdder();
+
+    /** Time ({@code System.nanoTime}) after which the pending denials can be logged */
+    final AtomicLong nextLogTime = new AtomicLong(System.nanoTime());
+  }
+
+  private final boolean stackTraces;
+
+  private final long intervalNanos;
+
+  private final int maxTrackedTargets;
+
+  private final Map<String, Map<String, Denials>> sessions = new ConcurrentHashMap<>();
+
+  private final Denials untracked = new Denials();
+
+  /**
+   * Creates the log, configured through the {@code denial.*} settings.
+   *
+   * @param settings the Hook settings
+   */
+  DenialLog(HookSettings settings) {
+    this.stackTraces = settings.getBoolean("denial.stack_traces", false);
+    this.intervalNanos =
+        TimeUnit.MILLISECONDS.toNanos(settings.getLong("denial.log_interval_millis", 10000));
+    this.maxTrackedTargets = settings.getInt("denial.max_tracked_targets", 16);
+  }
+
+  /**
+   * Records a denied access.
+   *
+   * @param sessionId the session
+   * @param access the kind of access
+   * @param user the user
+   * @param target the broker address or the topic, or {@code null} when opening a session
+   * @param result the result of the authorization check
+   * @return the exception to be thrown
+   */
+  AccessDeniedException deny(String sessionId, Access access, String user, String target,
+      AuthorizationResult result) {
+
+    Denials denials = (access != Access.OPEN_SESSION) ? track(sessionId, target) : null;
+    if (denials == null) {
+      AccessDeniedException exception =
+          new AccessDeniedException(result, access, user, target, stackTraces);
+      untracked.exception = exception;
+      record(untracked);
+      return exception;
+    }
+
+    AccessDeniedException exception = denials.exception;
+    if (stackTraces || exception == null || exception.getResult() != result
+        || exception.getAccess() != access) {
+      exception = new AccessDeniedException(result, access, user, target, stackTraces);
+      denials.exception = exception;
+    }
+    record(denials);
+    return exception;
+  }
+
+  /**
+   * Stops tracking the denials of a session, logging the pending ones.
+   *
+   * @param sessionId the session
+   */
+  void forget(String sessionId) {
+    Map<String, Denials> targets = sessions.remove(sessionId);
+    if (targets != null) {
+      for (Denials denials : targets.values()) {
+        flush(denials);
+      }
+    }
+  }
+
+  private Denials track(String sessionId, String target) {
+    // Plain lookups first, as computeIfAbsent may lock even if the mapping is there.
+    Map<String, Denials> targets = sessions.get(sessionId);
+    if (targets == null) {
+      targets = sessions.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>());
+    }
+    Denials denials = targets.get(target);
+    if (denials == null) {
+      if (targets.size() >= maxTrackedTargets) {
+        return null;
+      }
+      denials = targets.computeIfAbsent(target, t -> new Denials());
+    }
+    return denials;
+  }
+
+  private void record(Denials denials) {
+    denials.pending.increment();
+    long now = System.nanoTime();
+    long next = denials.nextLogTime.get();
+    if (now - next >= 0 && denials.nextLogTime.compareAndSet(next, now + intervalNanos)) {
+      flush(denials);
+    }
+  }
+
+  private void flush(Denials denials) {
+    long count = denials.pending.sumThenReset();
+    if (count == 0 || !log.isLoggable(Level.INFO)) {
+      return;
+    }
+    String message = denials.exception.getMessage();
+    if (denials == untracked) {
+      log.log(Level.INFO, "{0} denied accesses, the last one: {1}",
+          new Object[] {count, message});
+    } else if (count == 1) {
+      log.info(message);
+    } else {
+      log.log(Level.INFO, "{0} (denied {1} times)", new Object[] {message, count});
+    }
+  }
+}
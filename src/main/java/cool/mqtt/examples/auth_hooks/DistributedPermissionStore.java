@@ -0,0 +1,72 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.IOException;
+
+/**
+ * Service Provider Interface for a store of user permissions shared by the nodes of a cluster, so
+ * that the permissions of a user retrieved from the backend by one node are reused by the others.
+ * <p>
+ * Implementations are selected through the {@code auth_hook.cluster.store} setting, by fully
+ * qualified class name, and must offer a public constructor taking the settings of the
+ * {@code auth_hook.cluster.} namespace as a {@code Map<String, String>}, keyed by the rest of their
+ * names. They are free to serialize permissions in any form, and must be thread safe.
+ */
+public interface DistributedPermissionStore {
+
+  /**
+   * Retrieves the permissions stored for the specified user.
+   *
+   * @param user the user
+   * @return the permissions, or {@code null} if not stored or expired
+   * @throws IOException if the store could not be contacted
+   */
+  PermissionInfo get(String user) throws IOException;
+
+  /**
+   * Stores the permissions of the specified user, replacing the current ones.
+   *
+   * @param user the user
+   * @param permissions the permissions
+   * @param ttlMillis the time after which the permissions expire, in milliseconds
+   * @throws IOException if the store could not be contacted
+   */
+  void put(String user, PermissionInfo permissions, long ttlMillis) throws IOException;
+
+  /**
+   * Removes the permissions stored for the specified user.
+   *
+   * @param user the user
+   * @throws IOException if the store could not be contacted
+   */
+  void remove(String user) throws IOException;
+
+  /**
+   * Removes the permissions stored for all the users.
+   *
+   * @throws IOException if the store could not be contacted
+   */
+  void clear() throws IOException;
+
+  /**
+   * Releases the resources held by this store. The default implementation does nothing.
+   */
+  default void close() {}
+
+}
@@ -0,0 +1,42 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+/**
+ * Specifies how authorization checks behave when the authorizations of a user could not be
+ * retrieved in time, either because the retrieval is still in progress or because it failed.
+ */
+enum FallbackPolicy {
+
+  /**
+   * Every check is denied.
+   */
+  DENY,
+
+  /**
+   * Checks are performed against the authorizations last retrieved for the user, provided that
+   * they are not older than the configured maximum staleness.
+   */
+  SERVE_STALE,
+
+  /**
+   * Checks are performed against the authorizations last retrieved for the user, no matter how old
+   * they are.
+   */
+  LAST_KNOWN_GOOD
+}
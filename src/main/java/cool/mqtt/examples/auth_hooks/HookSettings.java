@@ -0,0 +1,128 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable view of the tunable settings of the Hook, supplied as {@code param} elements whose name
+ * starts with {@code auth_hook.}.
+ */
+class HookSettings {
+
+  /** Prefix of the parameter names recognized as Hook settings. */
+  static final String PREFIX = "auth_hook.";
+
+  /** Settings with no parameter at all, in which case every default applies. */
+  static final HookSettings DEFAULTS = new HookSettings(Collections.emptyMap());
+
+  /** Setting values, keyed by name without prefix */
+  private final Map<String, String> values;
+
+  /** Directory relative paths are resolved against, or {@code null} for the working directory */
+  private final Path baseDir;
+
+  HookSettings(Map<String, String> values) {
+    this(values, null);
+  }
+
+  HookSettings(Map<String, String> values, Path baseDir) {
+    this.values = Collections.unmodifiableMap(new HashMap<>(values));
+    this.baseDir = baseDir;
+  }
+
+  /**
+   * Returns the value of the specified setting.
+   *
+   * @param name the name of the setting, without prefix
+   * @param defaultValue the value to return if the setting is not supplied
+   * @return the supplied value, or {@code defaultValue}
+   */
+  String getString(String name, String defaultValue) {
+    String value = values.get(name);
+    return (value != null) ? value.trim() : defaultValue;
+  }
+
+  /**
+   * Returns the settings whose name starts with the specified prefix.
+   *
+   * @param prefix the prefix of the names, without the Hook prefix
+   * @return the values, keyed by the rest of the name
+   */
+  Map<String, String> getStrings(String prefix) {
+    Map<String, String> result = new HashMap<>();
+    values.forEach((name, value) -> {
+      if (name.startsWith(prefix) && name.length() > prefix.length()) {
+        result.put(name.substring(prefix.length()), value.trim());
+      }
+    });
+    return result;
+  }
+
+  long getLong(String name, long defaultValue) {
+    String value = getString(name, null);
+    if (value == null || value.isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(
+          "Invalid value '" + value + "' for setting '" + PREFIX + name + "'", e);
+    }
+  }
+
+  int getInt(String name, int defaultValue) {
+    return (int) getLong(name, defaultValue);
+  }
+
+  boolean getBoolean(String name, boolean defaultValue) {
+    String value = getString(name, null);
+    return (value == null || value.isEmpty()) ? defaultValue : Boolean.parseBoolean(value);
+  }
+
+  /**
+   * Returns the path specified by a setting, resolving it against the configuration directory when
+   * relative.
+   *
+   * @param name the name of the setting, without prefix
+   * @param defaultValue the path to use if the setting is not supplied
+   * @return the path
+   */
+  Path getPath(String name, String defaultValue) {
+    Path path = Paths.get(getString(name, defaultValue));
+    return (baseDir != null) ? baseDir.resolve(path) : path;
+  }
+
+  <E extends Enum<E>> E getEnum(String name, Class<E> type, E defaultValue) {
+    String value = getString(name, null);
+    if (value == null || value.isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      return Enum.valueOf(type, value.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(
+          "Invalid value '" + value + "' for setting '" + PREFIX + name + "'", e);
+    }
+  }
+}
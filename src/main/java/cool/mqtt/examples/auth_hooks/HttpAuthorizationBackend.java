@@ -0,0 +1,244 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Backend which validates tokens and retrieves permissions from a remote HTTP service, exchanging
+ * JSON documents:
+ * <ul>
+ * <li>{@code POST <url>/tokens/validate} with body {@code {"user": ..., "token": ...}}, answered by
+ * {@code {"valid": true|false}};</li>
+ * <li>{@code GET <url>/permissions/<user>}, answered by the permissions in the format described in
+ * {@link JsonPermissions}, or by status 404 if the user is unknown;</li>
+ * <li>{@code POST <url>/tokens/validate_bulk} with body
+ * {@code {"requests": [{"user": ..., "token": ...}, ...]}}, answered by
+ * {@code {"results": [true|false, ...]}} in the same order;</li>
+ * <li>{@code POST <url>/permissions/bulk} with body {@code {"users": [...]}}, answered by
+ * {@code {"permissions": {<user>: <permissions>, ...}}}, where unknown users are omitted.</li>
+ * </ul>
+ * Connections are kept alive and reused by the JDK connection cache, as long as every response is
+ * fully consumed; the number of concurrent requests, hence of pooled connections, is bounded.
+ */
+class HttpAuthorizationBackend implements TokenValidator, PermissionSource {
+
+  private final String baseUrl;
+
+  private final int connectTimeoutMillis;
+
+  private final int readTimeoutMillis;
+
+  /** Bounds the concurrent requests, and then the connections kept alive */
+  private final Semaphore connections;
+
+  /** Set of URIs of the configured MQTT brokers, granted through "all_brokers" */
+  private final BrokerRegistry configuredBrokers;
+
+  HttpAuthorizationBackend(HookSettings settings, BrokerRegistry configuredBrokers) {
+    String url = settings.getString("backend.http.url", null);
+    if (url == null || url.isEmpty()) {
+      throw new IllegalArgumentException(
+          "Missing setting '" + HookSettings.PREFIX + "backend.http.url'");
+    }
+    this.baseUrl = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    this.connectTimeoutMillis = settings.getInt("backend.http.connect_timeout_millis", 1000);
+    this.readTimeoutMillis = settings.getInt("backend.http.read_timeout_millis", 2000);
+    this.connections = new Semaphore(settings.getInt("backend.http.max_connections", 20));
+    this.configuredBrokers = configuredBrokers;
+  }
+
+  @Override
+  public boolean isValid(String user, String token) throws IOException {
+    StringBuilder body = new StringBuilder("{\"user\":");
+    Json.quote(body, user).append(",\"token\":");
+    Json.quote(body, token).append('}');
+
+    Map<String, Object> response = Json.parseObject(post("/tokens/validate", body.toString()));
+    return Boolean.TRUE.equals(response.get("valid"));
+  }
+
+  @Override
+  public Map<Credentials, Boolean> validateAll(Collection<Credentials> credentials)
+      throws IOException {
+
+    List<Credentials> requests = new ArrayList<>(credentials);
+    StringBuilder body = new StringBuilder("{\"requests\":[");
+    for (int i = 0; i < requests.size(); i++) {
+      Credentials pair = requests.get(i);
+      body.append((i > 0) ? ",{\"user\":" : "{\"user\":");
+      Json.quote(body, pair.getUser()).append(",\"token\":");
+      Json.quote(body, pair.getToken()).append('}');
+    }
+    body.append("]}");
+
+    Map<String, Object> response =
+        Json.parseObject(post("/tokens/validate_bulk", body.toString()));
+    Object results = response.get("results");
+    if (!(results instanceof List) || ((List<?>) results).size() != requests.size()) {
+      throw new IOException("Unexpected bulk validation response");
+    }
+
+    Map<Credentials, Boolean> validations = new HashMap<>();
+    for (int i = 0; i < requests.size(); i++) {
+      validations.put(requests.get(i), Boolean.TRUE.equals(((List<?>) results).get(i)));
+    }
+    return validations;
+  }
+
+  @Override
+  public PermissionInfo getPermissions(String user) throws IOException {
+    String response = get("/permissions/" + encode(user));
+    if (response == null) {
+      return null;
+    }
+    return JsonPermissions.decode(Json.parseObject(response), configuredBrokers);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Map<String, PermissionInfo> getAllPermissions(Collection<String> users)
+      throws IOException {
+
+    StringBuilder body = new StringBuilder("{\"users\":[");
+    boolean first = true;
+    for (String user : users) {
+      if (!first) {
+        body.append(',');
+      }
+      Json.quote(body, user);
+      first = false;
+    }
+    body.append("]}");
+
+    Map<String, Object> response = Json.parseObject(post("/permissions/bulk", body.toString()));
+    Object permissions = response.get("permissions");
+    if (!(permissions instanceof Map)) {
+      throw new IOException("Unexpected bulk permissions response");
+    }
+
+    Map<String, PermissionInfo> results = new HashMap<>();
+    for (Map.Entry<String, Object> entry : ((Map<String, Object>) permissions).entrySet()) {
+      if (!(entry.getValue() instanceof Map)) {
+        throw new IOException("Unexpected permissions for user '" + entry.getKey() + "'");
+      }
+      results.put(entry.getKey(), JsonPermissions
+          .decode((Map<String, Object>) entry.getValue(), configuredBrokers));
+    }
+    return results;
+  }
+
+  /**
+   * Issues a GET request.
+   *
+   * @return the response body, or {@code null} if the resource was not found
+   */
+  String get(String path) throws IOException {
+    return send("GET", path, null);
+  }
+
+  String post(String path, String body) throws IOException {
+    String response = send("POST", path, body);
+    if (response == null) {
+      throw new IOException("Resource not found: " + baseUrl + path);
+    }
+    return response;
+  }
+
+  private String send(String method, String path, String body) throws IOException {
+    try {
+      connections.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a connection", e);
+    }
+
+    try {
+      HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+      connection.setRequestMethod(method);
+      connection.setConnectTimeout(connectTimeoutMillis);
+      connection.setReadTimeout(readTimeoutMillis);
+      connection.setUseCaches(false);
+      connection.setRequestProperty("Accept", "application/json");
+      if (body != null) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setFixedLengthStreamingMode(bytes.length);
+        try (OutputStream out = connection.getOutputStream()) {
+          out.write(bytes);
+        }
+      }
+
+      int status = connection.getResponseCode();
+      if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+        drain(connection.getErrorStream());
+        return null;
+      }
+      if (status / 100 != 2) {
+        drain(connection.getErrorStream());
+        throw new IOException("Unexpected status " + status + " from " + baseUrl + path);
+      }
+      return drain(connection.getInputStream());
+    } finally {
+      connections.release();
+    }
+  }
+
+  /*
+   * Fully reading and closing the stream (rather than disconnecting) is what allows the underlying
+   * connection to be returned to the keep-alive cache.
+   */
+  private static String drain(InputStream in) throws IOException {
+    if (in == null) {
+      return "";
+    }
+    try (InputStream stream = in) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = stream.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
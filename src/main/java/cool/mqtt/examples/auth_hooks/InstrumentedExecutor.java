@@ -0,0 +1,221 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executor which keeps track of queue depth, active tasks, rejections and wait times of the
+ * submitted tasks. Depending on the configured mode, tasks are run on:
+ * <ul>
+ * <li>{@code CACHED}: an unbounded pool of threads, created on demand;</li>
+ * <li>{@code BOUNDED}: a fixed pool of threads with a bounded queue, whose overflow is either
+ * rejected ({@code ABORT} policy) or run by the submitting thread ({@code CALLER_RUNS}
+ * policy);</li>
+ * <li>{@code VIRTUAL}: a new virtual thread per task (Java 21 or newer only).</li>
+ * </ul>
+ */
+class InstrumentedExecutor implements Executor, InstrumentedExecutorMXBean {
+
+  /** Thread pool modes */
+  enum Mode {
+    CACHED, BOUNDED, VIRTUAL
+  }
+
+  /** Policies for tasks submitted to a full bounded pool */
+  enum RejectionPolicy {
+    ABORT, CALLER_RUNS
+  }
+
+  private final Mode mode;
+
+  private final ExecutorService delegate;
+
+  private final AtomicInteger queued = new AtomicInteger();
+
+  private final AtomicInteger active = new AtomicInteger();
+
+  private final LongAdder submitted = new LongAdder();
+
+  private final LongAdder completed = new LongAdder();
+
+  private final LongAdder rejected = new LongAdder();
+
+  private final LongAdder totalWaitNanos = new LongAdder();
+
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  /**
+   * Creates a new executor, configured through the settings with the specified prefix.
+   *
+   * @param name the name of the threads
+   * @param settings the Hook settings
+   * @param prefix the prefix of the executor settings
+   */
+  InstrumentedExecutor(String name, HookSettings settings, String prefix) {
+    this.mode = settings.getEnum(prefix + "mode", Mode.class, Mode.CACHED);
+    switch (mode) {
+      case BOUNDED:
+        int threads = settings.getInt(prefix + "threads", 16);
+        int queueSize = settings.getInt(prefix + "queue_size", 1000);
+        RejectionPolicy policy = settings.getEnum(prefix + "rejection_policy",
+            RejectionPolicy.class, RejectionPolicy.ABORT);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize), threadFactory(name), rejectionHandler(policy));
+        pool.allowCoreThreadTimeOut(true);
+        this.delegate = pool;
+        break;
+
+      case VIRTUAL:
+        this.delegate = newVirtualThreadPerTaskExecutor();
+        break;
+
+      default:
+        this.delegate = Executors.newCachedThreadPool(threadFactory(name));
+    }
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    submitted.increment();
+    long enqueued = System.nanoTime();
+    queued.incrementAndGet();
+    try {
+      delegate.execute(() -> {
+        queued.decrementAndGet();
+        recordWait(System.nanoTime() - enqueued);
+        active.incrementAndGet();
+        try {
+          task.run();
+        } finally {
+          active.decrementAndGet();
+          completed.increment();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      queued.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /**
+   * Stops accepting tasks and waits a little for the running ones to complete.
+   */
+  void shutdown() {
+    delegate.shutdown();
+    try {
+      if (!delegate.awaitTermination(5, TimeUnit.SECONDS)) {
+        delegate.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      delegate.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public String getMode() {
+    return mode.name();
+  }
+
+  @Override
+  public int getQueueDepth() {
+    return Math.max(0, queued.get());
+  }
+
+  @Override
+  public int getActiveCount() {
+    return active.get();
+  }
+
+  @Override
+  public long getSubmittedTasks() {
+    return submitted.sum();
+  }
+
+  @Override
+  public long getCompletedTasks() {
+    return completed.sum();
+  }
+
+  @Override
+  public long getRejectedTasks() {
+    return rejected.sum();
+  }
+
+  @Override
+  public double getAverageWaitMillis() {
+    long count = completed.sum() + active.get();
+    return (count == 0) ? 0 : totalWaitNanos.sum() / (count * 1_000_000.0);
+  }
+
+  @Override
+  public double getMaxWaitMillis() {
+    return maxWaitNanos.get() / 1_000_000.0;
+  }
+
+  private void recordWait(long nanos) {
+    totalWaitNanos.add(nanos);
+    long max;
+    while (nanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, nanos)) {
+      // Retry
+    }
+  }
+
+  private RejectedExecutionHandler rejectionHandler(RejectionPolicy policy) {
+    RejectedExecutionHandler handler = (policy == RejectionPolicy.CALLER_RUNS)
+        ? new ThreadPoolExecutor.CallerRunsPolicy() : new ThreadPoolExecutor.AbortPolicy();
+    return (task, executor) -> {
+      rejected.increment();
+      handler.rejectedExecution(task, executor);
+    };
+  }
+
+  private static ThreadFactory threadFactory(String name) {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /*
+   * Looked up reflectively, as the Hook is compiled for Java 8.
+   */
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalArgumentException("Virtual threads require Java 21 or newer", e);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+/**
+ * Management interface of {@link InstrumentedExecutor}.
+ */
+public interface InstrumentedExecutorMXBean {
+
+  /**
+   * Returns the mode of the executor.
+   *
+   * @return one of {@code CACHED}, {@code BOUNDED} or {@code VIRTUAL}
+   */
+  String getMode();
+
+  /**
+   * Returns the number of tasks submitted and not started yet.
+   *
+   * @return the queue depth
+   */
+  int getQueueDepth();
+
+  /**
+   * Returns the number of tasks being run.
+   *
+   * @return the active count
+   */
+  int getActiveCount();
+
+  long getSubmittedTasks();
+
+  long getCompletedTasks();
+
+  /**
+   * Returns the number of tasks rejected because both the pool and the queue were full.
+   *
+   * @return the number of rejected tasks
+   */
+  long getRejectedTasks();
+
+  /**
+   * Returns the average time tasks waited in the queue before being started.
+   *
+   * @return the average wait time, in milliseconds
+   */
+  double getAverageWaitMillis();
+
+  double getMaxWaitMillis();
+
+}
@@ -0,0 +1,122 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.Objects;
+
+/**
+ * Revocation broadcast to the nodes of a cluster through an {@link InvalidationBus}: the sessions
+ * of a user, of a user token or of all the users granted a role.
+ */
+public final class Invalidation {
+
+  /** What is revoked */
+  public enum Scope {
+
+    /** All the sessions of the user */
+    USER,
+
+    /** The sessions of the user opened with the token */
+    TOKEN,
+
+    /** The sessions of all the users granted the role */
+    ROLE
+  }
+
+  private final Scope scope;
+
+  private final String subject;
+
+  private final String token;
+
+  /**
+   * Creates an invalidation.
+   *
+   * @param scope what is revoked
+   * @param subject the user, or the role for {@link Scope#ROLE}
+   * @param token the token for {@link Scope#TOKEN}, {@code null} otherwise
+   */
+  public Invalidation(Scope scope, String subject, String token) {
+    this.scope = Objects.requireNonNull(scope);
+    this.subject = Objects.requireNonNull(subject);
+    this.token = token;
+    if (scope == Scope.TOKEN && token == null) {
+      throw new IllegalArgumentException("Missing token");
+    }
+  }
+
+  static Invalidation ofUser(String user) {
+    return new Invalidation(Scope.USER, user, null);
+  }
+
+  static Invalidation ofToken(String user, String token) {
+    return new Invalidation(Scope.TOKEN, user, token);
+  }
+
+  static Invalidation ofRole(String role) {
+    return new Invalidation(Scope.ROLE, role, null);
+  }
+
+  public Scope getScope() {
+    return scope;
+  }
+
+  /**
+   * Returns the user, or the role for {@link Scope#ROLE}.
+   *
+   * @return the subject
+   */
+  public String getSubject() {
+    return subject;
+  }
+
+  /**
+   * Returns the token for {@link Scope#TOKEN}.
+   *
+   * @return the token, or {@code null}
+   */
+  public String getToken() {
+    return token;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof Invalidation)) {
+      return false;
+    }
+    Invalidation other = (Invalidation) obj;
+    return scope == other.scope && subject.equals(other.subject)
+        && Objects.equals(token, other.token);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(scope, subject, token);
+  }
+
+  /*
+   * Tokens are never shown, as invalidations may be logged.
+   */
+  @Override
+  public String toString() {
+    return scope + " '" + subject + "'";
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Service Provider Interface for broadcasting invalidations to the nodes of a cluster, so that the
+ * sessions revoked on one node are revoked on every node.
+ * <p>
+ * Implementations are selected through the {@code auth_hook.cluster.bus} setting, by fully
+ * qualified class name, and must offer a public constructor taking the settings of the
+ * {@code auth_hook.cluster.} namespace as a {@code Map<String, String>}, keyed by the rest of their
+ * names. An invalidation may also be delivered back to the node which published it: applying it
+ * twice is harmless.
+ */
+public interface InvalidationBus {
+
+  /**
+   * Broadcasts the specified invalidation to the other nodes.
+   *
+   * @param invalidation the invalidation
+   * @throws IOException if the bus could not be contacted
+   */
+  void publish(Invalidation invalidation) throws IOException;
+
+  /**
+   * Registers the listener of the invalidations published by the other nodes, which is invoked
+   * sequentially, by a thread of the bus.
+   *
+   * @param listener the listener
+   */
+  void subscribe(Consumer<Invalidation> listener);
+
+  /**
+   * Releases the resources held by this bus. The default implementation does nothing.
+   */
+  default void close() {}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Utility class for exposing the Hook internals as JMX MBeans.
+ */
+final class JmxSupport {
+
+  /** Domain of all the MBeans registered by the Hook. */
+  static final String DOMAIN = "cool.mqtt.examples.auth_hooks";
+
+  private JmxSupport() {}
+
+  /**
+   * Registers the specified MBean on the platform MBean server, replacing any MBean previously
+   * registered with the same name (for instance, by a previous instance of the Hook).
+   *
+   * @param mbean the MBean
+   * @param type the type of the MBean
+   * @param name the name of the MBean
+   * @return the name under which the MBean has been registered, or {@code null} if the registration
+   *         failed
+   */
+  static ObjectName register(Object mbean, String type, String name) {
+    try {
+      ObjectName objectName =
+          new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+      server.registerMBean(mbean, objectName);
+      return objectName;
+    } catch (JMException e) {
+      // Monitoring is not essential, the Hook keeps working.
+      return null;
+    }
+  }
+
+  /**
+   * Unregisters the MBean with the specified name, if any.
+   *
+   * @param objectName the name returned by {@link #register(Object, String, String)}
+   */
+  static void unregister(ObjectName objectName) {
+    if (objectName == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (JMException e) {
+      // Already unregistered.
+    }
+  }
+}
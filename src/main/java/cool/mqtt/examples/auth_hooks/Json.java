@@ -0,0 +1,301 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON support, enough for exchanging authorization data with backends and files.
+ * <p>
+ * Parsed objects are returned as {@code Map<String, Object>}, arrays as {@code List<Object>},
+ * numbers as {@code Long} or {@code Double}, along with {@code String}, {@code Boolean} and
+ * {@code null}.
+ */
+final class Json {
+
+  private final Reader reader;
+
+  /** One character of look-ahead, or -2 if none */
+  private int peeked = -2;
+
+  private Json(Reader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * Parses the JSON value available from the specified reader.
+   *
+   * @param reader the reader
+   * @return the parsed value
+   * @throws IOException if reading fails or the input is not valid JSON
+   */
+  static Object parse(Reader reader) throws IOException {
+    Json json = new Json(reader);
+    Object value = json.readValue();
+    if (json.skipWhitespace() != -1) {
+      throw json.error("Unexpected trailing content");
+    }
+    return value;
+  }
+
+  static Object parse(String text) throws IOException {
+    return parse(new StringReader(text));
+  }
+
+  /**
+   * Parses the specified text, which is expected to hold a JSON object.
+   *
+   * @param text the text
+   * @return the parsed object
+   * @throws IOException if the text is not a valid JSON object
+   */
+  @SuppressWarnings("unchecked")
+  static Map<String, Object> parseObject(String text) throws IOException {
+    Object value = parse(text);
+    if (!(value instanceof Map)) {
+      throw new IOException("JSON object expected");
+    }
+    return (Map<String, Object>) value;
+  }
+
+  /**
+   * Appends the specified string to the builder as a quoted JSON string.
+   *
+   * @param builder the builder
+   * @param value the string
+   * @return the builder
+   */
+  static StringBuilder quote(StringBuilder builder, String value) {
+    builder.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          builder.append("\\\"");
+          break;
+        case '\\':
+          builder.append("\\\\");
+          break;
+        case '\n':
+          builder.append("\\n");
+          break;
+        case '\r':
+          builder.append("\\r");
+          break;
+        case '\t':
+          builder.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            builder.append(String.format("\\u%04x", (int) c));
+          } else {
+            builder.append(c);
+          }
+      }
+    }
+    return builder.append('"');
+  }
+
+  private Object readValue() throws IOException {
+    int c = skipWhitespace();
+    switch (c) {
+      case '{':
+        return readObject();
+      case '[':
+        return readArray();
+      case '"':
+        next();
+        return readString();
+      case 't':
+        expect("true");
+        return Boolean.TRUE;
+      case 'f':
+        expect("false");
+        return Boolean.FALSE;
+      case 'n':
+        expect("null");
+        return null;
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          return readNumber();
+        }
+        throw error("Unexpected character");
+    }
+  }
+
+  private Map<String, Object> readObject() throws IOException {
+    next();
+    Map<String, Object> object = new LinkedHashMap<>();
+    if (skipWhitespace() == '}') {
+      next();
+      return object;
+    }
+    while (true) {
+      if (skipWhitespace() != '"') {
+        throw error("Member name expected");
+      }
+      next();
+      String name = readString();
+      if (skipWhitespace() != ':') {
+        throw error("':' expected");
+      }
+      next();
+      object.put(name, readValue());
+      int c = skipWhitespace();
+      next();
+      if (c == '}') {
+        return object;
+      }
+      if (c != ',') {
+        throw error("',' or '}' expected");
+      }
+    }
+  }
+
+  private List<Object> readArray() throws IOException {
+    next();
+    List<Object> array = new ArrayList<>();
+    if (skipWhitespace() == ']') {
+      next();
+      return array;
+    }
+    while (true) {
+      array.add(readValue());
+      int c = skipWhitespace();
+      next();
+      if (c == ']') {
+        return array;
+      }
+      if (c != ',') {
+        throw error("',' or ']' expected");
+      }
+    }
+  }
+
+  private String readString() throws IOException {
+    StringBuilder builder = new StringBuilder();
+    while (true) {
+      int c = next();
+      if (c == -1) {
+        throw error("Unterminated string");
+      }
+      if (c == '"') {
+        return builder.toString();
+      }
+      if (c != '\\') {
+        builder.append((char) c);
+        continue;
+      }
+
+      c = next();
+      switch (c) {
+        case 'b':
+          builder.append('\b');
+          break;
+        case 'f':
+          builder.append('\f');
+          break;
+        case 'n':
+          builder.append('\n');
+          break;
+        case 'r':
+          builder.append('\r');
+          break;
+        case 't':
+          builder.append('\t');
+          break;
+        case 'u':
+          char[] hex = new char[4];
+          for (int i = 0; i < 4; i++) {
+            hex[i] = (char) next();
+          }
+          try {
+            builder.append((char) Integer.parseInt(new String(hex), 16));
+          } catch (NumberFormatException e) {
+            throw error("Invalid unicode escape");
+          }
+          break;
+        case '"':
+        case '\\':
+        case '/':
+          builder.append((char) c);
+          break;
+        default:
+          throw error("Invalid escape");
+      }
+    }
+  }
+
+  private Number readNumber() throws IOException {
+    StringBuilder builder = new StringBuilder();
+    int c = peek();
+    while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+      builder.append((char) next());
+      c = peek();
+    }
+    String text = builder.toString();
+    try {
+      if (text.indexOf('.') >= 0 || text.indexOf('e') >= 0 || text.indexOf('E') >= 0) {
+        return Double.valueOf(text);
+      }
+      return Long.valueOf(text);
+    } catch (NumberFormatException e) {
+      throw error("Invalid number");
+    }
+  }
+
+  private void expect(String literal) throws IOException {
+    for (int i = 0; i < literal.length(); i++) {
+      if (next() != literal.charAt(i)) {
+        throw error("'" + literal + "' expected");
+      }
+    }
+  }
+
+  private int skipWhitespace() throws IOException {
+    int c = peek();
+    while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+      next();
+      c = peek();
+    }
+    return c;
+  }
+
+  private int peek() throws IOException {
+    if (peeked == -2) {
+      peeked = reader.read();
+    }
+    return peeked;
+  }
+
+  private int next() throws IOException {
+    int c = peek();
+    peeked = -2;
+    return c;
+  }
+
+  private IOException error(String message) {
+    return new IOException("Invalid JSON: " + message);
+  }
+}
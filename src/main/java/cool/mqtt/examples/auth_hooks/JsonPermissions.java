@@ -0,0 +1,201 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Decodes permissions from their JSON representation, which is an object like the following:
+ *
+ * <pre>
+ * {
+ *   "roles": ["device"],
+ *   "all_brokers": true,
+ *   "brokers": ["tcp://broker.example.com:1883"],
+ *   "subscribe": ["sensors/+/temp"],
+ *   "publish": ["fleet/42/#"],
+ *   "max_payload_size": 1024,
+ *   "qos": [0, 1],
+ *   "retain": false
+ * }
+ * </pre>
+ *
+ * where every member is optional, {@code "all_brokers"} grants the connection to all the configured
+ * brokers (including the ones configured later), and the object {@code {"all": true}} grants
+ * permissions on everything. The permissions of the listed roles, where supported by the source,
+ * are granted as well. The last three members restrict the messages published to the allowed
+ * topics, by payload size in bytes, QoS level and retained flag; when missing, any message is
+ * allowed, unless restricted by the last listed role.
+ */
+final class JsonPermissions {
+
+  private JsonPermissions() {}
+
+  /**
+   * Decodes the permissions represented by the specified JSON object.
+   *
+   * @param object the parsed JSON object
+   * @param configuredBrokers the registry of the configured brokers
+   * @return the decoded permissions
+   * @throws IOException if the object is not a valid representation of permissions
+   */
+  static PermissionInfo decode(Map<String, Object> object, BrokerRegistry configuredBrokers)
+      throws IOException {
+
+    return decode(object, configuredBrokers, role -> null);
+  }
+
+  /**
+   * Decodes the permissions represented by the specified JSON object, which may grant roles.
+   *
+   * @param object the parsed JSON object
+   * @param configuredBrokers the registry of the configured brokers
+   * @param roles the function returning the permissions of a role, or {@code null} if unknown
+   * @return the decoded permissions
+   * @throws IOException if the object is not a valid representation of permissions
+   */
+  static PermissionInfo decode(Map<String, Object> object, BrokerRegistry configuredBrokers,
+      Function<String, PermissionInfo> roles) throws IOException {
+
+    if (Boolean.TRUE.equals(object.get("all"))) {
+      return DefaultPermissionInfo.AuthorizationBuilder.ALL;
+    }
+
+    DefaultPermissionInfo.AuthorizationBuilder builder =
+        new DefaultPermissionInfo.AuthorizationBuilder();
+    if (grantRoles(object, roles, builder)) {
+      return DefaultPermissionInfo.AuthorizationBuilder.ALL;
+    }
+    if (Boolean.TRUE.equals(object.get("all_brokers"))) {
+      builder.withConfiguredBrokers(configuredBrokers);
+    }
+    for (String broker : strings(object, "brokers")) {
+      builder.withBroker(broker);
+    }
+    for (String topic : strings(object, "subscribe")) {
+      builder.withSubscribeTo(topic);
+    }
+    for (String topic : strings(object, "publish")) {
+      builder.withPublishingTo(topic);
+    }
+    decodePublishPolicy(object, builder);
+    return builder.build();
+  }
+
+  /**
+   * Grants to the specified builder the permissions of the roles listed by the specified JSON
+   * object, in order.
+   *
+   * @param object the parsed JSON object
+   * @param roles the function returning the permissions of a role, or {@code null} if unknown
+   * @param builder the builder of the permissions
+   * @return {@code true} if a role grants everything, in which case the builder is left incomplete
+   * @throws IOException if a role is unknown
+   */
+  static boolean grantRoles(Map<String, Object> object, Function<String, PermissionInfo> roles,
+      DefaultPermissionInfo.AuthorizationBuilder builder) throws IOException {
+
+    for (String role : strings(object, "roles")) {
+      PermissionInfo granted = roles.apply(role);
+      if (granted == null) {
+        throw new IOException("Unknown role '" + role + "'");
+      }
+      if (granted == DefaultPermissionInfo.AuthorizationBuilder.ALL) {
+        return true;
+      }
+      builder.withRole(role, granted);
+    }
+    return false;
+  }
+
+  /**
+   * Tells whether the specified JSON object restricts the published messages.
+   *
+   * @param object the parsed JSON object
+   * @return {@code true} if any of the policy members is present
+   */
+  static boolean hasPublishPolicy(Map<String, Object> object) {
+    return object.containsKey("max_payload_size") || object.containsKey("qos")
+        || object.containsKey("retain");
+  }
+
+  /**
+   * Applies to the specified builder the restrictions on the published messages represented by the
+   * specified JSON object, leaving the missing ones untouched.
+   *
+   * @param object the parsed JSON object
+   * @param builder the builder of the permissions
+   * @throws IOException if the restrictions are not valid
+   */
+  static void decodePublishPolicy(Map<String, Object> object,
+      DefaultPermissionInfo.AuthorizationBuilder builder) throws IOException {
+
+    Object maxPayloadSize = object.get("max_payload_size");
+    if (maxPayloadSize != null) {
+      if (!(maxPayloadSize instanceof Long) || (Long) maxPayloadSize < 0
+          || (Long) maxPayloadSize > Integer.MAX_VALUE) {
+        throw new IOException("Non-negative integer expected for 'max_payload_size'");
+      }
+      builder.withMaxPayloadSize(((Long) maxPayloadSize).intValue());
+    }
+
+    Object qos = object.get("qos");
+    if (qos != null) {
+      if (!(qos instanceof List)) {
+        throw new IOException("Array expected for 'qos'");
+      }
+      int allowedQos = 0;
+      for (Object level : (List<?>) qos) {
+        if (!(level instanceof Long) || (Long) level < 0 || (Long) level > 2) {
+          throw new IOException("Array of QoS levels (0, 1 or 2) expected for 'qos'");
+        }
+        allowedQos |= 1 << ((Long) level).intValue();
+      }
+      builder.withAllowedQos(allowedQos);
+    }
+
+    Object retain = object.get("retain");
+    if (retain != null) {
+      if (!(retain instanceof Boolean)) {
+        throw new IOException("Boolean expected for 'retain'");
+      }
+      builder.withRetain((Boolean) retain);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  static List<String> strings(Map<String, Object> object, String name) throws IOException {
+    Object value = object.get(name);
+    if (value == null) {
+      return Collections.emptyList();
+    }
+    if (value instanceof List) {
+      for (Object element : (List<Object>) value) {
+        if (!(element instanceof String)) {
+          throw new IOException("Array of strings expected for '" + name + "'");
+        }
+      }
+      return (List<String>) value;
+    }
+    throw new IOException("Array expected for '" + name + "'");
+  }
+}
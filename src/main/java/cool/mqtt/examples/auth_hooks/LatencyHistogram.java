@@ -0,0 +1,164 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies, with log-linear buckets in the style of HdrHistogram: every
+ * power of two between {@value #MIN_EXPONENT} and {@value #MAX_EXPONENT} nanoseconds is split in
+ * {@value #SUB_BUCKETS} linear sub-buckets, which bounds the relative error to 1/8 over the whole
+ * range (16 ns to about 137 s) with a fixed number of counters.
+ * <p>
+ * The range starts low enough for cached checks, which take a few tens of nanoseconds; below about
+ * 100 ns, though, the measures are dominated by the resolution and the cost of
+ * {@link System#nanoTime()}, which depend on the platform.
+ */
+final class LatencyHistogram {
+
+  private static final int SUB_BITS = 3;
+
+  static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  static final int MIN_EXPONENT = 4;
+
+  static final int MAX_EXPONENT = 37;
+
+  /** Bucket 0 counts the values below the range, the last bucket the ones above it */
+  private static final int BUCKETS = (MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKETS + 2;
+
+  private final LongAdder[] counts = new LongAdder[BUCKETS];
+
+  private final LongAdder totalNanos = new LongAdder();
+
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos the latency, in nanoseconds
+   */
+  void record(long nanos) {
+    counts[bucketOf(nanos)].increment();
+    totalNanos.add(nanos);
+    long max;
+    while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+      // Retry
+    }
+  }
+
+  /**
+   * Takes a snapshot of the bucket counts, which may not be consistent with the concurrent
+   * recordings, but is good enough for monitoring.
+   *
+   * @return the counts, one per bucket
+   */
+  long[] snapshot() {
+    long[] snapshot = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts[i].sum();
+    }
+    return snapshot;
+  }
+
+  long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  /**
+   * Returns the specified percentile of a snapshot, approximated by the upper bound of the bucket
+   * which contains it.
+   *
+   * @param snapshot the snapshot
+   * @param percentile the percentile, between 0 and 100
+   * @return the value of the percentile, in nanoseconds, or 0 if the snapshot is empty
+   */
+  static long percentile(long[] snapshot, double percentile) {
+    long total = 0;
+    for (long count : snapshot) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      seen += snapshot[i];
+      if (seen >= Math.max(1, rank)) {
+        return upperBoundOf(i);
+      }
+    }
+    return upperBoundOf(snapshot.length - 1);
+  }
+
+  /**
+   * Returns the number of values below the specified power of two.
+   *
+   * @param snapshot the snapshot
+   * @param exponent the exponent, between {@value #MIN_EXPONENT} and {@value #MAX_EXPONENT}
+   * @return the cumulative count
+   */
+  static long countAtMost(long[] snapshot, int exponent) {
+    long count = 0;
+    int last = (exponent - MIN_EXPONENT) * SUB_BUCKETS;
+    for (int i = 0; i <= last; i++) {
+      count += snapshot[i];
+    }
+    return count;
+  }
+
+  static int bucketOf(long nanos) {
+    if (nanos < (1L << MIN_EXPONENT)) {
+      return 0;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    if (exponent >= MAX_EXPONENT) {
+      return BUCKETS - 1;
+    }
+    int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - MIN_EXPONENT) * SUB_BUCKETS + sub + 1;
+  }
+
+  /*
+   * Buckets hold the values in [lower, upper), so the upper bound is the lower bound of the next
+   * bucket; values beyond the range are reported at its end.
+   */
+  static long upperBoundOf(int bucket) {
+    if (bucket == 0) {
+      return 1L << MIN_EXPONENT;
+    }
+    if (bucket >= BUCKETS - 1) {
+      return 1L << MAX_EXPONENT;
+    }
+    int exponent = (bucket - 1) / SUB_BUCKETS + MIN_EXPONENT;
+    int sub = (bucket - 1) % SUB_BUCKETS;
+    return (1L << exponent) + ((long) (sub + 1) << (exponent - SUB_BITS));
+  }
+}
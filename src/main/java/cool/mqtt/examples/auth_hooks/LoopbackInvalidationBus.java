@@ -0,0 +1,99 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Stand-in for a distributed bus, connecting all the Hooks of this JVM configured with the same
+ * {@code auth_hook.cluster.name}, for trying out and testing the cluster mode on a single machine.
+ * Every subscribed bus delivers the invalidations published by the other ones on its own thread,
+ * in publishing order.
+ */
+class LoopbackInvalidationBus implements InvalidationBus {
+
+  /** The buses of the clusters, by name */
+  private static final ConcurrentHashMap<String, CopyOnWriteArrayList<LoopbackInvalidationBus>>
+      CLUSTERS = new ConcurrentHashMap<>();
+
+  private final CopyOnWriteArrayList<LoopbackInvalidationBus> nodes;
+
+  private final CopyOnWriteArrayList<Consumer<Invalidation>> listeners =
+      new CopyOnWriteArrayList<>();
+
+  /** Delivers the invalidations to the listeners, created upon the first subscription */
+  private volatile ExecutorService delivery;
+
+  /**
+   * Creates a bus, connected to the other ones of the same cluster.
+   *
+   * @param settings the settings of the {@code auth_hook.cluster.} namespace
+   */
+  public LoopbackInvalidationBus(Map<String, String> settings) {
+    String name = settings.getOrDefault("name", "default");
+    this.nodes = CLUSTERS.computeIfAbsent(name, key -> new CopyOnWriteArrayList<>());
+    nodes.add(this);
+  }
+
+  @Override
+  public void publish(Invalidation invalidation) {
+    for (LoopbackInvalidationBus node : nodes) {
+      if (node != this) {
+        node.deliver(invalidation);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void subscribe(Consumer<Invalidation> listener) {
+    if (delivery == null) {
+      delivery = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "LoopbackInvalidationBus");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    listeners.add(listener);
+  }
+
+  private void deliver(Invalidation invalidation) {
+    ExecutorService current = delivery;
+    if (current == null) {
+      return;
+    }
+    try {
+      current.execute(() -> listeners.forEach(listener -> listener.accept(invalidation)));
+    } catch (RejectedExecutionException e) {
+      // Closed meanwhile.
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    nodes.remove(this);
+    if (delivery != null) {
+      delivery.shutdown();
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stand-in for a distributed store, shared by all the Hooks of this JVM configured with the same
+ * {@code auth_hook.cluster.name}, for trying out and testing the cluster mode on a single machine.
+ * Permissions are held as they are, expired ones are dropped when looked up.
+ */
+class LoopbackPermissionStore implements DistributedPermissionStore {
+
+  private static final class Entry {
+
+    final PermissionInfo permissions;
+
+    final long expiresAt;
+
+    Entry(PermissionInfo permissions, long expiresAt) {
+      this.permissions = permissions;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /** The stores of the clusters, by name */
+  private static final ConcurrentHashMap<String, ConcurrentHashMap<String, Entry>> CLUSTERS =
+      new ConcurrentHashMap<>();
+
+  private final ConcurrentHashMap<String, Entry> entries;
+
+  /**
+   * Creates a store, shared with the other ones of the same cluster.
+   *
+   * @param settings the settings of the {@code auth_hook.cluster.} namespace
+   */
+  public LoopbackPermissionStore(Map<String, String> settings) {
+    String name = settings.getOrDefault("name", "default");
+    this.entries = CLUSTERS.computeIfAbsent(name, key -> new ConcurrentHashMap<>());
+  }
+
+  @Override
+  public PermissionInfo get(String user) {
+    Entry entry = entries.get(user);
+    if (entry == null) {
+      return null;
+    }
+    if (System.nanoTime() - entry.expiresAt >= 0) {
+      entries.remove(user, entry);
+      return null;
+    }
+    return entry.permissions;
+  }
+
+  @Override
+  public void put(String user, PermissionInfo permissions, long ttlMillis) {
+    entries.put(user, new Entry(permissions, System.nanoTime() + ttlMillis * 1_000_000));
+  }
+
+  @Override
+  public void remove(String user) {
+    entries.remove(user);
+  }
+
+  @Override
+  public void clear() {
+    entries.clear();
+  }
+}
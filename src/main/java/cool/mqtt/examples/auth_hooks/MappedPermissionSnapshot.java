@@ -0,0 +1,584 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshot stored in a binary file, which is memory mapped and decoded lazily, user by user, so
+ * that opening it takes only the validation of its header, string table and user index.
+ * <p>
+ * The file is made of the following sections, with all the integers in big-endian order:
+ * <ul>
+ * <li>the header: magic number, format version, creation time, section sizes, user counts, the
+ * checksums of the string table and of the user index, and the checksum of the header itself;</li>
+ * <li>the string table, holding the broker addresses and the topic segments, each stored once: the
+ * offsets of the strings followed by their UTF-8 bytes;</li>
+ * <li>the user index: the hash code of every user name and the offset of the related record,
+ * sorted by hash code;</li>
+ * <li>the user records, each made of its checksum, its length and its content: user name, flags
+ * (which also tell whether all the configured brokers are granted), token, broker addresses, the
+ * nodes of the topic tries (see {@link TopicTrie#writeTo}), if the published messages are
+ * restricted, the maximum payload size, the mask of the allowed QoS levels and the retain
+ * permission, if any, the granted roles and, if known, the time the permissions were retrieved
+ * from the backend.</li>
+ * </ul>
+ * A record whose checksum does not match is treated as an unknown user, so that nothing is granted.
+ * As the file is mapped, it must be replaced by moving a new file over it, never rewritten in
+ * place.
+ */
+final class MappedPermissionSnapshot extends PermissionSnapshot {
+
+  /** Magic number, the ASCII string "MQAC" */
+  static final int MAGIC = 0x4D514143;
+
+  static final short FORMAT_VERSION = 1;
+
+  private static final int HEADER_SIZE = 48;
+
+  private static final int INDEX_ENTRY_SIZE = 8;
+
+  private static final int HAS_TOKEN = 1;
+
+  private static final int HAS_PERMISSIONS = 2;
+
+  private static final int ALL = 4;
+
+  private static final int CONFIGURED_BROKERS = 8;
+
+  /** Set if the policy is not unrestricted, which keeps the older records valid */
+  private static final int PUBLISH_POLICY = 16;
+
+  /** Set if roles were granted, stored last for the same reason */
+  private static final int ROLES = 32;
+
+  /** The record ends with the time the permissions were retrieved (warm-start files) */
+  private static final int FETCH_TIME = 64;
+
+  /** Decoded content of a user record */
+  private static final class Entry {
+
+    final String token;
+
+    final PermissionInfo permissions;
+
+    final long fetchTime;
+
+    Entry(String token, PermissionInfo permissions, long fetchTime) {
+      this.token = token;
+      this.permissions = permissions;
+      this.fetchTime = fetchTime;
+    }
+  }
+
+  private final ByteBuffer buffer;
+
+  /** Registry granted to the users with {@code CONFIGURED_BROKERS} */
+  private final BrokerRegistry configuredBrokers;
+
+  private final String[] strings;
+
+  private final int userCount;
+
+  private final int tokenCount;
+
+  private final int permissionCount;
+
+  private final int indexStart;
+
+  private final int recordsStart;
+
+  /** Users decoded so far; unknown users are not cached */
+  private final ConcurrentHashMap<String, Entry> decoded = new ConcurrentHashMap<>();
+
+  private final LongAdder corruptRecords = new LongAdder();
+
+  private MappedPermissionSnapshot(long version, ByteBuffer buffer,
+      BrokerRegistry configuredBrokers, String[] strings,
+      int userCount, int tokenCount, int permissionCount, int indexStart, int recordsStart) {
+
+    super(version, buffer.capacity());
+    this.buffer = buffer;
+    this.configuredBrokers = configuredBrokers;
+    this.strings = strings;
+    this.userCount = userCount;
+    this.tokenCount = tokenCount;
+    this.permissionCount = permissionCount;
+    this.indexStart = indexStart;
+    this.recordsStart = recordsStart;
+  }
+
+  /**
+   * Maps the specified file, validating its header, string table and user index.
+   *
+   * @param file the file
+   * @param version the version to assign to the snapshot
+   * @param configuredBrokers the registry of the configured brokers
+   * @return the snapshot
+   * @throws IOException if the file can't be read, or is not a valid snapshot
+   */
+  static MappedPermissionSnapshot open(Path file, long version,
+      BrokerRegistry configuredBrokers) throws IOException {
+
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Snapshot too large: " + file);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw corrupt(file, "not a permission snapshot");
+    }
+    if (buffer.getShort(4) != FORMAT_VERSION) {
+      throw corrupt(file, "unsupported format version " + buffer.getShort(4));
+    }
+    if (crc(buffer, 0, HEADER_SIZE - 4) != buffer.getInt(HEADER_SIZE - 4)) {
+      throw corrupt(file, "header checksum mismatch");
+    }
+
+    int stringCount = buffer.getInt(16);
+    int stringsLength = buffer.getInt(20);
+    int userCount = buffer.getInt(24);
+    int indexStart = HEADER_SIZE + stringsLength;
+    int recordsStart = indexStart + userCount * INDEX_ENTRY_SIZE;
+    if (stringCount < 0 || stringsLength < 4 * (stringCount + 1) || userCount < 0
+        || recordsStart < indexStart || recordsStart > buffer.capacity()) {
+      throw corrupt(file, "invalid section sizes");
+    }
+    if (crc(buffer, HEADER_SIZE, stringsLength) != buffer.getInt(36)) {
+      throw corrupt(file, "string table checksum mismatch");
+    }
+    if (crc(buffer, indexStart, recordsStart - indexStart) != buffer.getInt(40)) {
+      throw corrupt(file, "user index checksum mismatch");
+    }
+
+    // The string table is small, as every broker address and topic segment is stored once.
+    String[] strings = new String[stringCount];
+    int blobStart = HEADER_SIZE + 4 * (stringCount + 1);
+    for (int i = 0; i < stringCount; i++) {
+      int start = buffer.getInt(HEADER_SIZE + 4 * i);
+      int end = buffer.getInt(HEADER_SIZE + 4 * (i + 1));
+      if (start < 0 || end < start || blobStart + end > indexStart) {
+        throw corrupt(file, "invalid string table");
+      }
+      strings[i] = decodeString(buffer, blobStart + start, end - start);
+    }
+
+    return new MappedPermissionSnapshot(version, buffer, configuredBrokers, strings, userCount,
+        buffer.getInt(28), buffer.getInt(32), indexStart, recordsStart);
+  }
+
+  @Override
+  String getToken(String user) {
+    Entry entry = locate(user);
+    return (entry != null) ? entry.token : null;
+  }
+
+  @Override
+  PermissionInfo getPermissions(String user) {
+    Entry entry = locate(user);
+    return (entry != null) ? entry.permissions : null;
+  }
+
+  /**
+   * Returns the time the permissions of the specified user were retrieved from the backend, if
+   * recorded.
+   *
+   * @param user the user
+   * @return the time in milliseconds since the epoch, or 0 if unknown
+   */
+  long getFetchTime(String user) {
+    Entry entry = locate(user);
+    return (entry != null) ? entry.fetchTime : 0;
+  }
+
+  /**
+   * Returns the time the file was written.
+   *
+   * @return the time in milliseconds since the epoch
+   */
+  long getCreationTime() {
+    return buffer.getLong(8);
+  }
+
+  @Override
+  int getTokenCount() {
+    return tokenCount;
+  }
+
+  @Override
+  int getUserCount() {
+    return permissionCount;
+  }
+
+  /**
+   * Returns the number of records found corrupt so far.
+   *
+   * @return the number of corrupt records
+   */
+  long getCorruptRecords() {
+    return corruptRecords.sum();
+  }
+
+  @Override
+  void copyTo(Map<String, String> tokens, Map<String, PermissionInfo> permissions) {
+    for (int i = 0; i < userCount; i++) {
+      int offset = recordsStart + buffer.getInt(indexStart + i * INDEX_ENTRY_SIZE + 4);
+      String user = readName(offset);
+      Entry entry = (user != null) ? decode(offset, user) : null;
+      if (entry == null) {
+        continue;
+      }
+      if (entry.token != null) {
+        tokens.put(user, entry.token);
+      }
+      if (entry.permissions != null) {
+        permissions.put(user, entry.permissions);
+      }
+    }
+  }
+
+  private Entry locate(String user) {
+    Entry entry = decoded.get(user);
+    if (entry != null) {
+      return entry;
+    }
+
+    // Binary search of the first index entry with the same hash code.
+    int hash = user.hashCode();
+    int low = 0;
+    int high = userCount;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (buffer.getInt(indexStart + middle * INDEX_ENTRY_SIZE) < hash) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    for (int i = low; i < userCount; i++) {
+      int position = indexStart + i * INDEX_ENTRY_SIZE;
+      if (buffer.getInt(position) != hash) {
+        break;
+      }
+      int offset = recordsStart + buffer.getInt(position + 4);
+      if (user.equals(readName(offset))) {
+        entry = decode(offset, user);
+        if (entry != null) {
+          Entry previous = decoded.putIfAbsent(user, entry);
+          return (previous != null) ? previous : entry;
+        }
+        return null;
+      }
+    }
+    return null;
+  }
+
+  private String readName(int offset) {
+    try {
+      return decodeString(buffer, offset + 12, buffer.getInt(offset + 8));
+    } catch (RuntimeException e) {
+      corruptRecords.increment();
+      return null;
+    }
+  }
+
+  /**
+   * Decodes the record at the specified offset, after verifying its checksum.
+   *
+   * @return the decoded record, or {@code null} if corrupt
+   */
+  private Entry decode(int offset, String user) {
+    try {
+      int length = buffer.getInt(offset + 4);
+      if (crc(buffer, offset + 8, length) != buffer.getInt(offset)) {
+        corruptRecords.increment();
+        return null;
+      }
+
+      ByteBuffer record = buffer.duplicate();
+      record.position(offset + 8);
+      record.limit(offset + 8 + length);
+      int nameLength = record.getInt();
+      record.position(record.position() + nameLength);
+
+      int flags = record.get();
+      String token = null;
+      if ((flags & HAS_TOKEN) != 0) {
+        int tokenLength = record.getInt();
+        token = decodeString(record, record.position(), tokenLength);
+        record.position(record.position() + tokenLength);
+      }
+
+      PermissionInfo permissions = null;
+      if ((flags & ALL) != 0) {
+        permissions = DefaultPermissionInfo.AuthorizationBuilder.ALL;
+      } else if ((flags & HAS_PERMISSIONS) != 0) {
+        int brokerCount = record.getInt();
+        Set<String> brokers = new HashSet<>();
+        for (int i = 0; i < brokerCount; i++) {
+          brokers.add(strings[record.getInt()]);
+        }
+        TopicTrie subscribing = TopicTrie.readFrom(record, strings);
+        TopicTrie publishing = TopicTrie.readFrom(record, strings);
+        PublishPolicy publishPolicy = PublishPolicy.UNRESTRICTED;
+        if ((flags & PUBLISH_POLICY) != 0) {
+          int maxPayloadSize = record.getInt();
+          int allowedQos = record.get();
+          publishPolicy = PublishPolicy.of(maxPayloadSize, allowedQos, record.get() != 0);
+        }
+        Set<String> roles = new HashSet<>();
+        if ((flags & ROLES) != 0) {
+          int roleCount = record.getInt();
+          for (int i = 0; i < roleCount; i++) {
+            roles.add(strings[record.getInt()]);
+          }
+        }
+        permissions = DefaultPermissionInfo.AuthorizationBuilder.fromTries(brokers,
+            (flags & CONFIGURED_BROKERS) != 0 ? configuredBrokers : null, subscribing, publishing,
+            publishPolicy, roles);
+      }
+      long fetchTime = ((flags & FETCH_TIME) != 0) ? record.getLong() : 0;
+      return new Entry(token, permissions, fetchTime);
+    } catch (RuntimeException e) {
+      // Out of bounds offsets despite a matching checksum: the file was not written by us.
+      corruptRecords.increment();
+      return null;
+    }
+  }
+
+  /**
+   * Writes the specified snapshot to a new binary file, which then atomically replaces the target
+   * file, if any.
+   *
+   * @param snapshot the snapshot
+   * @param file the target file
+   * @throws IOException if the file can't be written
+   * @throws IllegalArgumentException if some permissions were not built by an
+   *         {@code AuthorizationBuilder}
+   */
+  static void write(PermissionSnapshot snapshot, Path file) throws IOException {
+    write(snapshot, file, null);
+  }
+
+  /**
+   * Writes the specified snapshot to a new binary file, along with the time the permissions of
+   * every user were retrieved, which then atomically replaces the target file, if any.
+   *
+   * @param snapshot the snapshot
+   * @param file the target file
+   * @param fetchTimes returns the time the permissions of a user were retrieved, or 0 if unknown;
+   *        {@code null} if no time is known
+   * @throws IOException if the file can't be written
+   * @throws IllegalArgumentException if some permissions were not built by an
+   *         {@code AuthorizationBuilder}
+   */
+  static void write(PermissionSnapshot snapshot, Path file, ToLongFunction<String> fetchTimes)
+      throws IOException {
+    Map<String, String> tokens = new HashMap<>();
+    Map<String, PermissionInfo> permissions = new HashMap<>();
+    snapshot.copyTo(tokens, permissions);
+
+    Set<String> userSet = new HashSet<>(tokens.keySet());
+    userSet.addAll(permissions.keySet());
+    List<String> users = new ArrayList<>(userSet);
+    users.sort(Comparator.comparingInt(String::hashCode));
+
+    // Strings are assigned an index as they are met while writing the records.
+    Map<String, Integer> stringIndexes = new LinkedHashMap<>();
+    ToIntFunction<String> stringIndex =
+        string -> stringIndexes.computeIfAbsent(string, key -> stringIndexes.size());
+
+    ByteArrayOutputStream index = new ByteArrayOutputStream(users.size() * INDEX_ENTRY_SIZE);
+    DataOutputStream indexOut = new DataOutputStream(index);
+    ByteArrayOutputStream records = new ByteArrayOutputStream();
+    DataOutputStream recordsOut = new DataOutputStream(records);
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    DataOutputStream recordOut = new DataOutputStream(record);
+    for (String user : users) {
+      record.reset();
+      writeString(recordOut, user);
+      String token = tokens.get(user);
+      PermissionInfo permissionInfo = permissions.get(user);
+      int flags = (token != null ? HAS_TOKEN : 0) | (permissionInfo != null ? HAS_PERMISSIONS : 0)
+          | (permissionInfo == DefaultPermissionInfo.AuthorizationBuilder.ALL ? ALL : 0);
+      if (permissionInfo instanceof DefaultPermissionInfo
+          && ((DefaultPermissionInfo) permissionInfo).getConfiguredBrokers() != null) {
+        flags |= CONFIGURED_BROKERS;
+      }
+      if (permissionInfo instanceof DefaultPermissionInfo
+          && permissionInfo.getPublishPolicy() != PublishPolicy.UNRESTRICTED) {
+        flags |= PUBLISH_POLICY;
+      }
+      if (permissionInfo instanceof DefaultPermissionInfo
+          && ((DefaultPermissionInfo) permissionInfo).getRoles().length > 0) {
+        flags |= ROLES;
+      }
+      long fetchTime = (fetchTimes != null) ? fetchTimes.applyAsLong(user) : 0;
+      if (fetchTime != 0) {
+        flags |= FETCH_TIME;
+      }
+      recordOut.writeByte(flags);
+      if (token != null) {
+        writeString(recordOut, token);
+      }
+      if ((flags & HAS_PERMISSIONS) != 0 && (flags & ALL) == 0) {
+        if (!(permissionInfo instanceof DefaultPermissionInfo)) {
+          throw new IllegalArgumentException("Permissions of user '" + user + "' can't be written");
+        }
+        DefaultPermissionInfo permission = (DefaultPermissionInfo) permissionInfo;
+        recordOut.writeInt(permission.getAllowedBrokers().size());
+        for (String broker : permission.getAllowedBrokers()) {
+          recordOut.writeInt(stringIndex.applyAsInt(broker));
+        }
+        permission.getAllowedTopicsForSubscribing().writeTo(recordOut, stringIndex);
+        permission.getAllowedTopicsForPublishing().writeTo(recordOut, stringIndex);
+        if ((flags & PUBLISH_POLICY) != 0) {
+          PublishPolicy publishPolicy = permission.getPublishPolicy();
+          recordOut.writeInt(publishPolicy.getMaxPayloadSize());
+          recordOut.writeByte(publishPolicy.getAllowedQos());
+          recordOut.writeByte(publishPolicy.isRetainAllowed() ? 1 : 0);
+        }
+        if ((flags & ROLES) != 0) {
+          String[] roles = permission.getRoles();
+          recordOut.writeInt(roles.length);
+          for (String role : roles) {
+            recordOut.writeInt(stringIndex.applyAsInt(role));
+          }
+        }
+      }
+      if ((flags & FETCH_TIME) != 0) {
+        recordOut.writeLong(fetchTime);
+      }
+      recordOut.flush();
+
+      indexOut.writeInt(user.hashCode());
+      indexOut.writeInt(recordsOut.size());
+      recordsOut.writeInt(crc(record.toByteArray()));
+      recordsOut.writeInt(record.size());
+      record.writeTo(recordsOut);
+    }
+    indexOut.flush();
+    recordsOut.flush();
+
+    ByteArrayOutputStream stringTable = new ByteArrayOutputStream();
+    DataOutputStream stringTableOut = new DataOutputStream(stringTable);
+    List<byte[]> encoded = new ArrayList<>(stringIndexes.size());
+    int offset = 0;
+    for (String string : stringIndexes.keySet()) {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      encoded.add(bytes);
+      stringTableOut.writeInt(offset);
+      offset += bytes.length;
+    }
+    stringTableOut.writeInt(offset);
+    for (byte[] bytes : encoded) {
+      stringTableOut.write(bytes);
+    }
+    stringTableOut.flush();
+
+    if ((long) HEADER_SIZE + stringTable.size() + index.size() + records.size()
+        > Integer.MAX_VALUE) {
+      throw new IOException("Snapshot too large");
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putShort(FORMAT_VERSION).putShort((short) 0)
+        .putLong(System.currentTimeMillis()).putInt(stringIndexes.size())
+        .putInt(stringTable.size()).putInt(users.size()).putInt(tokens.size())
+        .putInt(permissions.size()).putInt(crc(stringTable.toByteArray()))
+        .putInt(crc(index.toByteArray()));
+    header.putInt(crc(Arrays.copyOf(header.array(), HEADER_SIZE - 4)));
+
+    // Written aside and then moved, so that whoever maps the target file is not affected.
+    Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "snapshot", ".tmp");
+    try {
+      try (OutputStream out = Files.newOutputStream(temp)) {
+        out.write(header.array());
+        stringTable.writeTo(out);
+        index.writeTo(out);
+        records.writeTo(out);
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String decodeString(ByteBuffer buffer, int offset, int length) {
+    byte[] bytes = new byte[length];
+    ByteBuffer source = buffer.duplicate();
+    source.position(offset);
+    source.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int crc(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer region = buffer.duplicate();
+    region.position(offset);
+    region.limit(offset + length);
+    CRC32 crc = new CRC32();
+    crc.update(region);
+    return (int) crc.getValue();
+  }
+
+  private static int crc(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return (int) crc.getValue();
+  }
+
+  private static IOException corrupt(Path file, String reason) {
+    return new IOException("Invalid snapshot " + file + ": " + reason);
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gathers the keys submitted within a small time window (or until a maximum size is reached) and
+ * resolves them all through a single bulk request.
+ * <p>
+ * A key already waiting for a batch, or being resolved by a batch in flight, is not submitted
+ * twice: its pending future is shared instead, unless its batch was dispatched before an
+ * invalidation of the key.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+class MicroBatcher<K, V> {
+
+  /** The actual bulk request */
+  interface BulkRequest<K, V> {
+
+    /**
+     * Resolves the supplied keys.
+     *
+     * @param keys the keys
+     * @return the values of the resolved keys; keys with no value are resolved to {@code null}
+     */
+    Map<K, V> execute(List<K> keys) throws IOException;
+  }
+
+  /** A key waiting for a batch or in flight, with its invalidation epoch when submitted */
+  private static final class Entry<K, V> {
+
+    final K key;
+
+    final CompletableFuture<V> future = new CompletableFuture<>();
+
+    final long epoch;
+
+    /** Set once its batch has been dispatched */
+    volatile boolean dispatched;
+
+    Entry(K key, long epoch) {
+      this.key = key;
+      this.epoch = epoch;
+    }
+  }
+
+  /** Number of stripes of the invalidation epochs, a power of 2 */
+  private static final int EPOCH_STRIPES = 256;
+
+  private final BulkRequest<K, V> request;
+
+  private final int maxBatchSize;
+
+  private final long windowMillis;
+
+  /** Executor for timing the windows */
+  private final ScheduledExecutorService scheduler;
+
+  /** Executor for the bulk requests */
+  private final Executor executor;
+
+  /** The keys either queued or in flight */
+  private final ConcurrentHashMap<K, Entry<K, V>> pending = new ConcurrentHashMap<>();
+
+  /**
+   * Incremented by every invalidation of a key, striped by key: a collision only costs a lookup
+   * which could have been coalesced.
+   */
+  private final AtomicLongArray epochs = new AtomicLongArray(EPOCH_STRIPES);
+
+  /** Keys of the batch being gathered, guarded by this object */
+  private List<Entry<K, V>> queue = new ArrayList<>();
+
+  /** Identifies the batch being gathered, guarded by this object */
+  private long generation;
+
+  private final LongAdder batches = new LongAdder();
+
+  private final LongAdder submitted = new LongAdder();
+
+  private final LongAdder coalesced = new LongAdder();
+
+  MicroBatcher(BulkRequest<K, V> request, int maxBatchSize, long windowMillis,
+      ScheduledExecutorService scheduler, Executor executor) {
+
+    this.request = request;
+    this.maxBatchSize = Math.max(1, maxBatchSize);
+    this.windowMillis = windowMillis;
+    this.scheduler = scheduler;
+    this.executor = executor;
+  }
+
+  /**
+   * Submits the specified key for resolution in the next batch.
+   *
+   * @param key the key
+   * @return a future completed with the value of the key once its batch has been executed
+   */
+  CompletableFuture<V> submit(K key) {
+    submitted.increment();
+    Entry<K, V> created = new Entry<>(key, epochs.get(stripe(key)));
+    while (true) {
+      Entry<K, V> existing = pending.putIfAbsent(key, created);
+      if (existing == null) {
+        break;
+      }
+      // A key not dispatched yet is looked up after the invalidation anyway.
+      if (existing.epoch >= created.epoch || !existing.dispatched) {
+        coalesced.increment();
+        return existing.future;
+      }
+      if (pending.replace(key, existing, created)) {
+        break;
+      }
+    }
+
+    List<Entry<K, V>> full = null;
+    synchronized (this) {
+      queue.add(created);
+      if (queue.size() >= maxBatchSize) {
+        full = takeQueue();
+      } else if (queue.size() == 1) {
+        long current = generation;
+        try {
+          scheduler.schedule(() -> flush(current), windowMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+          // No window can be timed: dispatch at once, which fails if the executor is gone too.
+          full = takeQueue();
+        }
+      }
+    }
+    if (full != null) {
+      dispatch(full);
+    }
+    return created.future;
+  }
+
+  /**
+   * Prevents the submissions of the specified key made from now on from sharing a lookup already
+   * in flight, for instance because its outcome may have been revoked meanwhile.
+   *
+   * @param key the key
+   */
+  void invalidate(K key) {
+    epochs.incrementAndGet(stripe(key));
+  }
+
+  private static int stripe(Object key) {
+    return (key.hashCode() * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(EPOCH_STRIPES));
+  }
+
+  /**
+   * Fails the keys either queued or in flight, whose batches may never be executed once the
+   * executors have been shut down.
+   */
+  void abort() {
+    synchronized (this) {
+      takeQueue();
+    }
+    fail(new ArrayList<>(pending.values()), new RejectedExecutionException("Batcher shut down"));
+  }
+
+  private void flush(long expectedGeneration) {
+    List<Entry<K, V>> entries;
+    synchronized (this) {
+      if (generation != expectedGeneration || queue.isEmpty()) {
+        return; // Already dispatched because full
+      }
+      entries = takeQueue();
+    }
+    dispatch(entries);
+  }
+
+  /*
+   * To be invoked while holding the lock on this object.
+   */
+  private List<Entry<K, V>> takeQueue() {
+    List<Entry<K, V>> entries = queue;
+    queue = new ArrayList<>();
+    generation++;
+    return entries;
+  }
+
+  private void dispatch(List<Entry<K, V>> entries) {
+    batches.increment();
+    List<K> keys = new ArrayList<>(entries.size());
+    for (Entry<K, V> entry : entries) {
+      entry.dispatched = true;
+      keys.add(entry.key);
+    }
+    try {
+      executor.execute(() -> {
+        Map<K, V> values;
+        try {
+          values = request.execute(keys);
+        } catch (Exception e) {
+          fail(entries, e);
+          return;
+        }
+        entries.forEach(entry -> {
+          pending.remove(entry.key, entry);
+          entry.future.complete(values.get(entry.key));
+        });
+      });
+    } catch (RejectedExecutionException e) {
+      fail(entries, e);
+    }
+  }
+
+  private void fail(List<Entry<K, V>> entries, Exception e) {
+    entries.forEach(entry -> {
+      pending.remove(entry.key, entry);
+      entry.future.completeExceptionally(e);
+    });
+  }
+
+  long getBatches() {
+    return batches.sum();
+  }
+
+  long getSubmitted() {
+    return submitted.sum();
+  }
+
+  long getCoalesced() {
+    return coalesced.sum();
+  }
+}
@@ -0,0 +1,271 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Near cache of the permissions, for running {@link AuthHookWithAuthCache} on the nodes of a
+ * cluster: the permissions retrieved from the backend by a node are shared with the other nodes
+ * through a {@link DistributedPermissionStore}, so that every user is retrieved about once per
+ * cluster, and the revocations are broadcast through an {@link InvalidationBus}, so that they reach
+ * every node within the delivery delay of the bus.
+ * <p>
+ * The local caches keep working as before, the store only replaces the backend for the retrievals
+ * it can answer. When the permissions served by the backend change, and when a user is revoked,
+ * they are retrieved again from the backend, and the store is updated. Failures of the store are
+ * never fatal: the backend is used instead.
+ */
+final class NearCache implements NearCacheMXBean {
+
+  private static final Logger log = Logger.getLogger(NearCache.class.getName());
+
+  private final String nodeId;
+
+  private final DistributedPermissionStore store;
+
+  private final InvalidationBus bus;
+
+  /** Retrieves the permissions from the backend */
+  private final Function<String, CompletableFuture<PermissionInfo>> backend;
+
+  /** Runs the blocking lookups of the store */
+  private final Executor executor;
+
+  /** Time to live of the permissions in the store, bounding their staleness */
+  private final long ttlMillis;
+
+  /**
+   * Users whose retrievals have to bypass the store, until one of them succeeds, mapped to a
+   * marker telling apart the bypasses requested meanwhile
+   */
+  private final ConcurrentHashMap<String, Object> bypass = new ConcurrentHashMap<>();
+
+  private final LongAdder storeHits = new LongAdder();
+
+  private final LongAdder storeMisses = new LongAdder();
+
+  private final LongAdder storeFailures = new LongAdder();
+
+  private final LongAdder publishedInvalidations = new LongAdder();
+
+  private final LongAdder receivedInvalidations = new LongAdder();
+
+  /**
+   * Creates the near cache configured by the {@code cluster.*} settings.
+   *
+   * @param backend retrieves the permissions from the backend
+   * @param executor runs the blocking lookups of the store
+   * @param settings the Hook settings
+   */
+  NearCache(Function<String, CompletableFuture<PermissionInfo>> backend, Executor executor,
+      HookSettings settings) {
+
+    Map<String, String> clusterSettings = settings.getStrings("cluster.");
+    this.nodeId = settings.getString("cluster.node_id", UUID.randomUUID().toString());
+    this.store = newInstance(settings.getString("cluster.store", "loopback"),
+        DistributedPermissionStore.class, LoopbackPermissionStore.class, clusterSettings);
+    this.bus = newInstance(settings.getString("cluster.bus", "loopback"), InvalidationBus.class,
+        LoopbackInvalidationBus.class, clusterSettings);
+    this.backend = backend;
+    this.executor = executor;
+    this.ttlMillis = settings.getLong("cluster.store.ttl_millis", 60_000);
+  }
+
+  private static <T> T newInstance(String name, Class<T> type, Class<? extends T> loopback,
+      Map<String, String> settings) {
+
+    try {
+      Class<?> implementation = "loopback".equalsIgnoreCase(name) ? loopback : Class.forName(name);
+      return type.cast(implementation.getConstructor(Map.class).newInstance(settings));
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new IllegalArgumentException(
+          "Can't create the " + type.getSimpleName() + " '" + name + "'", e);
+    }
+  }
+
+  /**
+   * Relays the revocations made through the specified revocation support to the other nodes, and
+   * applies there the ones made on the other nodes.
+   *
+   * @param revocation the revocation support
+   */
+  void attach(SessionRevocation<?> revocation) {
+    revocation.setListener(this::publish);
+    bus.subscribe(invalidation -> {
+      receivedInvalidations.increment();
+      revocation.apply(invalidation);
+    });
+  }
+
+  /**
+   * Retrieves the permissions of the specified user from the store or, if not found there, from
+   * the backend, in which case they are stored.
+   *
+   * @param user the user
+   * @return a future completed with the permissions
+   */
+  CompletableFuture<PermissionInfo> load(String user) {
+    Object marker = bypass.get(user);
+    if (marker != null) {
+      // Kept until the backend answers, so that a retry doesn't fall back to the outdated store.
+      storeMisses.increment();
+      return fill(user).thenApply(permissions -> {
+        bypass.remove(user, marker);
+        return permissions;
+      });
+    }
+    return CompletableFuture.supplyAsync(() -> lookup(user), executor)
+        .thenCompose(shared -> (shared != null) ? CompletableFuture.completedFuture(shared)
+            : fill(user));
+  }
+
+  /**
+   * Makes the retrievals of the specified user bypass the store, until one of them succeeds, as
+   * the permissions stored may be outdated.
+   *
+   * @param user the user
+   */
+  void bypass(String user) {
+    bypass.put(user, new Object());
+  }
+
+  private PermissionInfo lookup(String user) {
+    try {
+      PermissionInfo permissions = store.get(user);
+      if (permissions != null) {
+        storeHits.increment();
+      } else {
+        storeMisses.increment();
+      }
+      return permissions;
+    } catch (IOException | RuntimeException e) {
+      storeFailures.increment();
+      log.log(Level.WARNING, "Can't look up the permissions of user '" + user + "'", e);
+      return null;
+    }
+  }
+
+  private CompletableFuture<PermissionInfo> fill(String user) {
+    return backend.apply(user).thenApply(permissions -> {
+      try {
+        store.put(user, permissions, ttlMillis);
+      } catch (IOException | RuntimeException e) {
+        storeFailures.increment();
+        log.log(Level.WARNING, "Can't store the permissions of user '" + user + "'", e);
+      }
+      return permissions;
+    });
+  }
+
+  /*
+   * The store is updated before publishing, so that the other nodes can't find there the
+   * permissions being revoked. Tokens don't change the permissions.
+   */
+  private void publish(Invalidation invalidation) {
+    try {
+      switch (invalidation.getScope()) {
+        case USER:
+          store.remove(invalidation.getSubject());
+          break;
+
+        case ROLE:
+          // Users are not stored by role.
+          store.clear();
+          break;
+
+        default:
+          break;
+      }
+    } catch (IOException | RuntimeException e) {
+      storeFailures.increment();
+      log.log(Level.WARNING, "Can't update the store upon revoking " + invalidation, e);
+    }
+    try {
+      bus.publish(invalidation);
+      publishedInvalidations.increment();
+    } catch (IOException | RuntimeException e) {
+      log.log(Level.WARNING, "Can't publish the revocation of " + invalidation, e);
+    }
+  }
+
+  /**
+   * Adds the counters to the specified metrics.
+   *
+   * @param metrics the metrics
+   */
+  void addTo(HookMetrics metrics) {
+    metrics.addCounter("near_cache_store_hits",
+        "Retrievals answered by the distributed store.", this::getStoreHits);
+    metrics.addCounter("near_cache_store_misses",
+        "Retrievals not answered by the distributed store.", this::getStoreMisses);
+    metrics.addCounter("near_cache_store_failures",
+        "Failed operations on the distributed store.", this::getStoreFailures);
+    metrics.addCounter("near_cache_published_invalidations",
+        "Revocations published to the other nodes.", this::getPublishedInvalidations);
+    metrics.addCounter("near_cache_received_invalidations",
+        "Revocations received from the other nodes.", this::getReceivedInvalidations);
+  }
+
+  /**
+   * Disconnects from the store and the bus.
+   */
+  void close() {
+    bus.close();
+    store.close();
+  }
+
+  @Override
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  @Override
+  public long getStoreHits() {
+    return storeHits.sum();
+  }
+
+  @Override
+  public long getStoreMisses() {
+    return storeMisses.sum();
+  }
+
+  @Override
+  public long getStoreFailures() {
+    return storeFailures.sum();
+  }
+
+  @Override
+  public long getPublishedInvalidations() {
+    return publishedInvalidations.sum();
+  }
+
+  @Override
+  public long getReceivedInvalidations() {
+    return receivedInvalidations.sum();
+  }
+}
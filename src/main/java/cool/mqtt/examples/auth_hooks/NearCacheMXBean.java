@@ -0,0 +1,68 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+/**
+ * Management interface of the near cache of {@link AuthHookWithAuthCache}, which shares the
+ * retrieved permissions and the revocations with the other nodes of the cluster.
+ */
+public interface NearCacheMXBean {
+
+  /**
+   * Returns the id of this node.
+   *
+   * @return the node id
+   */
+  String getNodeId();
+
+  /**
+   * Returns the number of retrievals answered by the distributed store.
+   *
+   * @return the number of hits
+   */
+  long getStoreHits();
+
+  /**
+   * Returns the number of retrievals not found in the distributed store, or which bypassed it.
+   *
+   * @return the number of misses
+   */
+  long getStoreMisses();
+
+  /**
+   * Returns the number of failed operations on the distributed store, which is then bypassed.
+   *
+   * @return the number of failures
+   */
+  long getStoreFailures();
+
+  /**
+   * Returns the number of invalidations published to the other nodes.
+   *
+   * @return the number of published invalidations
+   */
+  long getPublishedInvalidations();
+
+  /**
+   * Returns the number of invalidations received from the other nodes.
+   *
+   * @return the number of received invalidations
+   */
+  long getReceivedInvalidations();
+
+}
@@ -31,9 +31,9 @@ public interface PermissionInfo {
   boolean allowConnectionTo(String broker);
 
   /**
-   * Asks whether the permission to subscribe to the specified topic is authorized.
+   * Asks whether the permission to subscribe to the specified topic filter is authorized.
    *
-   * @param topic the topic to subscribe to
+   * @param topic the topic filter to subscribe to, which may contain wildcards
    * @return {@code true} if permission is authorized, {@code false} otherwise
    */
   boolean allowSubscribeTo(String topic);
@@ -46,4 +46,23 @@ public interface PermissionInfo {
    */
   boolean allowPublishTo(String topic);
 
+  /**
+   * Returns the restrictions on the messages published to the allowed topics.
+   *
+   * @return the policy, unrestricted by default
+   */
+  default PublishPolicy getPublishPolicy() {
+    return PublishPolicy.UNRESTRICTED;
+  }
+
+  /**
+   * Asks whether these permissions include the ones of the specified role.
+   *
+   * @param role the name of the role
+   * @return {@code true} if the role was granted, {@code false} otherwise (by default)
+   */
+  default boolean hasRole(String role) {
+    return false;
+  }
+
 }
@@ -0,0 +1,224 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Pool of canonical permissions, so that users granted the same permissions (typically, through
+ * the same roles) share a single immutable instance, along with its broker set and topic tries.
+ * Heap use then grows with the number of distinct permission sets rather than with the number of
+ * users.
+ * <p>
+ * Permissions are hash-consed on their {@link Definition}, that is on what they grant (and through
+ * which roles) rather than on how it was compiled. The pool only holds them weakly: those no
+ * longer referenced by any snapshot or cache are dropped, along with their definitions, on the
+ * next interning. The strings of the definitions are interned as well, and also weakly held.
+ */
+final class PermissionInterner {
+
+  /** The pool shared by all the backends */
+  static final PermissionInterner SHARED = new PermissionInterner();
+
+  /**
+   * Value of a set of permissions: what it grants, as opposed to the tries it is compiled into. The
+   * topic filters are kept as sorted arrays, which take far less space than sets.
+   */
+  static final class Definition {
+
+    private static final String[] NONE = new String[0];
+
+    final Set<String> brokers;
+
+    final BrokerRegistry configuredBrokers;
+
+    final String[] subscribeFilters;
+
+    final String[] publishFilters;
+
+    final PublishPolicy publishPolicy;
+
+    /** Names of the granted roles, sorted */
+    final String[] roles;
+
+    private final int hash;
+
+    /**
+     * Creates a definition which refers to the specified broker set, without copying it: it can
+     * only be used to look up the pool while the set is unchanged.
+     *
+     * @param brokers the contactable broker addresses
+     * @param configuredBrokers the configured brokers, if all contactable, or {@code null}
+     * @param subscribeFilters the subscribable topic filters
+     * @param publishFilters the topic filters allowed for publishing
+     * @param publishPolicy the restrictions on the published messages
+     * @param roles the names of the granted roles
+     */
+    Definition(Set<String> brokers, BrokerRegistry configuredBrokers,
+        Set<String> subscribeFilters, Set<String> publishFilters, PublishPolicy publishPolicy,
+        Set<String> roles) {
+
+      this(brokers, configuredBrokers, sorted(subscribeFilters), sorted(publishFilters),
+          publishPolicy, sorted(roles));
+    }
+
+    private Definition(Set<String> brokers, BrokerRegistry configuredBrokers,
+        String[] subscribeFilters, String[] publishFilters, PublishPolicy publishPolicy,
+        String[] roles) {
+
+      this.brokers = brokers;
+      this.configuredBrokers = configuredBrokers;
+      this.subscribeFilters = subscribeFilters;
+      this.publishFilters = publishFilters;
+      this.publishPolicy = publishPolicy;
+      this.roles = roles;
+      int hash = brokers.hashCode();
+      hash = hash * 31 + System.identityHashCode(configuredBrokers);
+      hash = hash * 31 + Arrays.hashCode(subscribeFilters);
+      hash = hash * 31 + Arrays.hashCode(publishFilters);
+      hash = hash * 31 + Arrays.hashCode(roles);
+      this.hash = hash * 31 + publishPolicy.hashCode();
+    }
+
+    private static String[] sorted(Set<String> filters) {
+      if (filters.isEmpty()) {
+        return NONE;
+      }
+      String[] sorted = filters.toArray(new String[filters.size()]);
+      Arrays.sort(sorted);
+      return sorted;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Definition)) {
+        return false;
+      }
+      Definition other = (Definition) obj;
+      return hash == other.hash && configuredBrokers == other.configuredBrokers
+          && publishPolicy.equals(other.publishPolicy) && brokers.equals(other.brokers)
+          && Arrays.equals(subscribeFilters, other.subscribeFilters)
+          && Arrays.equals(publishFilters, other.publishFilters)
+          && Arrays.equals(roles, other.roles);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /** Weak reference to pooled permissions, which remembers the key to be purged */
+  private static final class Entry extends WeakReference<PermissionInfo> {
+
+    final Definition definition;
+
+    Entry(PermissionInfo permissions, Definition definition,
+        ReferenceQueue<PermissionInfo> queue) {
+
+      super(permissions, queue);
+      this.definition = definition;
+    }
+  }
+
+  private final ConcurrentHashMap<Definition, Entry> pool = new ConcurrentHashMap<>();
+
+  private final ReferenceQueue<PermissionInfo> collected = new ReferenceQueue<>();
+
+  private final WeakInterner strings = new WeakInterner();
+
+  /**
+   * Returns the canonical permissions with the specified definition, creating them the first time.
+   *
+   * @param definition the definition, whose sets may be changed afterwards
+   * @param factory the function creating the permissions from the frozen copy of the definition
+   * @return the canonical permissions
+   */
+  PermissionInfo intern(Definition definition, Function<Definition, PermissionInfo> factory) {
+    purge();
+    PermissionInfo permissions = get(pool.get(definition));
+    if (permissions != null) {
+      return permissions;
+    }
+
+    Definition frozen = freeze(definition);
+    PermissionInfo created = factory.apply(frozen);
+    Entry entry = pool.compute(frozen, (key, current) -> (get(current) != null) ? current
+        : new Entry(created, frozen, collected));
+    // Resolves a racing creation, keeping the instance pooled first.
+    permissions = entry.get();
+    return (permissions != null) ? permissions : created;
+  }
+
+  /**
+   * Returns the number of distinct permissions currently pooled.
+   *
+   * @return the number of permissions
+   */
+  int size() {
+    purge();
+    return pool.size();
+  }
+
+  private static PermissionInfo get(Entry entry) {
+    return (entry != null) ? entry.get() : null;
+  }
+
+  private Definition freeze(Definition definition) {
+    Set<String> brokers = Collections.emptySet();
+    if (!definition.brokers.isEmpty()) {
+      brokers = new HashSet<>(definition.brokers.size() * 4 / 3 + 1);
+      for (String broker : definition.brokers) {
+        brokers.add(intern(broker));
+      }
+      brokers = Collections.unmodifiableSet(brokers);
+    }
+    return new Definition(brokers, definition.configuredBrokers,
+        freeze(definition.subscribeFilters), freeze(definition.publishFilters),
+        definition.publishPolicy, freeze(definition.roles));
+  }
+
+  private String[] freeze(String[] strings) {
+    // The array of the probe is never shared, so it can be kept.
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = intern(strings[i]);
+    }
+    return strings;
+  }
+
+  private String intern(String string) {
+    return strings.intern(string);
+  }
+
+  private void purge() {
+    Entry entry;
+    while ((entry = (Entry) collected.poll()) != null) {
+      pool.remove(entry.definition, entry);
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the tokens and permissions of all the users, whose permissions are fully
+ * built (that is, topic filters are already compiled into tries) before the snapshot is published.
+ */
+abstract class PermissionSnapshot {
+
+  /** Snapshot with no users at all */
+  static final PermissionSnapshot EMPTY = new Builder().build(0, 0);
+
+  private final long version;
+
+  /** Size in bytes of the source the snapshot was loaded from, or 0 if not loaded from a file */
+  private final long sourceBytes;
+
+  PermissionSnapshot(long version, long sourceBytes) {
+    this.version = version;
+    this.sourceBytes = sourceBytes;
+  }
+
+  /**
+   * Returns the version of this snapshot, which increases every time a new snapshot is published.
+   *
+   * @return the version
+   */
+  final long getVersion() {
+    return version;
+  }
+
+  final long getSourceBytes() {
+    return sourceBytes;
+  }
+
+  /**
+   * Returns the token of the specified user.
+   *
+   * @param user the user
+   * @return the token, or {@code null} if the user can't open any session
+   */
+  abstract String getToken(String user);
+
+  /**
+   * Returns the permissions of the specified user.
+   *
+   * @param user the user
+   * @return the permissions, or {@code null} if the user is unknown
+   */
+  abstract PermissionInfo getPermissions(String user);
+
+  abstract int getTokenCount();
+
+  abstract int getUserCount();
+
+  /**
+   * Returns the roles, that is the named permissions the users of the source were granted, which
+   * further updates may grant as well.
+   *
+   * @return the permissions by role name, empty unless the source defines roles
+   */
+  Map<String, PermissionInfo> getRoles() {
+    return Collections.emptyMap();
+  }
+
+  /**
+   * Copies the whole content of this snapshot into the specified maps.
+   *
+   * @param tokens the map of the tokens
+   * @param permissions the map of the permissions
+   */
+  abstract void copyTo(Map<String, String> tokens, Map<String, PermissionInfo> permissions);
+
+  /** Snapshot held in memory, as built by a {@code Builder} */
+  private static final class InMemory extends PermissionSnapshot {
+
+    private final Map<String, String> tokens;
+
+    private final Map<String, PermissionInfo> permissions;
+
+    private final Map<String, PermissionInfo> roles;
+
+    InMemory(long version, Map<String, String> tokens, Map<String, PermissionInfo> permissions,
+        Map<String, PermissionInfo> roles, long sourceBytes) {
+
+      super(version, sourceBytes);
+      this.tokens = tokens;
+      this.permissions = permissions;
+      this.roles = roles;
+    }
+
+    @Override
+    String getToken(String user) {
+      return tokens.get(user);
+    }
+
+    @Override
+    PermissionInfo getPermissions(String user) {
+      return permissions.get(user);
+    }
+
+    @Override
+    int getTokenCount() {
+      return tokens.size();
+    }
+
+    @Override
+    int getUserCount() {
+      return permissions.size();
+    }
+
+    @Override
+    Map<String, PermissionInfo> getRoles() {
+      return roles;
+    }
+
+    @Override
+    void copyTo(Map<String, String> tokens, Map<String, PermissionInfo> permissions) {
+      tokens.putAll(this.tokens);
+      permissions.putAll(this.permissions);
+    }
+  }
+
+  /** Builder of a new snapshot, not thread safe */
+  static final class Builder {
+
+    private final Map<String, String> tokens;
+
+    private final Map<String, PermissionInfo> permissions;
+
+    private final Map<String, PermissionInfo> roles;
+
+    Builder() {
+      this.tokens = new HashMap<>();
+      this.permissions = new HashMap<>();
+      this.roles = new HashMap<>();
+    }
+
+    /**
+     * Creates a builder starting from the content of the specified snapshot. Only the references to
+     * the permissions are copied: those of the users not updated are shared by both snapshots.
+     *
+     * @param base the snapshot to start from
+     */
+    Builder(PermissionSnapshot base) {
+      this();
+      base.copyTo(tokens, permissions);
+      roles.putAll(base.getRoles());
+    }
+
+    PermissionInfo getPermissions(String user) {
+      return permissions.get(user);
+    }
+
+    PermissionInfo getRole(String role) {
+      return roles.get(role);
+    }
+
+    Builder withRole(String role, PermissionInfo permissionInfo) {
+      roles.put(role, permissionInfo);
+      return this;
+    }
+
+    Builder withToken(String user, String token) {
+      tokens.put(user, token);
+      return this;
+    }
+
+    Builder withPermissions(String user, PermissionInfo permissionInfo) {
+      permissions.put(user, permissionInfo);
+      return this;
+    }
+
+    Builder withoutToken(String user) {
+      tokens.remove(user);
+      return this;
+    }
+
+    Builder withoutPermissions(String user) {
+      permissions.remove(user);
+      return this;
+    }
+
+    /**
+     * Builds the snapshot; the version is assigned by the store publishing it. The builder can't be
+     * used any longer, as the snapshot takes over its content.
+     *
+     * @param version the version of the snapshot
+     * @param sourceBytes the size of the source, or 0 if not loaded from a file
+     * @return the snapshot
+     */
+    PermissionSnapshot build(long version, long sourceBytes) {
+      return new InMemory(version, Collections.unmodifiableMap(tokens),
+          Collections.unmodifiableMap(permissions), Collections.unmodifiableMap(roles),
+          sourceBytes);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Service Provider Interface for retrieving the permissions granted to users.
+ */
+public interface PermissionSource {
+
+  /**
+   * Retrieves the permissions granted to the specified user.
+   *
+   * @param user the user
+   * @return the permissions, or {@code null} if the user is unknown
+   * @throws IOException if the permission service could not be contacted
+   */
+  PermissionInfo getPermissions(String user) throws IOException;
+
+  /**
+   * Retrieves the permissions granted to many users at once. The default implementation retrieves
+   * them one by one, backends supporting bulk requests should override it.
+   *
+   * @param users the users
+   * @return the permissions of every known user among the supplied ones
+   * @throws IOException if the permission service could not be contacted
+   */
+  default Map<String, PermissionInfo> getAllPermissions(Collection<String> users)
+      throws IOException {
+
+    Map<String, PermissionInfo> results = new HashMap<>();
+    for (String user : users) {
+      PermissionInfo permissions = getPermissions(user);
+      if (permissions != null) {
+        results.put(user, permissions);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Retrieves the permissions granted to the specified user without blocking the calling thread.
+   * The default implementation runs {@link #getPermissions(String)} on the supplied executor.
+   *
+   * @param user the user
+   * @param executor the executor for blocking retrievals
+   * @return a future completed with the permissions, or with {@code null} if the user is unknown,
+   *         or exceptionally if the retrieval failed or the executor rejected it
+   */
+  default CompletableFuture<PermissionInfo> getPermissionsAsync(String user, Executor executor) {
+    try {
+      return CompletableFuture.supplyAsync(() -> {
+        try {
+          return getPermissions(user);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }, executor);
+    } catch (RejectedExecutionException e) {
+      CompletableFuture<PermissionInfo> rejected = new CompletableFuture<>();
+      rejected.completeExceptionally(e);
+      return rejected;
+    }
+  }
+
+  /**
+   * Returns the version of the permissions currently served, which changes whenever they may have
+   * changed, so that callers holding permissions retrieved earlier know they have to retrieve them
+   * again. The default implementation always returns 0, suitable for sources whose permissions are
+   * not cached by the caller beyond their lifetime.
+   *
+   * @return the version of the permissions
+   */
+  default long getVersion() {
+    return 0;
+  }
+
+  /**
+   * Tells whether {@link #getVersion()} changes whenever the permissions served change, so that
+   * callers can keep the permissions retrieved until then. The default implementation returns
+   * {@code false}, in which case callers keep them no longer than a time to live.
+   *
+   * @return {@code true} if the version tracks every change of the permissions
+   */
+  default boolean isVersioned() {
+    return false;
+  }
+
+}
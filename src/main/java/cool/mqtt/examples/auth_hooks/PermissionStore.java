@@ -0,0 +1,463 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Backend holding the tokens and permissions of all the users in memory, loaded from a JSON file
+ * like the following:
+ *
+ * <pre>
+ * {
+ *   "roles": {
+ *     "device": {"all_brokers": true, "publish": ["topics/topic_4"]}
+ *   },
+ *   "users": {
+ *     "user1": {
+ *       "token": "ikgdfigdfhihdsih",
+ *       "permissions": {"roles": ["device"], "subscribe": ["topics/topic_1"]}
+ *     }
+ *   }
+ * }
+ * </pre>
+ *
+ * where permissions are represented as described in {@link JsonPermissions}, and the optional
+ * roles are named permissions which the users (and the roles defined after them) can be granted
+ * by name, so that the users of the same roles share the same permissions; files whose name ends
+ * with {@code .jsonl} are streamed instead, in the format described in
+ * {@link StreamingPermissionLoader}, and files whose name ends with {@code .snapshot} are mapped
+ * as described in {@link MappedPermissionSnapshot}. Delta files in the same format, found in the
+ * optional delta directory, are applied in name order on top of the file, as soon as they appear.
+ *
+ * <p>The whole content is kept in an immutable {@link PermissionSnapshot}, which every lookup
+ * reaches through a single volatile read. The file is reloaded when modified (or on demand), and
+ * new snapshots can also be pushed through {@link #update(PermissionSnapshot.Builder)}: in all
+ * cases the next snapshot is fully built aside and then swapped atomically, so that lookups never
+ * block nor see a partial update. A failed reload keeps the current snapshot.
+ */
+class PermissionStore implements TokenValidator, PermissionSource, PermissionStoreMXBean {
+
+  /** Registry of the configured brokers, granted by {@code "all_brokers"} */
+  private final BrokerRegistry configuredBrokers;
+
+  /** The permission file, or {@code null} if snapshots are only pushed */
+  private final Path file;
+
+  /** The current snapshot */
+  private volatile PermissionSnapshot snapshot = PermissionSnapshot.EMPTY;
+
+  /** Directory of the delta files, or {@code null} if deltas are not enabled */
+  private final Path deltaDir;
+
+  /** Names of the delta files applied since the last full load, guarded by reloadLock */
+  private final Set<String> appliedDeltas = new HashSet<>();
+
+  /** Serializes the writers, so that versions are assigned in publication order */
+  private final Object reloadLock = new Object();
+
+  /** Modification time of the file when last loaded, guarded by reloadLock */
+  private FileTime lastModified;
+
+  /** Notified of every new snapshot, on the thread which published it */
+  private final List<Consumer<PermissionSnapshot>> listeners = new CopyOnWriteArrayList<>();
+
+  /** Single thread checking the file for modifications, if enabled */
+  private final ScheduledExecutorService watcher;
+
+  private final LongAdder reloadCount = new LongAdder();
+
+  private final LongAdder reloadFailures = new LongAdder();
+
+  private volatile long lastReloadMicros;
+
+  private volatile String lastReloadError;
+
+  PermissionStore(BrokerRegistry configuredBrokers, HookSettings settings) {
+    this(configuredBrokers, settings.getPath("backend.file.path", "authorizations.json"),
+        settings.getString("backend.file.delta_dir", "").isEmpty() ? null
+            : settings.getPath("backend.file.delta_dir", null),
+        settings.getLong("backend.file.reload_interval_millis", 5000));
+  }
+
+  /**
+   * Creates the store and loads the file, if any.
+   *
+   * @param configuredBrokers the registry of the configured brokers
+   * @param file the permission file, or {@code null} if snapshots are only pushed
+   * @param deltaDir the directory of the delta files, or {@code null} if not enabled
+   * @param reloadIntervalMillis the interval between checks for modifications of the file, or 0 to
+   *        reload it only on demand
+   */
+  PermissionStore(BrokerRegistry configuredBrokers, Path file, Path deltaDir,
+      long reloadIntervalMillis) {
+
+    this.configuredBrokers = configuredBrokers;
+    this.file = file;
+    this.deltaDir = (file != null) ? deltaDir : null;
+    if (file == null) {
+      this.watcher = null;
+      return;
+    }
+
+    try {
+      load();
+    } catch (IOException e) {
+      throw new RuntimeException("Can't load permissions from " + file, e);
+    }
+
+    if (reloadIntervalMillis > 0) {
+      this.watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "PermissionStore-Watcher");
+        thread.setDaemon(true);
+        return thread;
+      });
+      watcher.scheduleWithFixedDelay(this::reloadIfModified, reloadIntervalMillis,
+          reloadIntervalMillis, TimeUnit.MILLISECONDS);
+    } else {
+      this.watcher = null;
+    }
+  }
+
+  @Override
+  public boolean isValid(String user, String token) {
+    String correctToken = snapshot.getToken(user);
+    return (correctToken != null) && correctToken.equals(token);
+  }
+
+  @Override
+  public PermissionInfo getPermissions(String user) {
+    return snapshot.getPermissions(user);
+  }
+
+  @Override
+  public CompletableFuture<PermissionInfo> getPermissionsAsync(String user, Executor executor) {
+    // A lookup never blocks, so there is no need to hand it over to another thread.
+    return CompletableFuture.completedFuture(getPermissions(user));
+  }
+
+  @Override
+  public long getVersion() {
+    return snapshot.getVersion();
+  }
+
+  @Override
+  public boolean isVersioned() {
+    return true;
+  }
+
+  /**
+   * Publishes a new snapshot, built from the supplied builder, replacing the current one.
+   *
+   * @param builder the builder of the new snapshot
+   */
+  void update(PermissionSnapshot.Builder builder) {
+    synchronized (reloadLock) {
+      publish(builder.build(snapshot.getVersion() + 1, 0));
+    }
+  }
+
+  /**
+   * Returns the current snapshot.
+   *
+   * @return the snapshot
+   */
+  PermissionSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Registers a listener notified of every new snapshot.
+   *
+   * @param listener the listener
+   */
+  void addListener(Consumer<PermissionSnapshot> listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public boolean reload() {
+    if (file == null) {
+      return false;
+    }
+    try {
+      load();
+      return true;
+    } catch (IOException | RuntimeException e) {
+      reloadFailures.increment();
+      lastReloadError = e.toString();
+      return false;
+    }
+  }
+
+  /**
+   * Releases the thread checking the file.
+   */
+  void shutdown() {
+    if (watcher != null) {
+      watcher.shutdownNow();
+    }
+  }
+
+  private void reloadIfModified() {
+    FileTime modified;
+    try {
+      modified = Files.getLastModifiedTime(file);
+    } catch (IOException e) {
+      // The file may be missing while being replaced, we'll check again later.
+      return;
+    }
+    synchronized (reloadLock) {
+      if (modified.equals(lastModified)) {
+        try {
+          applyDeltas();
+        } catch (IOException | RuntimeException e) {
+          // The previous snapshot is kept, the deltas will be retried along with any new one.
+          reloadFailures.increment();
+          lastReloadError = e.toString();
+        }
+        return;
+      }
+    }
+    reload();
+  }
+
+  private void load() throws IOException {
+    synchronized (reloadLock) {
+      long start = System.nanoTime();
+      FileTime modified = Files.getLastModifiedTime(file);
+      long version = snapshot.getVersion() + 1;
+      List<Path> deltas = listDeltas(Collections.emptySet());
+      String name = file.getFileName().toString();
+
+      PermissionSnapshot next;
+      if (name.endsWith(".snapshot") && deltas.isEmpty()) {
+        // Users are decoded lazily, as they are looked up.
+        next = MappedPermissionSnapshot.open(file, version, configuredBrokers);
+      } else {
+        PermissionSnapshot.Builder builder;
+        if (name.endsWith(".snapshot")) {
+          // Deltas can't be applied to the binary file, which is then fully decoded.
+          builder = new PermissionSnapshot.Builder(
+              MappedPermissionSnapshot.open(file, version, configuredBrokers));
+        } else if (name.endsWith(".jsonl")) {
+          builder = new PermissionSnapshot.Builder();
+          new StreamingPermissionLoader(configuredBrokers, builder).read(file, false);
+        } else {
+          builder = new PermissionSnapshot.Builder();
+          try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            decode(Json.parse(reader), builder);
+          }
+        }
+        long sourceBytes = Files.size(file);
+
+        // All the deltas are applied on top of the file before the snapshot is published.
+        for (Path delta : deltas) {
+          new StreamingPermissionLoader(configuredBrokers, builder).read(delta, true);
+          sourceBytes += Files.size(delta);
+        }
+        next = builder.build(version, sourceBytes);
+      }
+
+      publish(next);
+      lastModified = modified;
+      appliedDeltas.clear();
+      deltas.forEach(delta -> appliedDeltas.add(delta.getFileName().toString()));
+      lastReloadMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+      reloadCount.increment();
+    }
+  }
+
+  /**
+   * Applies the delta files not applied yet, touching only the users they list.
+   *
+   * @throws IOException if a delta can't be read or contains an invalid line
+   */
+  private void applyDeltas() throws IOException {
+    synchronized (reloadLock) {
+      List<Path> deltas = listDeltas(appliedDeltas);
+      if (deltas.isEmpty()) {
+        return;
+      }
+
+      long start = System.nanoTime();
+      PermissionSnapshot current = snapshot;
+      PermissionSnapshot.Builder builder = new PermissionSnapshot.Builder(current);
+      long sourceBytes = current.getSourceBytes();
+      for (Path delta : deltas) {
+        new StreamingPermissionLoader(configuredBrokers, builder).read(delta, true);
+        sourceBytes += Files.size(delta);
+      }
+
+      publish(builder.build(current.getVersion() + 1, sourceBytes));
+      deltas.forEach(delta -> appliedDeltas.add(delta.getFileName().toString()));
+      lastReloadMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+      reloadCount.increment();
+    }
+  }
+
+  /**
+   * Lists the delta files in name order.
+   *
+   * @param excluded the names of the files to exclude
+   * @return the delta files
+   */
+  private List<Path> listDeltas(Set<String> excluded) throws IOException {
+    if (deltaDir == null || !Files.isDirectory(deltaDir)) {
+      return Collections.emptyList();
+    }
+    List<Path> deltas = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(deltaDir, "*.jsonl")) {
+      for (Path delta : stream) {
+        if (!excluded.contains(delta.getFileName().toString())) {
+          deltas.add(delta);
+        }
+      }
+    }
+    deltas.sort(Comparator.comparing(delta -> delta.getFileName().toString()));
+    return deltas;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void decode(Object document, PermissionSnapshot.Builder builder) throws IOException {
+    Object users = (document instanceof Map) ? ((Map<String, Object>) document).get("users") : null;
+    if (!(users instanceof Map)) {
+      throw new IOException("Object expected for 'users'");
+    }
+
+    Object roles = ((Map<String, Object>) document).get("roles");
+    if (roles != null && !(roles instanceof Map)) {
+      throw new IOException("Object expected for 'roles'");
+    }
+    if (roles != null) {
+      for (Map.Entry<String, Object> entry : ((Map<String, Object>) roles).entrySet()) {
+        if (!(entry.getValue() instanceof Map)) {
+          throw new IOException("Object expected for role '" + entry.getKey() + "'");
+        }
+        builder.withRole(entry.getKey(), JsonPermissions.decode(
+            (Map<String, Object>) entry.getValue(), configuredBrokers, builder::getRole));
+      }
+    }
+
+    for (Map.Entry<String, Object> entry : ((Map<String, Object>) users).entrySet()) {
+      if (!(entry.getValue() instanceof Map)) {
+        throw new IOException("Object expected for user '" + entry.getKey() + "'");
+      }
+      Map<String, Object> user = (Map<String, Object>) entry.getValue();
+
+      // A user with no token can't open any session, with no permissions can't do anything.
+      Object token = user.get("token");
+      if (token instanceof String) {
+        builder.withToken(entry.getKey(), (String) token);
+      }
+      Object permissions = user.get("permissions");
+      if (permissions instanceof Map) {
+        builder.withPermissions(entry.getKey(),
+            JsonPermissions.decode((Map<String, Object>) permissions, configuredBrokers,
+                builder::getRole));
+      }
+    }
+  }
+
+  private void publish(PermissionSnapshot next) {
+    snapshot = next;
+    for (Consumer<PermissionSnapshot> listener : listeners) {
+      listener.accept(next);
+    }
+  }
+
+  @Override
+  public int getUserCount() {
+    return snapshot.getUserCount();
+  }
+
+  @Override
+  public int getTokenCount() {
+    return snapshot.getTokenCount();
+  }
+
+  @Override
+  public int getRoleCount() {
+    return snapshot.getRoles().size();
+  }
+
+  @Override
+  public int getDistinctPermissionCount() {
+    return PermissionInterner.SHARED.size();
+  }
+
+  @Override
+  public long getSourceBytes() {
+    return snapshot.getSourceBytes();
+  }
+
+  @Override
+  public int getAppliedDeltas() {
+    synchronized (reloadLock) {
+      return appliedDeltas.size();
+    }
+  }
+
+  @Override
+  public long getCorruptRecords() {
+    PermissionSnapshot current = snapshot;
+    return (current instanceof MappedPermissionSnapshot)
+        ? ((MappedPermissionSnapshot) current).getCorruptRecords() : 0;
+  }
+
+  @Override
+  public long getReloadCount() {
+    return reloadCount.sum();
+  }
+
+  @Override
+  public long getReloadFailures() {
+    return reloadFailures.sum();
+  }
+
+  @Override
+  public long getLastReloadMicros() {
+    return lastReloadMicros;
+  }
+
+  @Override
+  public String getLastReloadError() {
+    return lastReloadError;
+  }
+}
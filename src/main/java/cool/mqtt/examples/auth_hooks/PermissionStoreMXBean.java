@@ -0,0 +1,109 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+/**
+ * Management interface of {@link PermissionStore}.
+ */
+public interface PermissionStoreMXBean {
+
+  /**
+   * Returns the version of the current snapshot, increased at every successful reload.
+   *
+   * @return the version
+   */
+  long getVersion();
+
+  int getUserCount();
+
+  int getTokenCount();
+
+  /**
+   * Returns the number of roles defined by the permission file.
+   *
+   * @return the number of roles
+   */
+  int getRoleCount();
+
+  /**
+   * Returns the number of distinct permissions held in memory, shared by all the users (and roles)
+   * granted the same permissions.
+   *
+   * @return the number of distinct permissions
+   */
+  int getDistinctPermissionCount();
+
+  /**
+   * Returns the size of the file the current snapshot was loaded from.
+   *
+   * @return the size in bytes, or 0 if the snapshot was pushed through the API
+   */
+  long getSourceBytes();
+
+  /**
+   * Returns the number of records of a binary snapshot found corrupt, whose users are denied
+   * everything.
+   *
+   * @return the number of corrupt records
+   */
+  long getCorruptRecords();
+
+  /**
+   * Returns the number of delta files applied on top of the permission file.
+   *
+   * @return the number of applied deltas
+   */
+  int getAppliedDeltas();
+
+  /**
+   * Returns the number of snapshots loaded, either from the whole file or from new deltas.
+   *
+   * @return the number of loads
+   */
+  long getReloadCount();
+
+  /**
+   * Returns the number of reloads which failed, in which case the previous snapshot was kept.
+   *
+   * @return the number of failed reloads
+   */
+  long getReloadFailures();
+
+  /**
+   * Returns the time taken by the last successful reload, from the start of the parsing to the
+   * publication of the new snapshot.
+   *
+   * @return the reload latency in microseconds
+   */
+  long getLastReloadMicros();
+
+  /**
+   * Returns the cause of the last failed reload.
+   *
+   * @return the error message, or {@code null} if no reload ever failed
+   */
+  String getLastReloadError();
+
+  /**
+   * Reloads the permission file immediately.
+   *
+   * @return {@code true} if the new snapshot was published, {@code false} if the reload failed
+   */
+  boolean reload();
+
+}
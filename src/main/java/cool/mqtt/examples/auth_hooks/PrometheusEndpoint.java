@@ -0,0 +1,143 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal HTTP endpoint serving the metrics of the Hooks in the Prometheus text format, on
+ * {@code http://127.0.0.1:<port>/metrics}. It is only bound to the loopback interface, as the
+ * metrics are meant to be scraped by a local agent; Hooks configured with the same port share the
+ * same endpoint.
+ */
+final class PrometheusEndpoint {
+
+  /** Metric families being exposed, each with its samples */
+  static final class Exposition {
+
+    private final Map<String, StringBuilder> families = new LinkedHashMap<>();
+
+    private final Map<String, String> headers = new HashMap<>();
+
+    /**
+     * Returns the buffer of the samples of a family, which is created on first use, so that the
+     * samples of different Hooks are kept together.
+     *
+     * @param name the name of the family
+     * @param type the type of the family
+     * @param help the description of the family
+     * @return the buffer of the samples
+     */
+    StringBuilder family(String name, String type, String help) {
+      StringBuilder samples = families.get(name);
+      if (samples == null) {
+        samples = new StringBuilder();
+        families.put(name, samples);
+        headers.put(name, "# HELP " + name + " " + help + "\n# TYPE " + name + " " + type + "\n");
+      }
+      return samples;
+    }
+
+    String render() {
+      StringBuilder out = new StringBuilder();
+      families.forEach((name, samples) -> out.append(headers.get(name)).append(samples));
+      return out.toString();
+    }
+  }
+
+  private static final Map<Integer, PrometheusEndpoint> endpoints = new HashMap<>();
+
+  private final HttpServer server;
+
+  private final List<HookMetrics> sources = new CopyOnWriteArrayList<>();
+
+  private PrometheusEndpoint(int port) {
+    try {
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Can't open the metrics endpoint on port " + port, e);
+    }
+    server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "PrometheusEndpoint-" + port);
+      thread.setDaemon(true);
+      return thread;
+    }));
+    server.createContext("/metrics", this::handle);
+    server.start();
+  }
+
+  /**
+   * Adds the metrics of a Hook to the endpoint on the specified port, opening it if needed.
+   *
+   * @param port the port
+   * @param metrics the metrics
+   */
+  static synchronized void publish(int port, HookMetrics metrics) {
+    endpoints.computeIfAbsent(port, PrometheusEndpoint::new).sources.add(metrics);
+  }
+
+  /**
+   * Removes the metrics of a Hook from the endpoint on the specified port, closing it if no
+   * metrics are left.
+   *
+   * @param port the port
+   * @param metrics the metrics
+   */
+  static synchronized void withdraw(int port, HookMetrics metrics) {
+    PrometheusEndpoint endpoint = endpoints.get(port);
+    if (endpoint != null && endpoint.sources.remove(metrics) && endpoint.sources.isEmpty()) {
+      endpoints.remove(port);
+      endpoint.server.stop(0);
+    }
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      Exposition exposition = new Exposition();
+      for (HookMetrics metrics : sources) {
+        metrics.collect(exposition);
+      }
+      byte[] body = exposition.render().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import cool.mqtt.hooks.MqttMessage;
+
+/**
+ * Restrictions on the messages a user may publish, besides the topics: the maximum payload size,
+ * the allowed QoS levels and whether the retained flag may be set.
+ * <p>
+ * A policy only looks at the metadata of the message: the payload is neither copied nor decoded,
+ * only its length is read, and only if a maximum size is actually set. Instances are immutable and
+ * the unrestricted policy, which is by far the most common, is always the same instance, so that
+ * checking it is a reference comparison.
+ */
+public final class PublishPolicy {
+
+  /** Marker of no maximum payload size */
+  static final int UNLIMITED = -1;
+
+  /** Bit mask of all the QoS levels */
+  static final int ALL_QOS = 0b111;
+
+  /** The policy allowing any message */
+  static final PublishPolicy UNRESTRICTED = new PublishPolicy(UNLIMITED, ALL_QOS, true);
+
+  /** Maximum payload size in bytes, or {@link #UNLIMITED} */
+  private final int maxPayloadSize;
+
+  /** Bit mask of the allowed QoS levels, with bit {@code n} standing for QoS {@code n} */
+  private final int allowedQos;
+
+  private final boolean retainAllowed;
+
+  private PublishPolicy(int maxPayloadSize, int allowedQos, boolean retainAllowed) {
+    this.maxPayloadSize = maxPayloadSize;
+    this.allowedQos = allowedQos;
+    this.retainAllowed = retainAllowed;
+  }
+
+  /**
+   * Returns the policy with the specified restrictions.
+   *
+   * @param maxPayloadSize the maximum payload size in bytes, or {@link #UNLIMITED}
+   * @param allowedQos the bit mask of the allowed QoS levels, with bit {@code n} standing for QoS
+   *        {@code n}
+   * @param retainAllowed whether the retained flag may be set
+   * @return the policy
+   * @throws IllegalArgumentException if the size is negative or the mask is not valid
+   */
+  static PublishPolicy of(int maxPayloadSize, int allowedQos, boolean retainAllowed) {
+    if (maxPayloadSize < UNLIMITED) {
+      throw new IllegalArgumentException("Invalid maximum payload size " + maxPayloadSize);
+    }
+    if ((allowedQos & ~ALL_QOS) != 0) {
+      throw new IllegalArgumentException("Invalid QoS mask " + allowedQos);
+    }
+    if (maxPayloadSize == UNLIMITED && allowedQos == ALL_QOS && retainAllowed) {
+      return UNRESTRICTED;
+    }
+    return new PublishPolicy(maxPayloadSize, allowedQos, retainAllowed);
+  }
+
+  int getMaxPayloadSize() {
+    return maxPayloadSize;
+  }
+
+  int getAllowedQos() {
+    return allowedQos;
+  }
+
+  boolean isRetainAllowed() {
+    return retainAllowed;
+  }
+
+  /**
+   * Checks the specified message against this policy, in order of increasing cost.
+   *
+   * @param message the message to publish
+   * @return {@link AuthorizationResult#OK} if the message conforms, otherwise the reason why it
+   *         doesn't
+   */
+  AuthorizationResult check(MqttMessage message) {
+    if (this == UNRESTRICTED) {
+      return AuthorizationResult.OK;
+    }
+    int qos = message.getQos();
+    if (qos < 0 || qos > 2 || (allowedQos & (1 << qos)) == 0) {
+      return AuthorizationResult.QOS_NOT_ALLOWED;
+    }
+    if (!retainAllowed && message.isRetained()) {
+      return AuthorizationResult.RETAIN_NOT_ALLOWED;
+    }
+    if (maxPayloadSize != UNLIMITED) {
+      byte[] payload = message.getPayload();
+      if (payload != null && payload.length > maxPayloadSize) {
+        return AuthorizationResult.PAYLOAD_TOO_LARGE;
+      }
+    }
+    return AuthorizationResult.OK;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof PublishPolicy)) {
+      return false;
+    }
+    PublishPolicy other = (PublishPolicy) obj;
+    return maxPayloadSize == other.maxPayloadSize && allowedQos == other.allowedQos
+        && retainAllowed == other.retainAllowed;
+  }
+
+  @Override
+  public int hashCode() {
+    return (maxPayloadSize * 31 + allowedQos) * 2 + (retainAllowed ? 1 : 0);
+  }
+}
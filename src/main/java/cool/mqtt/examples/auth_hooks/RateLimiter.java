@@ -0,0 +1,365 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rate limiter of the publish and subscribe requests, which stops a runaway client before it
+ * floods the broker. For every action, limits can be set through the {@code rate_limit.*} settings:
+ * <ul>
+ * <li>{@code rate_limit.<action>.session}: requests of every session;</li>
+ * <li>{@code rate_limit.<action>.user}: requests of all the sessions of a user, which can be
+ * overridden for specific users through {@code rate_limit.<action>.user.<user>};</li>
+ * <li>{@code rate_limit.<action>.topic.<prefix>}: requests of every session for the topics (or
+ * topic filters) starting with the prefix, where the longest matching prefix applies;</li>
+ * </ul>
+ * where {@code <action>} is either {@code publish} or {@code subscribe} and every limit is
+ * expressed as {@code <requests per second>[,<burst>]}, or as {@code unlimited}.
+ * <p>
+ * Limits are enforced through the Generic Cell Rate Algorithm, equivalent to a token bucket whose
+ * whole state is a single timestamp updated by CAS, so no lock is ever taken. Session buckets are
+ * held by the session slots, and user buckets are shared only by the sessions of the same user,
+ * so there is no contention between unrelated clients.
+ */
+final class RateLimiter {
+
+  /** Limit expressed as an emission interval and a burst tolerance */
+  static final class Limit {
+
+    /** Marker of the users exempted from the default user limit */
+    static final Limit UNLIMITED = new Limit(0, 0);
+
+    final long intervalNanos;
+
+    final long toleranceNanos;
+
+    private Limit(long intervalNanos, long toleranceNanos) {
+      this.intervalNanos = intervalNanos;
+      this.toleranceNanos = toleranceNanos;
+    }
+
+    /**
+     * Parses a limit.
+     *
+     * @param name the name of the setting, for error reporting
+     * @param value the value, as {@code <requests per second>[,<burst>]} or {@code unlimited}
+     * @return the limit
+     */
+    static Limit parse(String name, String value) {
+      if ("unlimited".equalsIgnoreCase(value)) {
+        return UNLIMITED;
+      }
+      try {
+        String[] parts = value.split(",");
+        double rate = Double.parseDouble(parts[0].trim());
+        long burst = (parts.length > 1) ? Long.parseLong(parts[1].trim())
+            : Math.max(1, (long) Math.ceil(rate));
+        if (parts.length > 2 || rate <= 0 || burst < 1) {
+          throw new IllegalArgumentException();
+        }
+        long interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+        return new Limit(interval, interval * (burst - 1));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Invalid value '" + value + "' for setting '"
+            + HookSettings.PREFIX + name + "', expected <requests per second>[,<burst>]", e);
+      }
+    }
+  }
+
+  /** State of a limit: the theoretical arrival time of the next conforming request */
+  static final class Bucket {
+
+    private final Limit limit;
+
+    private final AtomicLong arrival;
+
+    Bucket(Limit limit, long now) {
+      this.limit = limit;
+      this.arrival = new AtomicLong(now);
+    }
+
+    /**
+     * Takes a token if the request conforms to the limit.
+     *
+     * @param now the current time, as returned by {@code System.nanoTime}
+     * @return {@code true} if the request is allowed
+     */
+    boolean tryAcquire(long now) {
+      while (true) {
+        long current = arrival.get();
+        long base = (current - now > 0) ? current : now;
+        if (base - now > limit.toleranceNanos) {
+          return false;
+        }
+        if (arrival.compareAndSet(current, base + limit.intervalNanos)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * Gives back a token taken by a request which has been rejected by another limit.
+     */
+    void release() {
+      arrival.addAndGet(-limit.intervalNanos);
+    }
+  }
+
+  /** Limits of an action */
+  private static final class ActionLimits {
+
+    final Limit session;
+
+    final Limit user;
+
+    /** Limits of specific users */
+    final Map<String, Limit> users = new HashMap<>();
+
+    /** Topic prefixes, longest first */
+    final String[] prefixes;
+
+    final Limit[] prefixLimits;
+
+    ActionLimits(HookSettings settings, String action) {
+      String base = "rate_limit." + action + ".";
+      this.session = limitOf(settings, base + "session");
+      this.user = limitOf(settings, base + "user");
+      settings.getStrings(base + "user.")
+          .forEach((user, value) -> users.put(user, Limit.parse(base + "user." + user, value)));
+
+      Map<String, String> topics = settings.getStrings(base + "topic.");
+      this.prefixes = topics.keySet().toArray(new String[0]);
+      Arrays.sort(prefixes, Comparator.comparingInt(String::length).reversed());
+      this.prefixLimits = new Limit[prefixes.length];
+      for (int i = 0; i < prefixes.length; i++) {
+        prefixLimits[i] = Limit.parse(base + "topic." + prefixes[i], topics.get(prefixes[i]));
+      }
+    }
+
+    boolean isEmpty() {
+      return session == null && user == null && users.isEmpty() && prefixes.length == 0;
+    }
+
+    /**
+     * @return the limit of the specified user, or {@code null} if not limited
+     */
+    Limit userLimit(String name) {
+      Limit limit = users.getOrDefault(name, user);
+      return (limit == Limit.UNLIMITED) ? null : limit;
+    }
+
+    Bucket[] newPrefixBuckets(long now) {
+      if (prefixes.length == 0) {
+        return null;
+      }
+      Bucket[] buckets = new Bucket[prefixes.length];
+      for (int i = 0; i < prefixes.length; i++) {
+        if (prefixLimits[i] != Limit.UNLIMITED) {
+          buckets[i] = new Bucket(prefixLimits[i], now);
+        }
+      }
+      return buckets;
+    }
+
+    /**
+     * @return the index of the longest prefix of the topic, or -1 if none matches
+     */
+    int match(String topic) {
+      for (int i = 0; i < prefixes.length; i++) {
+        if (topic.startsWith(prefixes[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private static Limit limitOf(HookSettings settings, String name) {
+      String value = settings.getString(name, null);
+      if (value == null || value.isEmpty()) {
+        return null;
+      }
+      Limit limit = Limit.parse(name, value);
+      return (limit == Limit.UNLIMITED) ? null : limit;
+    }
+  }
+
+  /** Buckets of a user, shared by all his sessions */
+  private static final class UserBuckets {
+
+    /** Number of open sessions, only changed within the compute methods of the map */
+    int sessions;
+
+    final Bucket publish;
+
+    final Bucket subscribe;
+
+    UserBuckets(Bucket publish, Bucket subscribe) {
+      this.publish = publish;
+      this.subscribe = subscribe;
+    }
+  }
+
+  /** Buckets checked by a session, held by its slot */
+  final class SessionLimits {
+
+    private final String user;
+
+    private final UserBuckets userBuckets;
+
+    private final Bucket publish;
+
+    private final Bucket subscribe;
+
+    private final Bucket[] publishPrefixes;
+
+    private final Bucket[] subscribePrefixes;
+
+    private SessionLimits(String user, UserBuckets userBuckets, long now) {
+      this.user = user;
+      this.userBuckets = userBuckets;
+      this.publish =
+          (publishLimits.session != null) ? new Bucket(publishLimits.session, now) : null;
+      this.subscribe =
+          (subscribeLimits.session != null) ? new Bucket(subscribeLimits.session, now) : null;
+      this.publishPrefixes = publishLimits.newPrefixBuckets(now);
+      this.subscribePrefixes = subscribeLimits.newPrefixBuckets(now);
+    }
+
+    /**
+     * Checks whether a publish request is allowed, consuming a token of every applicable limit.
+     *
+     * @param topic the topic
+     * @return {@code true} if allowed, {@code false} if rate limited
+     */
+    boolean tryPublish(String topic) {
+      return tryAcquire(publishLimits, publish, publishPrefixes,
+          (userBuckets != null) ? userBuckets.publish : null, topic);
+    }
+
+    /**
+     * Checks whether a subscribe request is allowed, consuming a token of every applicable limit.
+     *
+     * @param topicFilter the topic filter
+     * @return {@code true} if allowed, {@code false} if rate limited
+     */
+    boolean trySubscribe(String topicFilter) {
+      return tryAcquire(subscribeLimits, subscribe, subscribePrefixes,
+          (userBuckets != null) ? userBuckets.subscribe : null, topicFilter);
+    }
+  }
+
+  private final ActionLimits publishLimits;
+
+  private final ActionLimits subscribeLimits;
+
+  private final ConcurrentHashMap<String, UserBuckets> users = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a rate limiter, configured through the {@code rate_limit.*} settings.
+   *
+   * @param settings the Hook settings
+   */
+  RateLimiter(HookSettings settings) {
+    this.publishLimits = new ActionLimits(settings, "publish");
+    this.subscribeLimits = new ActionLimits(settings, "subscribe");
+  }
+
+  /**
+   * @return {@code true} if any limit is configured
+   */
+  boolean isEnabled() {
+    return !publishLimits.isEmpty() || !subscribeLimits.isEmpty();
+  }
+
+  /**
+   * Creates the buckets of a new session, joining the ones of its user.
+   *
+   * @param user the user
+   * @return the buckets of the session
+   */
+  SessionLimits open(String user) {
+    long now = System.nanoTime();
+    Limit publishUser = publishLimits.userLimit(user);
+    Limit subscribeUser = subscribeLimits.userLimit(user);
+    UserBuckets userBuckets = null;
+    if (publishUser != null || subscribeUser != null) {
+      userBuckets = users.compute(user, (key, current) -> {
+        UserBuckets entry = (current != null) ? current : new UserBuckets(
+            (publishUser != null) ? new Bucket(publishUser, now) : null,
+            (subscribeUser != null) ? new Bucket(subscribeUser, now) : null);
+        entry.sessions++;
+        return entry;
+      });
+    }
+    return new SessionLimits(user, userBuckets, now);
+  }
+
+  /**
+   * Releases the buckets of a closed session, dropping the ones of its user after the last
+   * session.
+   *
+   * @param limits the buckets of the session
+   */
+  void close(SessionLimits limits) {
+    if (limits.userBuckets != null) {
+      users.computeIfPresent(limits.user,
+          (key, current) -> (current == limits.userBuckets && --current.sessions == 0) ? null
+              : current);
+    }
+  }
+
+  private static boolean tryAcquire(ActionLimits limits, Bucket session, Bucket[] prefixes,
+      Bucket user, String topic) {
+
+    if (session == null && prefixes == null && user == null) {
+      return true;
+    }
+    long now = System.nanoTime();
+    if (session != null && !session.tryAcquire(now)) {
+      return false;
+    }
+    Bucket prefix = null;
+    if (prefixes != null) {
+      int index = limits.match(topic);
+      prefix = (index >= 0) ? prefixes[index] : null;
+      if (prefix != null && !prefix.tryAcquire(now)) {
+        release(session);
+        return false;
+      }
+    }
+    if (user != null && !user.tryAcquire(now)) {
+      release(session);
+      release(prefix);
+      return false;
+    }
+    return true;
+  }
+
+  private static void release(Bucket bucket) {
+    if (bucket != null) {
+      bucket.release();
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent requests for the same key into a single in-flight request, whose outcome is
+ * shared by all the callers.
+ * <p>
+ * A request started before an invalidation of its key is not joined by the requests made after
+ * it, as its outcome may be outdated: they start a new one instead.
+ *
+ * @param <K> the type of the request keys
+ * @param <V> the type of the request results
+ */
+class RequestCoalescer<K, V> {
+
+  /** The actual request */
+  interface Request<V> {
+
+    V execute() throws IOException;
+  }
+
+  /** A request in flight, with the invalidation epoch of its key when it was started */
+  private static final class Flight<V> {
+
+    final CompletableFuture<V> future = new CompletableFuture<>();
+
+    final long epoch;
+
+    Flight(long epoch) {
+      this.epoch = epoch;
+    }
+  }
+
+  /** Number of stripes of the invalidation epochs, a power of 2 */
+  private static final int EPOCH_STRIPES = 256;
+
+  private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * Incremented by every invalidation of a key, striped by key: a collision only costs a request
+   * which could have been coalesced.
+   */
+  private final AtomicLongArray epochs = new AtomicLongArray(EPOCH_STRIPES);
+
+  private final LongAdder coalesced = new LongAdder();
+
+  /**
+   * Executes the specified request on the calling thread, unless a request for the same key,
+   * started after its last invalidation, is already in flight, in which case its outcome is
+   * awaited.
+   *
+   * @param key the request key
+   * @param request the request
+   * @return the request result
+   * @throws IOException if the request failed
+   */
+  V execute(K key, Request<V> request) throws IOException {
+    Flight<V> own = new Flight<>(epochs.get(stripe(key)));
+    while (true) {
+      Flight<V> pending = inFlight.putIfAbsent(key, own);
+      if (pending == null) {
+        break;
+      }
+      if (pending.epoch >= own.epoch) {
+        coalesced.increment();
+        return await(pending.future);
+      }
+      // Started before an invalidation: left to its current callers.
+      if (inFlight.replace(key, pending, own)) {
+        break;
+      }
+    }
+
+    try {
+      V result = request.execute();
+      own.future.complete(result);
+      return result;
+    } catch (IOException | RuntimeException e) {
+      own.future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, own);
+    }
+  }
+
+  /**
+   * Prevents the requests for the specified key made from now on from joining a request already in
+   * flight, for instance because the outcome of the latter may have been revoked meanwhile.
+   *
+   * @param key the request key
+   */
+  void invalidate(K key) {
+    epochs.incrementAndGet(stripe(key));
+  }
+
+  private static int stripe(Object key) {
+    return (key.hashCode() * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(EPOCH_STRIPES));
+  }
+
+  private V await(CompletableFuture<V> pending) throws IOException {
+    try {
+      return pending.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a coalesced request", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Returns how many requests have been served by joining a request already in flight.
+   *
+   * @return the number of coalesced requests
+   */
+  long getCoalesced() {
+    return coalesced.sum();
+  }
+}
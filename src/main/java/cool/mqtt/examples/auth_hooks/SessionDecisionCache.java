@@ -0,0 +1,161 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import cool.mqtt.hooks.MqttMessage;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tiny cache of the last publish and subscribe decisions taken for a session, held by the session
+ * slot so that a device repeatedly publishing to the same few topics is authorized without any
+ * further lookup.
+ * <p>
+ * The cache is direct-mapped: every topic can only be kept in the slot selected by its hash code,
+ * replacing whatever was there. Entries are immutable and stamped with the version of the
+ * permissions they were computed from, so that a version change invalidates them all at once and a
+ * hit neither locks nor allocates. Publish decisions also carry the policy of the user, as the
+ * message itself still has to be checked on every hit.
+ */
+final class SessionDecisionCache {
+
+  /** Immutable cached decision */
+  private static final class Entry {
+
+    final String topic;
+
+    final long version;
+
+    final AuthorizationResult result;
+
+    final PublishPolicy policy;
+
+    Entry(String topic, long version, AuthorizationResult result, PublishPolicy policy) {
+      this.topic = topic;
+      this.version = version;
+      this.result = result;
+      this.policy = policy;
+    }
+  }
+
+  private final Entry[] publishDecisions;
+
+  private final Entry[] subscribeDecisions;
+
+  private final LongAdder hits;
+
+  private final LongAdder misses;
+
+  /**
+   * Creates a cache.
+   *
+   * @param size the number of slots for every action, rounded up to a power of two
+   * @param hits the counter of the hits, shared by all the sessions
+   * @param misses the counter of the misses, shared by all the sessions
+   */
+  SessionDecisionCache(int size, LongAdder hits, LongAdder misses) {
+    int capacity = Integer.highestOneBit(Math.max(1, size * 2 - 1));
+    this.publishDecisions = new Entry[capacity];
+    this.subscribeDecisions = new Entry[capacity];
+    this.hits = hits;
+    this.misses = misses;
+  }
+
+  /**
+   * Estimates the heap retained by a cache of the specified size, when full.
+   *
+   * @param size the number of slots for every action
+   * @return the estimated bytes
+   */
+  static long estimateBytes(int size) {
+    int capacity = Integer.highestOneBit(Math.max(1, size * 2 - 1));
+    // The cache object, two arrays of references, and an entry of 32 bytes per slot.
+    return 24 + 2 * (16 + 4 * capacity) + 2 * 32 * capacity;
+  }
+
+  /**
+   * Returns the decision about publishing the specified message, if the decision about its topic is
+   * cached.
+   *
+   * @param topic the topic name of the message
+   * @param version the current version of the permissions
+   * @param message the message, checked against the cached policy if the topic is allowed
+   * @return the decision, or {@code null} if not cached
+   */
+  AuthorizationResult getPublishDecision(String topic, long version, MqttMessage message) {
+    Entry entry = lookup(publishDecisions, topic, version);
+    if (entry == null) {
+      return null;
+    }
+    return (entry.result == AuthorizationResult.OK) ? entry.policy.check(message) : entry.result;
+  }
+
+  void putPublishDecision(String topic, long version, AuthorizationResult result,
+      PublishPolicy policy) {
+
+    put(publishDecisions, topic, version, result, policy);
+  }
+
+  /**
+   * Returns the cached decision about subscribing to the specified topic filter.
+   *
+   * @param topicFilter the topic filter
+   * @param version the current version of the permissions
+   * @return the decision, or {@code null} if not cached
+   */
+  AuthorizationResult getSubscribeDecision(String topicFilter, long version) {
+    Entry entry = lookup(subscribeDecisions, topicFilter, version);
+    return (entry != null) ? entry.result : null;
+  }
+
+  void putSubscribeDecision(String topicFilter, long version, AuthorizationResult result) {
+    put(subscribeDecisions, topicFilter, version, result, null);
+  }
+
+  /**
+   * Drops all the cached decisions.
+   */
+  void clear() {
+    Arrays.fill(publishDecisions, null);
+    Arrays.fill(subscribeDecisions, null);
+  }
+
+  private Entry lookup(Entry[] decisions, String topic, long version) {
+    Entry entry = decisions[slot(decisions, topic)];
+    if (entry != null && entry.version == version
+        && (entry.topic == topic || entry.topic.equals(topic))) {
+      hits.increment();
+      return entry;
+    }
+    misses.increment();
+    return null;
+  }
+
+  private static void put(Entry[] decisions, String topic, long version,
+      AuthorizationResult result, PublishPolicy policy) {
+
+    // A racing put may win, which is harmless: the entry is a valid decision anyway.
+    decisions[slot(decisions, topic)] = new Entry(topic, version, result, policy);
+  }
+
+  private static int slot(Entry[] decisions, String topic) {
+    int hash = topic.hashCode();
+    return (hash ^ (hash >>> 16)) & (decisions.length - 1);
+  }
+}
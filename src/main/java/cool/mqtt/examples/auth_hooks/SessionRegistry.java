@@ -0,0 +1,390 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Registry of the open sessions, which resolves a session id to a slot holding the user and a
+ * direct reference to the per-user state needed by the authorization checks, with a single lookup.
+ * <p>
+ * The sessions of every user are also indexed by user, each slot being linked into the list of the
+ * sessions of its user, so that all the sessions of a user are reached (for instance, to revoke
+ * them) in time proportional to their number, and added or removed in constant time.
+ * <p>
+ * The registry is partitioned into shards, by hash of the session id, each one with its own maps
+ * and its own lists of the sessions of every user. Sessions of the same user opened and closed on
+ * different cores thus lock different entries of different maps, instead of all contending for the
+ * entry of their user.
+ *
+ * @param <T> the type of the per-user state
+ */
+class SessionRegistry<T> implements SessionRegistryMXBean {
+
+  /**
+   * Estimated heap cost of a session: a map node (32 bytes), a session slot (40 bytes), a share of
+   * the map table (8 bytes on average) and, at most, a node of the user index (32 bytes) with its
+   * share of the table, assuming compressed references.
+   */
+  private static final long BYTES_PER_SESSION = 32 + 40 + 8 + 32 + 8;
+
+  /** Slot of an open session */
+  static final class Session<T> {
+
+    private final String user;
+
+    /** The token the session was opened with */
+    private final String token;
+
+    private volatile T target;
+
+    private final SessionDecisionCache decisions;
+
+    private final RateLimiter.SessionLimits rateLimits;
+
+    private volatile boolean revoked;
+
+    /** Links of the list of the sessions of the same user, guarded by the user index */
+    private Session<T> previous;
+
+    private Session<T> next;
+
+    Session(String user, String token, T target, SessionDecisionCache decisions,
+        RateLimiter.SessionLimits rateLimits) {
+      this.user = user;
+      this.token = token;
+      this.target = target;
+      this.decisions = decisions;
+      this.rateLimits = rateLimits;
+    }
+
+    String getUser() {
+      return user;
+    }
+
+    String getToken() {
+      return token;
+    }
+
+    /**
+     * Tells whether the session was revoked, in which case it must be denied everything.
+     *
+     * @return {@code true} if revoked
+     */
+    boolean isRevoked() {
+      return revoked;
+    }
+
+    /**
+     * Revokes the session, dropping its cached decisions.
+     */
+    void revoke() {
+      revoked = true;
+      if (decisions != null) {
+        decisions.clear();
+      }
+    }
+
+    /**
+     * Returns the per-user state associated with this session.
+     *
+     * @return the per-user state
+     */
+    T getTarget() {
+      return target;
+    }
+
+    /**
+     * Replaces the per-user state associated with this session, once outdated.
+     *
+     * @param target the new per-user state
+     */
+    void setTarget(T target) {
+      this.target = target;
+    }
+
+    /**
+     * Returns the cache of the last decisions taken for this session.
+     *
+     * @return the cache, or {@code null} if disabled
+     */
+    SessionDecisionCache getDecisions() {
+      return decisions;
+    }
+
+    /**
+     * Returns the rate limits applied to this session.
+     *
+     * @return the limits, or {@code null} if no limit is configured
+     */
+    RateLimiter.SessionLimits getRateLimits() {
+      return rateLimits;
+    }
+  }
+
+  /** Partition of the registry, holding the sessions whose id hashes to it */
+  private static final class Shard<T> {
+
+    /*
+     * Session ids are strings whose hash code is computed once and then cached by the String
+     * itself, so a lookup costs a single probe of the table.
+     */
+    final ConcurrentHashMap<String, Session<T>> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Head of the list of the sessions of every user in this shard; lists are only read and changed
+     * by the compute methods, which lock the entry of the user.
+     */
+    final ConcurrentHashMap<String, Session<T>> sessionsByUser = new ConcurrentHashMap<>();
+  }
+
+  /** The shards, whose number is a power of 2 */
+  private final Shard<T>[] shards;
+
+  /** Number of bits of the hash selecting the shard */
+  private final int shardBits;
+
+  /** Number of slots of the decision cache of every session, or 0 if disabled */
+  private final int decisionCacheSize;
+
+  private final LongAdder decisionCacheHits = new LongAdder();
+
+  private final LongAdder decisionCacheMisses = new LongAdder();
+
+  /** Rate limiter of the sessions, or {@code null} if no limit is configured */
+  private final RateLimiter rateLimiter;
+
+  SessionRegistry() {
+    this(0, null, 0);
+  }
+
+  /**
+   * Creates a registry whose sessions hold a cache of their last decisions and their rate limits.
+   *
+   * @param decisionCacheSize the number of decisions cached for every action, or 0 to disable the
+   *        cache
+   * @param rateLimiter the rate limiter, or {@code null}
+   * @param shards the number of shards, rounded up to a power of 2, or 0 to size them to the
+   *        available processors
+   */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  SessionRegistry(int decisionCacheSize, RateLimiter rateLimiter, int shards) {
+    this.decisionCacheSize = decisionCacheSize;
+    this.rateLimiter = (rateLimiter != null && rateLimiter.isEnabled()) ? rateLimiter : null;
+    int requested = (shards > 0) ? shards : Runtime.getRuntime().availableProcessors();
+    this.shardBits = 32 - Integer.numberOfLeadingZeros(Math.min(requested, 1 << 16) - 1);
+    this.shards = new Shard[1 << shardBits];
+    for (int i = 0; i < this.shards.length; i++) {
+      this.shards[i] = new Shard<>();
+    }
+  }
+
+  /*
+   * The shard is selected by the high bits of the scrambled hash code, as the low ones select the
+   * bin of the maps within the shard: using the same bits would leave most bins empty.
+   */
+  private Shard<T> shardOf(String sessionId) {
+    return (shardBits == 0) ? shards[0]
+        : shards[(sessionId.hashCode() * 0x9E3779B9) >>> (32 - shardBits)];
+  }
+
+  /**
+   * Returns the number of shards.
+   *
+   * @return the number of shards
+   */
+  int getShardCount() {
+    return shards.length;
+  }
+
+  /**
+   * Registers a new session.
+   *
+   * @param sessionId the session id
+   * @param user the user who opened the session
+   * @param token the token the session was opened with
+   * @param target the per-user state
+   * @return the slot of the session
+   */
+  Session<T> register(String sessionId, String user, String token, T target) {
+    SessionDecisionCache decisions = (decisionCacheSize > 0)
+        ? new SessionDecisionCache(decisionCacheSize, decisionCacheHits, decisionCacheMisses)
+        : null;
+    RateLimiter.SessionLimits rateLimits = (rateLimiter != null) ? rateLimiter.open(user) : null;
+    Session<T> session = new Session<>(user, token, target, decisions, rateLimits);
+    Shard<T> shard = shardOf(sessionId);
+    shard.sessionsByUser.compute(user, (key, head) -> {
+      if (head != null) {
+        session.next = head;
+        head.previous = session;
+      }
+      return session;
+    });
+    shard.sessions.put(sessionId, session);
+    return session;
+  }
+
+  /**
+   * Returns the slot of the specified session.
+   *
+   * @param sessionId the session id
+   * @return the slot, or {@code null} if the session is not registered
+   */
+  Session<T> get(String sessionId) {
+    return shardOf(sessionId).sessions.get(sessionId);
+  }
+
+  /**
+   * Unregisters the specified session.
+   *
+   * @param sessionId the session id
+   * @return the slot of the session, or {@code null} if the session was not registered
+   */
+  Session<T> unregister(String sessionId) {
+    Shard<T> shard = shardOf(sessionId);
+    Session<T> session = shard.sessions.remove(sessionId);
+    if (session == null) {
+      return null;
+    }
+    shard.sessionsByUser.computeIfPresent(session.user, (key, head) -> {
+      Session<T> newHead = (head == session) ? session.next : head;
+      if (session.previous != null) {
+        session.previous.next = session.next;
+      }
+      if (session.next != null) {
+        session.next.previous = session.previous;
+      }
+      session.previous = null;
+      session.next = null;
+      return newHead;
+    });
+    if (session.rateLimits != null) {
+      rateLimiter.close(session.rateLimits);
+    }
+    return session;
+  }
+
+  /**
+   * Performs the specified action on every open session of the specified user, shard by shard:
+   * while the sessions of a shard are visited, no session of the same user can be registered into,
+   * or unregistered from, that shard.
+   *
+   * @param user the user
+   * @param action the action
+   * @return the number of sessions of the user
+   */
+  int forEachSession(String user, Consumer<Session<T>> action) {
+    int[] count = new int[1];
+    for (Shard<T> shard : shards) {
+      shard.sessionsByUser.computeIfPresent(user, (key, head) -> {
+        for (Session<T> session = head; session != null; session = session.next) {
+          action.accept(session);
+          count[0]++;
+        }
+        return head;
+      });
+    }
+    return count[0];
+  }
+
+  /**
+   * Performs the specified action on one open session of every user for every shard holding
+   * sessions of that user, hence possibly more than once per user, in no particular order.
+   *
+   * @param action the action
+   */
+  void forEachUser(Consumer<Session<T>> action) {
+    for (Shard<T> shard : shards) {
+      shard.sessionsByUser.values().forEach(action);
+    }
+  }
+
+  /*
+   * Users are indexed by shard, so the distinct ones are counted on demand, in time proportional to
+   * their number.
+   */
+  @Override
+  public int getUserCount() {
+    if (shards.length == 1) {
+      return shards[0].sessionsByUser.size();
+    }
+    Set<String> users = new HashSet<>();
+    for (Shard<T> shard : shards) {
+      users.addAll(shard.sessionsByUser.keySet());
+    }
+    return users.size();
+  }
+
+  /**
+   * Adds the counters of the registry to the specified metrics.
+   *
+   * @param metrics the metrics
+   */
+  void addTo(HookMetrics metrics) {
+    metrics.addGauge("sessions", "Open sessions.", this::getSessionCount);
+    metrics.addCounter("session_cache_hits",
+        "Checks answered by the decision caches of the sessions.", this::getDecisionCacheHits);
+    metrics.addCounter("session_cache_misses",
+        "Checks not found in the decision caches of the sessions.", this::getDecisionCacheMisses);
+  }
+
+  @Override
+  public int getSessionCount() {
+    return (int) Math.min(countSessions(), Integer.MAX_VALUE);
+  }
+
+  private long countSessions() {
+    long count = 0;
+    for (Shard<T> shard : shards) {
+      count += shard.sessions.mappingCount();
+    }
+    return count;
+  }
+
+  @Override
+  public long getEstimatedBytesPerSession() {
+    return BYTES_PER_SESSION
+        + ((decisionCacheSize > 0) ? SessionDecisionCache.estimateBytes(decisionCacheSize) : 0);
+  }
+
+  @Override
+  public long getEstimatedTotalBytes() {
+    return countSessions() * getEstimatedBytesPerSession();
+  }
+
+  @Override
+  public long getDecisionCacheHits() {
+    return decisionCacheHits.sum();
+  }
+
+  @Override
+  public long getDecisionCacheMisses() {
+    return decisionCacheMisses.sum();
+  }
+
+  @Override
+  public double getDecisionCacheHitRatio() {
+    long hits = decisionCacheHits.sum();
+    long total = hits + decisionCacheMisses.sum();
+    return (total > 0) ? (double) hits / total : 0;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+/**
+ * Management interface of {@link SessionRegistry}.
+ */
+public interface SessionRegistryMXBean {
+
+  /**
+   * Returns the number of registered sessions.
+   *
+   * @return the number of sessions
+   */
+  int getSessionCount();
+
+  /**
+   * Returns the number of users with registered sessions.
+   *
+   * @return the number of users
+   */
+  int getUserCount();
+
+  /**
+   * Returns an estimate of the heap retained by every registered session, excluding the session id
+   * and user strings, which are shared with MQTT.Cool.
+   *
+   * @return the estimated bytes per session
+   */
+  long getEstimatedBytesPerSession();
+
+  /**
+   * Returns an estimate of the heap retained by all the registered sessions.
+   *
+   * @return the estimated bytes
+   */
+  long getEstimatedTotalBytes();
+
+  /**
+   * Returns the number of publish and subscribe checks answered by the decision caches of the
+   * sessions.
+   *
+   * @return the number of hits
+   */
+  long getDecisionCacheHits();
+
+  long getDecisionCacheMisses();
+
+  /**
+   * Returns the ratio of the checks answered by the decision caches of the sessions.
+   *
+   * @return the hit ratio, between 0 and 1
+   */
+  double getDecisionCacheHitRatio();
+
+}
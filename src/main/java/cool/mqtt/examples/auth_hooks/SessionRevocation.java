@@ -0,0 +1,185 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * Revokes open sessions through the user index of the {@link SessionRegistry}, so that revoking a
+ * user or a token takes time proportional to the sessions of that user only. Revoking a role visits
+ * every user with open sessions once, but never the sessions of the users not granted the role.
+ *
+ * @param <T> the type of the per-user state held by the sessions
+ */
+final class SessionRevocation<T> implements SessionRevocationMXBean {
+
+  private static final Logger log = Logger.getLogger(SessionRevocation.class.getName());
+
+  private final SessionRegistry<T> sessions;
+
+  private final AuthorizationHandler authorizationHandler;
+
+  /** Returns the current permissions from the per-user state, or {@code null} if not available */
+  private final Function<T, PermissionInfo> permissions;
+
+  /** Invalidates the cached decisions held by the per-user state, or {@code null} if none */
+  private final Consumer<T> invalidation;
+
+  private final LongAdder revokedSessions = new LongAdder();
+
+  /** Notified of the revocations made through the MBean, or {@code null} */
+  private volatile Consumer<Invalidation> listener;
+
+  /**
+   * Creates the revocation support of the specified registry.
+   *
+   * @param sessions the registry of the sessions
+   * @param authorizationHandler the handler, whose cached token validations are invalidated
+   * @param permissions the function returning the current permissions from the per-user state
+   * @param invalidation the action invalidating the decisions cached by the per-user state, or
+   *        {@code null} if none is cached
+   */
+  SessionRevocation(SessionRegistry<T> sessions, AuthorizationHandler authorizationHandler,
+      Function<T, PermissionInfo> permissions, Consumer<T> invalidation) {
+
+    this.sessions = sessions;
+    this.authorizationHandler = authorizationHandler;
+    this.permissions = permissions;
+    this.invalidation = invalidation;
+  }
+
+  /**
+   * Sets the listener notified of the revocations made through the MBean, before they are applied,
+   * for instance to relay them to the other nodes of a cluster.
+   *
+   * @param listener the listener
+   */
+  void setListener(Consumer<Invalidation> listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public int revokeUser(String user) {
+    return revoke(Invalidation.ofUser(user));
+  }
+
+  @Override
+  public int revokeToken(String user, String token) {
+    return revoke(Invalidation.ofToken(user, token));
+  }
+
+  @Override
+  public int revokeRole(String role) {
+    return revoke(Invalidation.ofRole(role));
+  }
+
+  private int revoke(Invalidation invalidation) {
+    Consumer<Invalidation> current = listener;
+    if (current != null) {
+      current.accept(invalidation);
+    }
+    return apply(invalidation);
+  }
+
+  /**
+   * Applies the specified invalidation to the open sessions, without notifying the listener.
+   *
+   * @param invalidation the invalidation, possibly received from another node
+   * @return the number of revoked sessions
+   */
+  int apply(Invalidation invalidation) {
+    String subject = invalidation.getSubject();
+    switch (invalidation.getScope()) {
+      case USER:
+        authorizationHandler.invalidateTokens(subject);
+        return revokeSessions(subject, session -> true, "user '" + subject + "'");
+
+      case TOKEN:
+        String token = invalidation.getToken();
+        authorizationHandler.invalidateToken(subject, token);
+        return revokeSessions(subject, session -> token.equals(session.getToken()),
+            "a token of user '" + subject + "'");
+
+      case ROLE:
+        return revokeMembers(subject);
+
+      default:
+        throw new IllegalArgumentException("Unknown scope " + invalidation.getScope());
+    }
+  }
+
+  private int revokeMembers(String role) {
+    // Users with sessions in more than one shard are visited more than once.
+    Set<String> members = new HashSet<>();
+    sessions.forEachUser(session -> {
+      if (members.contains(session.getUser())) {
+        return;
+      }
+      PermissionInfo current = permissions.apply(session.getTarget());
+      if (current != null && current.hasRole(role)) {
+        members.add(session.getUser());
+      }
+    });
+
+    int revoked = 0;
+    for (String user : members) {
+      revoked += revokeSessions(user, session -> true,
+          "user '" + user + "', granted role '" + role + "'");
+    }
+    return revoked;
+  }
+
+  @Override
+  public long getRevokedSessions() {
+    return revokedSessions.sum();
+  }
+
+  private int revokeSessions(String user, Predicate<SessionRegistry.Session<T>> filter,
+      String description) {
+
+    int[] revoked = new int[1];
+    List<T> targets = new ArrayList<>(1);
+    sessions.forEachSession(user, session -> {
+      if (!session.isRevoked() && filter.test(session)) {
+        session.revoke();
+        revoked[0]++;
+        // The sessions of a user normally share the same state.
+        if (!targets.contains(session.getTarget())) {
+          targets.add(session.getTarget());
+        }
+      }
+    });
+    if (revoked[0] > 0) {
+      // The decisions cached for the user are dropped as well, outside the lock of the index.
+      if (invalidation != null) {
+        targets.forEach(invalidation);
+      }
+      revokedSessions.add(revoked[0]);
+      log.info("Revoked " + revoked[0] + " sessions of " + description);
+    }
+    return revoked[0];
+  }
+}
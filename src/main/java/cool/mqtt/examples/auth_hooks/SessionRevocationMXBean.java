@@ -0,0 +1,62 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+/**
+ * Management interface for revoking open sessions, once the related grants have been revoked on
+ * the backend: the revoked sessions are denied everything from then on.
+ */
+public interface SessionRevocationMXBean {
+
+  /**
+   * Revokes all the open sessions of the specified user, whose token validations are no longer
+   * cached.
+   *
+   * @param user the user
+   * @return the number of revoked sessions
+   */
+  int revokeUser(String user);
+
+  /**
+   * Revokes the open sessions of the specified user opened with the specified token, which is no
+   * longer cached as valid.
+   *
+   * @param user the user
+   * @param token the token
+   * @return the number of revoked sessions
+   */
+  int revokeToken(String user, String token);
+
+  /**
+   * Revokes the open sessions of all the users granted the specified role, so that they have to
+   * open new sessions, checked against their current permissions. Users granted everything are not
+   * tracked by role.
+   *
+   * @param role the name of the role
+   * @return the number of revoked sessions
+   */
+  int revokeRole(String role);
+
+  /**
+   * Returns the number of sessions revoked so far.
+   *
+   * @return the number of revoked sessions
+   */
+  long getRevokedSessions();
+
+}
@@ -0,0 +1,101 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line tool which converts permission definitions into the binary snapshot format mapped by
+ * the {@code file} backend (see {@link MappedPermissionSnapshot}), and verifies such snapshots.
+ *
+ * <pre>
+ * java -cp demo-auth-hooks-2.0.0.jar cool.mqtt.examples.auth_hooks.SnapshotTool \
+ *     convert &lt;source&gt; &lt;target.snapshot&gt;
+ * java -cp demo-auth-hooks-2.0.0.jar cool.mqtt.examples.auth_hooks.SnapshotTool \
+ *     verify &lt;file.snapshot&gt;
+ * </pre>
+ *
+ * where the source is either a {@code .json} or {@code .jsonl} file of the {@code file} backend, or
+ * {@code static} for the hard-coded demo users. Grants of all the configured brokers are kept as
+ * such, so that they follow the broker configuration of the Hook which maps the snapshot.
+ */
+public final class SnapshotTool {
+
+  private SnapshotTool() {}
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 3 && args[0].equals("convert")) {
+      convert(args[1], Paths.get(args[2]));
+    } else if (args.length == 2 && args[0].equals("verify")) {
+      if (!verify(Paths.get(args[1]))) {
+        System.exit(2);
+      }
+    } else {
+      System.err.println("Usage: SnapshotTool convert <source> <target.snapshot>");
+      System.err.println("       SnapshotTool verify <file.snapshot>");
+      System.err.println(
+          "where <source> is a .json or .jsonl file, or 'static' for the demo users");
+      System.exit(1);
+    }
+  }
+
+  private static void convert(String source, Path target) throws IOException {
+    long start = System.nanoTime();
+    BrokerRegistry brokers = new BrokerRegistry(Collections.emptySet());
+    PermissionSnapshot snapshot;
+    if (source.equals("static")) {
+      PermissionSnapshot.Builder builder = new PermissionSnapshot.Builder();
+      new StaticAuthorizationBackend(brokers).exportTo(builder);
+      snapshot = builder.build(0, 0);
+    } else {
+      PermissionStore store = new PermissionStore(brokers, Paths.get(source), null, 0);
+      snapshot = store.getSnapshot();
+      store.shutdown();
+    }
+
+    MappedPermissionSnapshot.write(snapshot, target);
+    System.out.printf("Wrote %d tokens and the permissions of %d users to %s (%d bytes) in %d ms%n",
+        snapshot.getTokenCount(), snapshot.getUserCount(), target, Files.size(target),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  private static boolean verify(Path file) throws IOException {
+    long start = System.nanoTime();
+    MappedPermissionSnapshot snapshot = MappedPermissionSnapshot.open(file, 0,
+        new BrokerRegistry(Collections.emptySet()));
+    long opened = System.nanoTime();
+
+    // Decoding all the users verifies the checksums of all the records.
+    Map<String, String> tokens = new HashMap<>();
+    Map<String, PermissionInfo> permissions = new HashMap<>();
+    snapshot.copyTo(tokens, permissions);
+    System.out.printf("Opened in %d us, decoded %d tokens and the permissions of %d users in %d ms,"
+        + " %d corrupt records%n", TimeUnit.NANOSECONDS.toMicros(opened - start), tokens.size(),
+        permissions.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - opened),
+        snapshot.getCorruptRecords());
+    return snapshot.getCorruptRecords() == 0 && tokens.size() == snapshot.getTokenCount()
+        && permissions.size() == snapshot.getUserCount();
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Backend holding the hard-coded tokens and permissions of the demo users.
+ */
+class StaticAuthorizationBackend implements TokenValidator, PermissionSource {
+
+  /** User-token map, shared with the demo client. */
+  private final ConcurrentHashMap<String, String> tokens = new ConcurrentHashMap<>();
+
+  /** Registry of the allowed MQTT brokers to connect to. */
+  private final BrokerRegistry allowedBrokers;
+
+  /**
+   * User-authorization map, shared with the demo client (the client simply shows these infos in the
+   * interface, does not directly use them).
+   */
+  private Map<String, PermissionInfo> authorizations;
+
+  StaticAuthorizationBackend(BrokerRegistry allowedBrokers) {
+    this.allowedBrokers = allowedBrokers;
+    initUserTokenMap();
+    initAuthorizations();
+  }
+
+  private void initUserTokenMap() {
+    // To be used from all other live demos, as this Hook is deployed into
+    // "https://cloud.mqtt.cool".
+    tokens.put("demouser", "");
+
+    // Expected users from the "Authentication and Authorization" demo client.
+    tokens.put("user1", "ikgdfigdfhihdsih");
+    tokens.put("user2", "slaoejkauekalkew");
+    tokens.put("patient0", "lookihaveanewtokenhere");
+    tokens.put("leto", "powerfultoken");
+    tokens.put("gollum", "toobadforyou");
+    tokens.put("lucky", "srsly");
+  }
+
+  private void initAuthorizations() {
+    Map<String, PermissionInfo> userAuthorizations = new HashMap<>();
+
+    // Authorizations for user "user1":
+    PermissionInfo user1Auth =
+        new DefaultPermissionInfo.AuthorizationBuilder().withConfiguredBrokers(allowedBrokers)
+            .withSubscribeTo("topics/topic_1").withSubscribeTo("topics/topic_2")
+            .withSubscribeTo("topics/topic_3").withPublishingTo("topics/topic_4")
+            .withPublishingTo("topics/topic_5").withPublishingTo("topics/topic_6").build();
+    userAuthorizations.put("user1", user1Auth);
+
+    /*
+     * Authorizations for user "user2", which will be able to open a session but not to connect to
+     * the MQTT broker.
+     */
+    PermissionInfo user2Auth = new DefaultPermissionInfo.AuthorizationBuilder().build();
+    userAuthorizations.put("user2", user2Auth);
+
+    // Authorizations for user "leto", which will be able to authorized to do everything.
+    PermissionInfo letoAuth = DefaultPermissionInfo.AuthorizationBuilder.ALL;
+    userAuthorizations.put("leto", letoAuth);
+
+    // Authorizations for user "gollum", which will only be able to connect to the MQTT brokers.
+    PermissionInfo gollumAuth = new DefaultPermissionInfo.AuthorizationBuilder()
+        .withConfiguredBrokers(allowedBrokers).build();
+    userAuthorizations.put("gollum", gollumAuth);
+
+    // Authorizations for user "lucky":
+    PermissionInfo lucyAuth =
+        new DefaultPermissionInfo.AuthorizationBuilder().withConfiguredBrokers(allowedBrokers)
+            .withPublishingTo("topics/topic_13").withPublishingTo("topics/topic_17").build();
+    userAuthorizations.put("lucky", lucyAuth);
+
+    // Authorizations for user "demouser", used for all other live demos.
+    PermissionInfo demouserAuth = DefaultPermissionInfo.AuthorizationBuilder.ALL;
+    userAuthorizations.put("demouser", demouserAuth);
+
+    // As last note, user "patient0" will never be able to open a new session, therefore
+    // there is no need to specify any PerimissionInfo.
+
+    authorizations = Collections.unmodifiableMap(userAuthorizations);
+  }
+
+  /**
+   * Copies the tokens and permissions of the demo users into the specified snapshot builder.
+   *
+   * @param builder the builder
+   */
+  void exportTo(PermissionSnapshot.Builder builder) {
+    tokens.forEach(builder::withToken);
+    authorizations.forEach(builder::withPermissions);
+  }
+
+  @Override
+  public boolean isValid(String user, String token) {
+    String correctToken = tokens.get(user);
+    return (correctToken != null) && correctToken.equals(token);
+  }
+
+  @Override
+  public PermissionInfo getPermissions(String user) {
+    return authorizations.get(user);
+  }
+
+  /*
+   * The permissions never change.
+   */
+  @Override
+  public boolean isVersioned() {
+    return true;
+  }
+}
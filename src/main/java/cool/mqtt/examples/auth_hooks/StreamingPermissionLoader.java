@@ -0,0 +1,251 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Loads tokens and permissions from a JSON Lines file, one line at a time, so that only a single
+ * line is ever held in parsed form. Every line is an object like the following:
+ *
+ * <pre>
+ * {"user": "user1", "token": "ikgdfigdfhihdsih", "all_brokers": true, "publish": ["a/#"]}
+ * </pre>
+ *
+ * where only {@code "user"} is mandatory and the other members are as described in
+ * {@link JsonPermissions}. The grants of a user may be spread over many lines, which are merged;
+ * when the lines of each user are contiguous (for instance, in a file sorted by user), the
+ * permissions of every user are compiled as soon as their last line is read.
+ *
+ * <p>Lines with {@code "role"} in place of {@code "user"} define roles, in the same way, which the
+ * users listed afterwards can be granted through {@code "roles"}: all the users of the same roles
+ * then share the same permissions.
+ *
+ * <p>A delta file has the same format, with an additional {@code "op"} member which is either
+ * {@code "add"} (the default) or {@code "revoke"}. A revoke line removes the listed token and
+ * grants, with {@code {"all": true}} removing all the grants, and a revoke line with no grant at
+ * all removing the user altogether. The restrictions on the published messages are only read from
+ * add lines, each replacing the restrictions it lists, as are the granted roles. Only the users
+ * listed in a delta are rebuilt, all the others keep sharing their permissions with the previous
+ * snapshot. Roles can't be changed by a delta, as the users granted them are not rebuilt.
+ */
+final class StreamingPermissionLoader {
+
+  /** Registry of the configured brokers, granted by {@code "all_brokers"} */
+  private final BrokerRegistry configuredBrokers;
+
+  /** The snapshot being built */
+  private final PermissionSnapshot.Builder target;
+
+  /** The user (or role) whose lines are being read */
+  private String user;
+
+  /** Whether the lines being read define a role */
+  private boolean role;
+
+  /** Builder of the permissions of the current user, or {@code null} if none granted so far */
+  private DefaultPermissionInfo.AuthorizationBuilder permissions;
+
+  /** Whether the current user has been granted everything */
+  private boolean all;
+
+  /**
+   * Creates a loader updating the specified snapshot builder.
+   *
+   * @param configuredBrokers the registry of the configured brokers
+   * @param target the builder of the snapshot, either empty or initialized with the previous one
+   */
+  StreamingPermissionLoader(BrokerRegistry configuredBrokers, PermissionSnapshot.Builder target) {
+    this.configuredBrokers = configuredBrokers;
+    this.target = target;
+  }
+
+  /**
+   * Reads the specified file, either a full file or a delta.
+   *
+   * @param file the file
+   * @param delta whether the file is a delta, whose lines may revoke grants
+   * @throws IOException if the file can't be read or contains an invalid line
+   */
+  void read(Path file, boolean delta) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      int number = 0;
+      while ((line = reader.readLine()) != null) {
+        number++;
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        try {
+          readLine(Json.parseObject(line), delta);
+        } catch (IOException | IllegalArgumentException e) {
+          throw new IOException(file + ", line " + number + ": " + e.getMessage(), e);
+        }
+      }
+    }
+    complete();
+  }
+
+  private void readLine(Map<String, Object> line, boolean delta) throws IOException {
+    boolean lineRole = !line.containsKey("user") && line.containsKey("role");
+    Object lineUser = line.get(lineRole ? "role" : "user");
+    if (!(lineUser instanceof String)) {
+      throw new IOException("String expected for '" + (lineRole ? "role" : "user") + "'");
+    }
+    if (lineRole && (delta || line.containsKey("token"))) {
+      throw new IOException(delta ? "Roles can't be changed by a delta"
+          : "Roles can't have a token");
+    }
+    if (!lineUser.equals(user) || lineRole != role) {
+      complete();
+      begin((String) lineUser, lineRole);
+    }
+
+    Object op = delta ? line.getOrDefault("op", "add") : "add";
+    if ("add".equals(op)) {
+      add(line);
+    } else if ("revoke".equals(op)) {
+      revoke(line);
+    } else {
+      throw new IOException("Unknown op '" + op + "'");
+    }
+  }
+
+  private void begin(String nextUser, boolean nextRole) {
+    user = nextUser;
+    role = nextRole;
+    PermissionInfo current =
+        nextRole ? target.getRole(nextUser) : target.getPermissions(nextUser);
+    all = (current == DefaultPermissionInfo.AuthorizationBuilder.ALL);
+    permissions = (current != null && !all)
+        ? new DefaultPermissionInfo.AuthorizationBuilder().withPermissions(current) : null;
+  }
+
+  private void add(Map<String, Object> line) throws IOException {
+    Object token = line.get("token");
+    if (token instanceof String) {
+      target.withToken(user, (String) token);
+    }
+
+    if (Boolean.TRUE.equals(line.get("all"))) {
+      all = true;
+      permissions = null;
+    }
+    if (all) {
+      return; // Nothing more to grant
+    }
+
+    if (line.containsKey("roles") && JsonPermissions.grantRoles(line, target::getRole,
+        permissions())) {
+      all = true;
+      permissions = null;
+      return;
+    }
+    if (Boolean.TRUE.equals(line.get("all_brokers"))) {
+      permissions().withConfiguredBrokers(configuredBrokers);
+    }
+    for (String broker : JsonPermissions.strings(line, "brokers")) {
+      permissions().withBroker(broker);
+    }
+    for (String topic : JsonPermissions.strings(line, "subscribe")) {
+      permissions().withSubscribeTo(topic);
+    }
+    for (String topic : JsonPermissions.strings(line, "publish")) {
+      permissions().withPublishingTo(topic);
+    }
+    if (JsonPermissions.hasPublishPolicy(line)) {
+      JsonPermissions.decodePublishPolicy(line, permissions());
+    }
+  }
+
+  private void revoke(Map<String, Object> line) throws IOException {
+    if (line.size() == 2) {
+      // Only "op" and "user": the user is removed altogether.
+      target.withoutToken(user);
+      target.withoutPermissions(user);
+      all = false;
+      permissions = null;
+      return;
+    }
+
+    if (line.get("token") instanceof String) {
+      target.withoutToken(user);
+    }
+
+    if (Boolean.TRUE.equals(line.get("all"))) {
+      all = false;
+      permissions = new DefaultPermissionInfo.AuthorizationBuilder();
+      return;
+    }
+
+    boolean grants = line.containsKey("all_brokers") || line.containsKey("brokers")
+        || line.containsKey("subscribe") || line.containsKey("publish");
+    if (!grants || (permissions == null && !all)) {
+      return; // Nothing to revoke
+    }
+    if (all) {
+      throw new IOException("Single grants can't be revoked from user '" + user
+          + "', who is granted everything");
+    }
+
+    if (Boolean.TRUE.equals(line.get("all_brokers"))) {
+      permissions.withoutConfiguredBrokers();
+    }
+    for (String broker : JsonPermissions.strings(line, "brokers")) {
+      permissions.withoutBroker(broker);
+    }
+    for (String topic : JsonPermissions.strings(line, "subscribe")) {
+      permissions.withoutSubscribeTo(topic);
+    }
+    for (String topic : JsonPermissions.strings(line, "publish")) {
+      permissions.withoutPublishingTo(topic);
+    }
+  }
+
+  private DefaultPermissionInfo.AuthorizationBuilder permissions() {
+    if (permissions == null) {
+      permissions = new DefaultPermissionInfo.AuthorizationBuilder();
+    }
+    return permissions;
+  }
+
+  /**
+   * Compiles the permissions of the current user, releasing the related builder.
+   */
+  private void complete() {
+    if (user == null) {
+      return;
+    }
+    PermissionInfo built = all ? DefaultPermissionInfo.AuthorizationBuilder.ALL
+        : (permissions != null) ? permissions.build() : null;
+    if (built != null && role) {
+      target.withRole(user, built);
+    } else if (built != null) {
+      target.withPermissions(user, built);
+    }
+    user = null;
+    role = false;
+    permissions = null;
+    all = false;
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Service Provider Interface for validating the tokens supplied by users when opening a session.
+ */
+public interface TokenValidator {
+
+  /**
+   * Asks whether the specified token is (still) valid for the specified user.
+   *
+   * @param user the user
+   * @param token the token, supplied as password
+   * @return {@code true} if the token is valid, {@code false} otherwise
+   * @throws IOException if the validation service could not be contacted
+   */
+  boolean isValid(String user, String token) throws IOException;
+
+  /**
+   * Validates many user-token pairs at once. The default implementation validates them one by one,
+   * backends supporting bulk requests should override it.
+   *
+   * @param credentials the user-token pairs
+   * @return the validation outcome of every supplied pair
+   * @throws IOException if the validation service could not be contacted
+   */
+  default Map<Credentials, Boolean> validateAll(Collection<Credentials> credentials)
+      throws IOException {
+
+    Map<Credentials, Boolean> results = new HashMap<>();
+    for (Credentials pair : credentials) {
+      results.put(pair, isValid(pair.getUser(), pair.getToken()));
+    }
+    return results;
+  }
+
+}
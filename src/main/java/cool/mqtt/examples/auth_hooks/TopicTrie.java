@@ -0,0 +1,482 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Immutable trie of MQTT topic filters, one node per topic level, which answers whether a topic
+ * name is matched by, or a topic filter is a subset of, any of the filters it contains.
+ * <p>
+ * Lookups take time proportional to the number of levels of the topic (plus the branches opened by
+ * the {@code +} wildcards of the contained filters) and do not allocate: levels are compared in
+ * place against the interned segments stored in the nodes, which are shared by all the tries.
+ */
+final class TopicTrie {
+
+  /**
+   * Pool of the topic segments, shared by all the tries, which drops them once no trie refers to
+   * them any longer
+   */
+  private static final WeakInterner SEGMENTS = new WeakInterner();
+
+  /** Trie containing no filter at all. */
+  static final TopicTrie EMPTY = new Builder().build();
+
+  private final Node root;
+
+  private final int size;
+
+  private TopicTrie(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Returns the number of filters contained in this trie.
+   *
+   * @return the number of filters
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Asks whether the specified topic name is matched by any of the contained filters.
+   *
+   * @param topic the topic name, which can't contain wildcards
+   * @return {@code true} if the topic name is matched, {@code false} otherwise
+   */
+  boolean matches(String topic) {
+    if (topic == null || topic.isEmpty() || topic.indexOf('+') >= 0 || topic.indexOf('#') >= 0) {
+      return false;
+    }
+    return matches(root, topic, 0);
+  }
+
+  /**
+   * Asks whether every topic name matched by the specified topic filter is also matched by any of
+   * the contained filters.
+   *
+   * @param filter the topic filter, which can contain wildcards
+   * @return {@code true} if the topic filter is covered, {@code false} otherwise
+   */
+  boolean covers(String filter) {
+    if (filter == null || filter.isEmpty()) {
+      return false;
+    }
+    return covers(root, filter, 0);
+  }
+
+  /**
+   * Performs the specified action for every contained filter.
+   *
+   * @param action the action to perform
+   */
+  void forEach(Consumer<String> action) {
+    forEach(root, new StringBuilder(), 0, action);
+  }
+
+  /**
+   * Writes this trie in binary form: its size followed by its nodes in pre-order, each made of a
+   * flag byte, the number of literal children, every literal child (index of its segment and node)
+   * and the single-level child, if any.
+   *
+   * @param out the output
+   * @param segmentIndex the function mapping every segment to its index in a string table
+   * @throws IOException if the output can't be written
+   */
+  void writeTo(DataOutput out, ToIntFunction<String> segmentIndex) throws IOException {
+    out.writeInt(size);
+    write(root, out, segmentIndex);
+  }
+
+  /**
+   * Reads a trie written by {@link #writeTo(DataOutput, ToIntFunction)}.
+   *
+   * @param in the buffer, positioned at the start of the trie and then moved past its end
+   * @param segments the string table
+   * @return the trie
+   */
+  static TopicTrie readFrom(ByteBuffer in, String[] segments) {
+    int size = in.getInt();
+    return new TopicTrie(read(in, segments), size);
+  }
+
+  private static void write(Node node, DataOutput out, ToIntFunction<String> segmentIndex)
+      throws IOException {
+
+    out.writeByte((node.terminal ? 1 : 0) | (node.multiLevel ? 2 : 0)
+        | (node.singleLevel != null ? 4 : 0));
+    int literals = 0;
+    for (String key : node.keys) {
+      if (key != null) {
+        literals++;
+      }
+    }
+    out.writeInt(literals);
+    for (int i = 0; i < node.keys.length; i++) {
+      if (node.keys[i] != null) {
+        out.writeInt(segmentIndex.applyAsInt(node.keys[i]));
+        write(node.children[i], out, segmentIndex);
+      }
+    }
+    if (node.singleLevel != null) {
+      write(node.singleLevel, out, segmentIndex);
+    }
+  }
+
+  private static Node read(ByteBuffer in, String[] segments) {
+    int flags = in.get();
+    int count = in.getInt();
+    Map<String, Node> literals = (count == 0) ? Collections.emptyMap() : new HashMap<>(count * 2);
+    for (int i = 0; i < count; i++) {
+      String segment = intern(segments[in.getInt()]);
+      literals.put(segment, read(in, segments));
+    }
+    Node singleLevel = ((flags & 4) != 0) ? read(in, segments) : null;
+    return new Node(literals, singleLevel, (flags & 2) != 0, (flags & 1) != 0);
+  }
+
+  private static boolean matches(Node node, String topic, int start) {
+    if (start < 0) {
+      // The topic ends here: "a/#" matches "a" as well.
+      return node.terminal || node.multiLevel;
+    }
+
+    // Wildcards at the first level do not match topic names starting with '$'.
+    boolean wildcards = !(start == 0 && topic.charAt(0) == '$');
+    if (wildcards && node.multiLevel) {
+      return true;
+    }
+
+    int end = levelEnd(topic, start);
+    int next = (end < topic.length()) ? end + 1 : -1;
+
+    Node child = node.find(topic, start, end);
+    if (child != null && matches(child, topic, next)) {
+      return true;
+    }
+    return wildcards && node.singleLevel != null && matches(node.singleLevel, topic, next);
+  }
+
+  private static boolean covers(Node node, String filter, int start) {
+    if (start < 0) {
+      return node.terminal || node.multiLevel;
+    }
+
+    boolean wildcards = !(start == 0 && filter.charAt(0) == '$');
+    if (wildcards && node.multiLevel) {
+      return true;
+    }
+
+    int end = levelEnd(filter, start);
+    int next = (end < filter.length()) ? end + 1 : -1;
+
+    if (end - start == 1) {
+      char c = filter.charAt(start);
+      if (c == '#') {
+        // Only a multi-level wildcard, already checked above, covers a multi-level wildcard.
+        return false;
+      }
+      if (c == '+') {
+        // Only a single-level wildcard covers a single-level wildcard.
+        return node.singleLevel != null && covers(node.singleLevel, filter, next);
+      }
+    }
+
+    Node child = node.find(filter, start, end);
+    if (child != null && covers(child, filter, next)) {
+      return true;
+    }
+    return wildcards && node.singleLevel != null && covers(node.singleLevel, filter, next);
+  }
+
+  private static int levelEnd(String topic, int start) {
+    int end = topic.indexOf('/', start);
+    return (end < 0) ? topic.length() : end;
+  }
+
+  private static void forEach(Node node, StringBuilder prefix, int depth,
+      Consumer<String> action) {
+
+    int length = prefix.length();
+    if (node.terminal && depth > 0) {
+      action.accept(prefix.toString());
+    }
+    if (node.multiLevel) {
+      action.accept(append(prefix, length, depth, "#").toString());
+    }
+    if (node.singleLevel != null) {
+      forEach(node.singleLevel, append(prefix, length, depth, "+"), depth + 1, action);
+    }
+    for (int i = 0; i < node.keys.length; i++) {
+      if (node.keys[i] != null) {
+        forEach(node.children[i], append(prefix, length, depth, node.keys[i]), depth + 1, action);
+      }
+    }
+    prefix.setLength(length);
+  }
+
+  private static StringBuilder append(StringBuilder prefix, int length, int depth,
+      String segment) {
+
+    prefix.setLength(length);
+    if (depth > 0) {
+      prefix.append('/');
+    }
+    return prefix.append(segment);
+  }
+
+  private static String intern(String segment) {
+    return SEGMENTS.intern(segment);
+  }
+
+  /**
+   * Immutable node of the trie, whose literal children are kept in an open-addressing table.
+   */
+  private static final class Node {
+
+    private static final String[] NO_KEYS = new String[0];
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /** Interned segments of the literal children, or {@code null} for empty slots */
+    final String[] keys;
+
+    final Node[] children;
+
+    /** Child reached through a '+' level, if any */
+    final Node singleLevel;
+
+    /** Whether a filter ends with a '#' level right below this node */
+    final boolean multiLevel;
+
+    /** Whether a filter ends at this node */
+    final boolean terminal;
+
+    Node(Map<String, Node> literals, Node singleLevel, boolean multiLevel, boolean terminal) {
+      this.singleLevel = singleLevel;
+      this.multiLevel = multiLevel;
+      this.terminal = terminal;
+      if (literals.isEmpty()) {
+        this.keys = NO_KEYS;
+        this.children = NO_CHILDREN;
+        return;
+      }
+
+      int capacity = Integer.highestOneBit(literals.size() * 2 - 1) << 1;
+      this.keys = new String[capacity];
+      this.children = new Node[capacity];
+      for (Map.Entry<String, Node> entry : literals.entrySet()) {
+        int i = spread(entry.getKey().hashCode()) & (capacity - 1);
+        while (keys[i] != null) {
+          i = (i + 1) & (capacity - 1);
+        }
+        keys[i] = entry.getKey();
+        children[i] = entry.getValue();
+      }
+    }
+
+    /**
+     * Finds the literal child matching the level of {@code topic} between {@code start}
+     * (inclusive) and {@code end} (exclusive).
+     */
+    Node find(String topic, int start, int end) {
+      if (keys.length == 0) {
+        return null;
+      }
+
+      // Same hash as String.hashCode() of the level, without extracting it.
+      int hash = 0;
+      for (int i = start; i < end; i++) {
+        hash = 31 * hash + topic.charAt(i);
+      }
+
+      int length = end - start;
+      int mask = keys.length - 1;
+      for (int i = spread(hash) & mask;; i = (i + 1) & mask) {
+        String key = keys[i];
+        if (key == null) {
+          return null;
+        }
+        if (key.length() == length && topic.regionMatches(start, key, 0, length)) {
+          return children[i];
+        }
+      }
+    }
+
+    private static int spread(int hash) {
+      return hash ^ (hash >>> 16);
+    }
+  }
+
+  /**
+   * Builder class for making instances of {@code TopicTrie}.
+   */
+  static final class Builder {
+
+    /** Mutable counterpart of {@code Node} */
+    private static final class BuilderNode {
+
+      final Map<String, BuilderNode> literals = new HashMap<>();
+
+      BuilderNode singleLevel;
+
+      boolean multiLevel;
+
+      boolean terminal;
+
+      Node freeze() {
+        // Branches left empty by removed filters are dropped.
+        Map<String, Node> frozen = new HashMap<>();
+        literals.forEach((segment, child) -> {
+          if (!child.isEmpty()) {
+            frozen.put(segment, child.freeze());
+          }
+        });
+        return new Node(frozen,
+            (singleLevel != null && !singleLevel.isEmpty()) ? singleLevel.freeze() : null,
+            multiLevel, terminal);
+      }
+
+      boolean isEmpty() {
+        if (terminal || multiLevel || (singleLevel != null && !singleLevel.isEmpty())) {
+          return false;
+        }
+        for (BuilderNode child : literals.values()) {
+          if (!child.isEmpty()) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }
+
+    private final BuilderNode root = new BuilderNode();
+
+    private int size;
+
+    /**
+     * Adds the specified topic filter.
+     *
+     * @param filter the topic filter, which can contain wildcards
+     * @return a reference to this object
+     */
+    Builder add(String filter) {
+      BuilderNode node = root;
+      List<String> segments = split(filter);
+      for (int i = 0; i < segments.size(); i++) {
+        String segment = segments.get(i);
+        if (segment.equals("#")) {
+          // A multi-level wildcard is always the last level.
+          if (!node.multiLevel) {
+            node.multiLevel = true;
+            size++;
+          }
+          return this;
+        }
+
+        if (segment.equals("+")) {
+          if (node.singleLevel == null) {
+            node.singleLevel = new BuilderNode();
+          }
+          node = node.singleLevel;
+        } else {
+          node = node.literals.computeIfAbsent(intern(segment), s -> new BuilderNode());
+        }
+      }
+
+      if (!node.terminal) {
+        node.terminal = true;
+        size++;
+      }
+      return this;
+    }
+
+    /**
+     * Removes the specified topic filter, if previously added. Filters covered by it are not
+     * affected: removing {@code a/#} does not remove {@code a/b}.
+     *
+     * @param filter the topic filter, which can contain wildcards
+     * @return a reference to this object
+     */
+    Builder remove(String filter) {
+      BuilderNode node = root;
+      List<String> segments = split(filter);
+      for (int i = 0; i < segments.size() && node != null; i++) {
+        String segment = segments.get(i);
+        if (segment.equals("#")) {
+          if (node.multiLevel) {
+            node.multiLevel = false;
+            size--;
+          }
+          return this;
+        }
+        node = segment.equals("+") ? node.singleLevel : node.literals.get(segment);
+      }
+
+      if (node != null && node.terminal) {
+        node.terminal = false;
+        size--;
+      }
+      return this;
+    }
+
+    /**
+     * Adds all the filters contained in the specified trie.
+     *
+     * @param trie the trie
+     * @return a reference to this object
+     */
+    Builder addAll(TopicTrie trie) {
+      trie.forEach(this::add);
+      return this;
+    }
+
+    /**
+     * Builds a new instance of {@code TopicTrie} containing all the added filters.
+     *
+     * @return an instance of {@code TopicTrie}
+     */
+    TopicTrie build() {
+      return new TopicTrie(root.freeze(), size);
+    }
+
+    private static List<String> split(String filter) {
+      List<String> segments = new ArrayList<>();
+      int start = 0;
+      int end;
+      while ((end = filter.indexOf('/', start)) >= 0) {
+        segments.add(filter.substring(start, end));
+        start = end + 1;
+      }
+      segments.add(filter.substring(start));
+      return segments;
+    }
+  }
+}
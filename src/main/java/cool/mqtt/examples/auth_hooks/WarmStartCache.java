@@ -0,0 +1,247 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Warm-start file of {@link AuthHookWithAuthCache}: the permissions cached for the connected users
+ * are written, along with the time they were retrieved, to a local binary snapshot (see
+ * {@link MappedPermissionSnapshot}) at shutdown and periodically. Upon the next start the file is
+ * mapped, and decoded lazily, so that the users returning after a restart are served at once while
+ * their permissions are retrieved again in the background, instead of all waiting on the backend
+ * when it is busiest.
+ * <p>
+ * Permissions older than the configured maximum age are never served. The permissions of every
+ * user are taken from the file at most once, as later sessions are served by the live cache.
+ */
+final class WarmStartCache {
+
+  private static final Logger log = Logger.getLogger(WarmStartCache.class.getName());
+
+  /** Permissions of a user, with the time they were retrieved */
+  static final class Entry {
+
+    private final PermissionInfo permissions;
+
+    private final long fetchTime;
+
+    Entry(PermissionInfo permissions, long fetchTime) {
+      this.permissions = permissions;
+      this.fetchTime = fetchTime;
+    }
+
+    PermissionInfo getPermissions() {
+      return permissions;
+    }
+
+    long getFetchTime() {
+      return fetchTime;
+    }
+  }
+
+  private final Path file;
+
+  /** Registry of the configured brokers, granted to the users with "all_brokers" */
+  private final BrokerRegistry configuredBrokers;
+
+  /** Maximum age of the permissions served from the file */
+  private final long maxAgeMillis;
+
+  /** Interval between the periodic writes, or 0 to write at shutdown only */
+  private final long intervalMillis;
+
+  /** The file mapped at start, dropped once too old to be served */
+  private volatile MappedPermissionSnapshot previous;
+
+  /** Users whose permissions were already taken from the file */
+  private final Set<String> taken = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder hits = new LongAdder();
+
+  /** Source of the permissions currently cached, supplied by {@link #start} */
+  private volatile Supplier<Map<String, Entry>> cache;
+
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Creates the warm-start support configured by the {@code warm_start.*} settings.
+   *
+   * @param settings the Hook settings
+   * @param configuredBrokers the registry of the configured brokers
+   */
+  WarmStartCache(HookSettings settings, BrokerRegistry configuredBrokers) {
+    this.file = settings.getPath("warm_start.file", "auth_hook_warm_start.snapshot");
+    this.configuredBrokers = configuredBrokers;
+    this.maxAgeMillis = settings.getLong("warm_start.max_age_millis", 3_600_000);
+    this.intervalMillis = settings.getLong("warm_start.interval_millis", 300_000);
+  }
+
+  /**
+   * Maps the file written before the last shutdown, if any and not too old. A file which can't be
+   * read is ignored, as the permissions are then retrieved from the backend as usual.
+   */
+  void open() {
+    if (!Files.exists(file)) {
+      return;
+    }
+    try {
+      MappedPermissionSnapshot snapshot =
+          MappedPermissionSnapshot.open(file, 0, configuredBrokers);
+      if (System.currentTimeMillis() - snapshot.getCreationTime() > maxAgeMillis) {
+        log.info("Ignoring the warm-start file " + file + ", older than the maximum age");
+        return;
+      }
+      previous = snapshot;
+      log.info("Warm start with the permissions of " + snapshot.getUserCount() + " users from "
+          + file);
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Can't read the warm-start file " + file, e);
+    }
+  }
+
+  /**
+   * Takes the permissions of the specified user from the file mapped at start.
+   *
+   * @param user the user
+   * @return the permissions, or {@code null} if not available, too old, or already taken
+   */
+  Entry take(String user) {
+    MappedPermissionSnapshot snapshot = previous;
+    if (snapshot == null || !taken.add(user)) {
+      return null;
+    }
+    PermissionInfo permissions = snapshot.getPermissions(user);
+    long fetchTime = snapshot.getFetchTime(user);
+    if (permissions == null || System.currentTimeMillis() - fetchTime > maxAgeMillis) {
+      return null;
+    }
+    hits.increment();
+    return new Entry(permissions, fetchTime);
+  }
+
+  /**
+   * Starts writing the permissions supplied by the specified cache periodically, and at
+   * {@link #close}.
+   *
+   * @param cache supplies the permissions currently cached, with the time they were retrieved
+   */
+  synchronized void start(Supplier<Map<String, Entry>> cache) {
+    this.cache = cache;
+    if (intervalMillis > 0) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "WarmStartCache-Writer");
+        thread.setDaemon(true);
+        return thread;
+      });
+      scheduler.scheduleWithFixedDelay(this::save, intervalMillis, intervalMillis,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Writes the permissions currently cached, along with the ones still fresh in the file mapped at
+   * start and not taken yet, so that the users not returned meanwhile are not forgotten.
+   */
+  synchronized void save() {
+    Supplier<Map<String, Entry>> current = cache;
+    if (current == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    Map<String, Entry> entries = new HashMap<>();
+    MappedPermissionSnapshot snapshot = previous;
+    if (snapshot != null && now - snapshot.getCreationTime() > maxAgeMillis) {
+      previous = null; // Nothing left to serve
+    } else if (snapshot != null) {
+      addUntaken(snapshot, now, entries);
+    }
+    entries.putAll(current.get());
+
+    // Only the permissions built by an AuthorizationBuilder can be written.
+    PermissionSnapshot.Builder builder = new PermissionSnapshot.Builder();
+    entries.forEach((user, entry) -> {
+      if (entry.permissions instanceof DefaultPermissionInfo) {
+        builder.withPermissions(user, entry.permissions);
+      }
+    });
+    try {
+      Files.createDirectories(file.toAbsolutePath().getParent());
+      MappedPermissionSnapshot.write(builder.build(0, 0), file, user -> {
+        Entry entry = entries.get(user);
+        return (entry != null) ? entry.fetchTime : 0;
+      });
+    } catch (IOException | RuntimeException e) {
+      log.log(Level.WARNING, "Can't write the warm-start file " + file, e);
+    }
+  }
+
+  private void addUntaken(MappedPermissionSnapshot snapshot, long now,
+      Map<String, Entry> entries) {
+
+    Map<String, PermissionInfo> permissions = new HashMap<>();
+    snapshot.copyTo(new HashMap<>(), permissions);
+    permissions.forEach((user, permissionInfo) -> {
+      long fetchTime = snapshot.getFetchTime(user);
+      if (!taken.contains(user) && now - fetchTime <= maxAgeMillis) {
+        entries.put(user, new Entry(permissionInfo, fetchTime));
+      }
+    });
+  }
+
+  /**
+   * Adds the counters to the specified metrics.
+   *
+   * @param metrics the metrics
+   */
+  void addTo(HookMetrics metrics) {
+    metrics.addCounter("warm_start_hits",
+        "Users served at once with the permissions saved before the last restart.",
+        this::getHits);
+  }
+
+  long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * Stops the periodic writes and writes the permissions currently cached a last time.
+   */
+  void close() {
+    synchronized (this) {
+      if (scheduler != null) {
+        scheduler.shutdownNow();
+        scheduler = null;
+      }
+    }
+    save();
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of canonical strings, which only holds them weakly: the strings no longer referenced
+ * elsewhere (for instance, the topic segments of the permissions dropped by a reload) are removed
+ * on the next interning, instead of being kept for the life of the JVM.
+ */
+final class WeakInterner {
+
+  /**
+   * Weak reference to a pooled string, used both as key and as value. A cleared reference is only
+   * equal to itself, so that it can still be removed.
+   */
+  private static final class Ref extends WeakReference<String> {
+
+    private final int hash;
+
+    Ref(String string, ReferenceQueue<String> queue) {
+      super(string, queue);
+      this.hash = string.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Ref)) {
+        return false;
+      }
+      String string = get();
+      return string != null && string.equals(((Ref) obj).get());
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private final ConcurrentHashMap<Ref, Ref> pool = new ConcurrentHashMap<>();
+
+  private final ReferenceQueue<String> collected = new ReferenceQueue<>();
+
+  /**
+   * Returns the canonical instance of the specified string, which becomes canonical if none is
+   * pooled.
+   *
+   * @param string the string
+   * @return the canonical instance
+   */
+  String intern(String string) {
+    purge();
+    Ref ref = new Ref(string, collected);
+    while (true) {
+      Ref pooled = pool.putIfAbsent(ref, ref);
+      if (pooled == null) {
+        return string;
+      }
+      String interned = pooled.get();
+      if (interned != null) {
+        return interned;
+      }
+      // Collected right after being matched: it no longer matches anything, so we retry.
+    }
+  }
+
+  private void purge() {
+    Ref ref;
+    while ((ref = (Ref) collected.poll()) != null) {
+      pool.remove(ref, ref);
+    }
+  }
+}
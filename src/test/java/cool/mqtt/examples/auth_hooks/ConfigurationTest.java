@@ -0,0 +1,89 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConfigurationTest {
+
+  /** Configuration directory of the Hooks, next to the "conf" directory */
+  private File hookDir;
+
+  private Path configurationFile;
+
+  @Before
+  public void createDirectories() throws IOException {
+    Path root = Files.createTempDirectory("configuration-test");
+    hookDir = Files.createDirectory(root.resolve("hook")).toFile();
+    configurationFile =
+        Files.createDirectory(root.resolve("conf")).resolve("brokers_configuration.xml");
+  }
+
+  private void write(String params) throws IOException {
+    Files.write(configurationFile,
+        ("<mqttcool_conf>" + params + "</mqttcool_conf>").getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void readsTheTextOfParamsWithNestedElements() throws IOException {
+    write("<param name=\"a.server_address\">tcp://<!-- local -->a:1883</param>"
+        + "<param name=\"auth_hook.cache.ttl\"><value>10</value>00</param>");
+
+    Configuration configuration = Configuration.of(hookDir);
+    try {
+      assertEquals(Collections.singleton("tcp://a:1883"),
+          configuration.retrieveBrokerAddresses());
+      assertEquals("1000", configuration.retrieveHookSettings().getString("cache.ttl", null));
+    } finally {
+      configuration.close();
+    }
+  }
+
+  @Test
+  public void isSharedUntilReleasedByAllItsHooks() throws IOException {
+    write("<param name=\"a.server_address\">tcp://a:1883</param>");
+
+    Configuration first = Configuration.of(hookDir);
+    Configuration second = Configuration.of(hookDir);
+    assertSame(first, second);
+
+    first.close();
+    Configuration third = Configuration.of(hookDir);
+    assertSame(first, third);
+
+    second.close();
+    third.close();
+    Configuration reopened = Configuration.of(hookDir);
+    try {
+      assertNotSame(first, reopened);
+    } finally {
+      reopened.close();
+    }
+  }
+}
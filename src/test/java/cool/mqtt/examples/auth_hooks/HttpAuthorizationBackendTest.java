@@ -0,0 +1,148 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpAuthorizationBackendTest {
+
+  private StubHttpServer server;
+
+  @Before
+  public void startServer() throws IOException {
+    server = new StubHttpServer();
+  }
+
+  @After
+  public void stopServer() {
+    server.close();
+  }
+
+  private HttpAuthorizationBackend newBackend(int maxConnections) {
+    Map<String, String> settings = new HashMap<>();
+    settings.put("backend.http.url", server.getUrl());
+    settings.put("backend.http.max_connections", String.valueOf(maxConnections));
+    return new HttpAuthorizationBackend(new HookSettings(settings),
+        new BrokerRegistry(Collections.singleton("tcp://broker:1883")));
+  }
+
+  @Test
+  public void decodesThePermissionsOfKnownUsers() throws IOException {
+    server.handle("/permissions/", exchange -> StubHttpServer.respond(exchange, 200,
+        "{\"all_brokers\": true, \"publish\": [\"fleet/42/#\"]}"));
+
+    PermissionInfo permissions = newBackend(1).getPermissions("user1");
+    assertTrue(permissions.allowConnectionTo("tcp://broker:1883"));
+    assertTrue(permissions.allowPublishTo("fleet/42/position"));
+    assertFalse(permissions.allowPublishTo("fleet/43/position"));
+  }
+
+  @Test
+  public void answersUnknownUsersWithNoPermissions() throws IOException {
+    server.handle("/permissions/", exchange -> StubHttpServer.respond(exchange, 404, null));
+
+    assertNull(newBackend(1).getPermissions("nobody"));
+  }
+
+  @Test
+  public void reportsServerErrors() {
+    server.handle("/permissions/", exchange -> StubHttpServer.respond(exchange, 503,
+        "{\"error\": \"unavailable\"}"));
+    server.handle("/tokens/validate", exchange -> StubHttpServer.respond(exchange, 500, null));
+
+    HttpAuthorizationBackend backend = newBackend(1);
+    assertThrows(IOException.class, () -> backend.getPermissions("user1"));
+    assertThrows(IOException.class, () -> backend.isValid("user1", "token"));
+  }
+
+  @Test
+  public void validatesTokens() throws IOException {
+    server.handle("/tokens/validate", exchange -> StubHttpServer.respond(exchange, 200,
+        "{\"valid\": true}"));
+
+    assertTrue(newBackend(1).isValid("user1", "token"));
+  }
+
+  @Test
+  public void reusesTheConnections() throws IOException {
+    server.handle("/permissions/", exchange -> StubHttpServer.respond(exchange, 200, "{}"));
+    server.handle("/tokens/validate", exchange -> StubHttpServer.respond(exchange, 200,
+        "{\"valid\": false}"));
+
+    HttpAuthorizationBackend backend = newBackend(1);
+    for (int i = 0; i < 10; i++) {
+      backend.getPermissions("user" + i);
+      assertFalse(backend.isValid("user" + i, "token"));
+    }
+    // Error responses are drained as well, so they don't cost a connection.
+    server.handle("/permissions/unknown", exchange -> StubHttpServer.respond(exchange, 404, null));
+    assertNull(backend.getPermissions("unknown"));
+    assertEquals(1, server.getConnections());
+  }
+
+  @Test(timeout = 10_000)
+  public void boundsTheConcurrentConnections() throws Exception {
+    AtomicInteger active = new AtomicInteger();
+    AtomicInteger maxActive = new AtomicInteger();
+    server.handle("/permissions/", exchange -> {
+      maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      active.decrementAndGet();
+      StubHttpServer.respond(exchange, 200, "{}");
+    });
+
+    HttpAuthorizationBackend backend = newBackend(2);
+    ExecutorService clients = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<PermissionInfo>> lookups = new ArrayList<>();
+      for (int i = 0; i < 32; i++) {
+        String user = "user" + i;
+        lookups.add(clients.submit(() -> backend.getPermissions(user)));
+      }
+      for (Future<PermissionInfo> lookup : lookups) {
+        lookup.get();
+      }
+    } finally {
+      clients.shutdownNow();
+    }
+    assertEquals(2, maxActive.get());
+    assertTrue(server.getConnections() <= 2);
+  }
+}
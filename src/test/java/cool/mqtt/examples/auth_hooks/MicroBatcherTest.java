@@ -0,0 +1,122 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class MicroBatcherTest {
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  private final AtomicInteger requests = new AtomicInteger();
+
+  @After
+  public void stopExecutors() {
+    scheduler.shutdownNow();
+    executor.shutdownNow();
+  }
+
+  private Map<String, String> upperCase(List<String> keys) {
+    requests.incrementAndGet();
+    Map<String, String> values = new HashMap<>();
+    keys.forEach(key -> values.put(key, key.toUpperCase()));
+    return values;
+  }
+
+  private static void assertRejected(CompletableFuture<String> future) throws Exception {
+    try {
+      future.get(1, TimeUnit.SECONDS);
+      fail("Lookup not rejected");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+  }
+
+  @Test
+  public void resolvesTheKeysOfAWindowInOneRequest() throws Exception {
+    MicroBatcher<String, String> batcher =
+        new MicroBatcher<>(this::upperCase, 10, 50, scheduler, executor);
+
+    CompletableFuture<String> a = batcher.submit("a");
+    CompletableFuture<String> b = batcher.submit("b");
+
+    assertEquals("A", a.get(1, TimeUnit.SECONDS));
+    assertEquals("B", b.get(1, TimeUnit.SECONDS));
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  public void failsTheKeysWhenTheWindowCannotBeScheduled() throws Exception {
+    MicroBatcher<String, String> batcher =
+        new MicroBatcher<>(this::upperCase, 10, 50, scheduler, executor);
+    scheduler.shutdown();
+    executor.shutdown();
+
+    CompletableFuture<String> first = batcher.submit("a");
+    assertRejected(first);
+
+    // The failed key is no longer pending, so it is submitted again.
+    CompletableFuture<String> second = batcher.submit("a");
+    assertNotSame(first, second);
+    assertRejected(second);
+    assertEquals(0, requests.get());
+  }
+
+  @Test
+  public void failsTheKeysWhenTheBatchCannotBeExecuted() throws Exception {
+    MicroBatcher<String, String> batcher =
+        new MicroBatcher<>(this::upperCase, 1, 50, scheduler, executor);
+    executor.shutdown();
+
+    assertRejected(batcher.submit("a"));
+    assertRejected(batcher.submit("a"));
+    assertEquals(0, requests.get());
+  }
+
+  @Test
+  public void abortFailsTheQueuedKeys() throws Exception {
+    MicroBatcher<String, String> batcher =
+        new MicroBatcher<>(this::upperCase, 10, 60_000, scheduler, executor);
+
+    CompletableFuture<String> queued = batcher.submit("a");
+    scheduler.shutdownNow();
+    batcher.abort();
+
+    assertRejected(queued);
+    assertEquals(0, requests.get());
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Runs two nodes of a cluster in the same JVM, sharing the loopback store and bus.
+ */
+public class NearCacheTest {
+
+  /** Store whose every operation fails */
+  public static final class FailingStore implements DistributedPermissionStore {
+
+    public FailingStore(Map<String, String> settings) {}
+
+    @Override
+    public PermissionInfo get(String user) throws IOException {
+      throw new IOException("Store unavailable");
+    }
+
+    @Override
+    public void put(String user, PermissionInfo permissions, long ttlMillis) throws IOException {
+      throw new IOException("Store unavailable");
+    }
+
+    @Override
+    public void remove(String user) throws IOException {
+      throw new IOException("Store unavailable");
+    }
+
+    @Override
+    public void clear() throws IOException {
+      throw new IOException("Store unavailable");
+    }
+  }
+
+  private final String cluster = UUID.randomUUID().toString();
+
+  private final BrokerRegistry brokers = new BrokerRegistry(Collections.emptySet());
+
+  /** Calls made to the backend by all the nodes */
+  private final AtomicInteger backendCalls = new AtomicInteger();
+
+  /** Fails the calls to the backend while set */
+  private volatile boolean backendDown;
+
+  private final List<NearCache> nearCaches = new ArrayList<>();
+
+  @After
+  public void closeNodes() {
+    nearCaches.forEach(NearCache::close);
+  }
+
+  /*
+   * Every call returns new permissions, allowing to publish to "v<n>", n being the number of the
+   * call.
+   */
+  private CompletableFuture<PermissionInfo> callBackend(String user) {
+    CompletableFuture<PermissionInfo> future = new CompletableFuture<>();
+    int call = backendCalls.incrementAndGet();
+    if (backendDown) {
+      future.completeExceptionally(new TimeoutException());
+      return future;
+    }
+    try {
+      future.complete(JsonPermissions
+          .decode(Json.parseObject("{\"publish\": [\"v" + call + "\"]}"), brokers));
+    } catch (IOException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  private NearCache newNearCache(String store) {
+    Map<String, String> settings = new HashMap<>();
+    settings.put("cluster.name", cluster);
+    settings.put("cluster.store", store);
+    NearCache nearCache =
+        new NearCache(this::callBackend, Runnable::run, new HookSettings(settings));
+    nearCaches.add(nearCache);
+    return nearCache;
+  }
+
+  @Test
+  public void fetchesEachUserOncePerCluster() throws Exception {
+    NearCache nodeA = newNearCache("loopback");
+    NearCache nodeB = newNearCache("loopback");
+
+    PermissionInfo permissions = nodeA.load("user1").get();
+    assertTrue(permissions.allowPublishTo("v1"));
+    assertSame(permissions, nodeB.load("user1").get());
+    assertEquals(1, backendCalls.get());
+    assertEquals(1, nodeB.getStoreHits());
+  }
+
+  @Test(timeout = 10_000)
+  public void revocationsReachTheOtherNodes() throws Exception {
+    NearCache nodeA = newNearCache("loopback");
+    SessionRegistry<String> sessionsA = new SessionRegistry<>();
+    SessionRevocation<String> revocationA = new SessionRevocation<>(sessionsA,
+        new AuthorizationHandler(Collections.emptySet()), user -> null, null);
+    nodeA.attach(revocationA);
+
+    NearCache nodeB = newNearCache("loopback");
+    SessionRegistry<String> sessionsB = new SessionRegistry<>();
+    List<String> invalidatedB = new CopyOnWriteArrayList<>();
+    nodeB.attach(new SessionRevocation<>(sessionsB,
+        new AuthorizationHandler(Collections.emptySet()), user -> null, invalidatedB::add));
+
+    nodeB.load("user1").get();
+    SessionRegistry.Session<String> session = sessionsB.register("s1", "user1", "t", "user1");
+    sessionsB.register("s2", "user2", "t", "user2");
+
+    revocationA.revokeUser("user1");
+    while (!session.isRevoked()) {
+      Thread.sleep(5);
+    }
+    assertEquals(Collections.singletonList("user1"), invalidatedB);
+    assertFalse(sessionsB.get("s2").isRevoked());
+    assertEquals(1, nodeA.getPublishedInvalidations());
+    assertEquals(1, nodeB.getReceivedInvalidations());
+
+    // The revoked permissions have been dropped from the store as well.
+    assertTrue(nodeB.load("user1").get().allowPublishTo("v2"));
+    assertEquals(2, backendCalls.get());
+  }
+
+  @Test
+  public void bypassesTheStoreUntilARetrievalSucceeds() throws Exception {
+    NearCache nearCache = newNearCache("loopback");
+    assertTrue(nearCache.load("user1").get().allowPublishTo("v1"));
+
+    nearCache.bypass("user1");
+    backendDown = true;
+    ExecutionException failure =
+        assertThrows(ExecutionException.class, () -> nearCache.load("user1").get());
+    assertTrue(failure.getCause() instanceof TimeoutException);
+
+    // The retry doesn't fall back to the outdated permissions of the store.
+    backendDown = false;
+    assertTrue(nearCache.load("user1").get().allowPublishTo("v3"));
+
+    // Once retrieved, they are served by the store again.
+    assertTrue(nearCache.load("user1").get().allowPublishTo("v3"));
+    assertEquals(3, backendCalls.get());
+  }
+
+  @Test
+  public void fallsBackToTheBackendWhenTheStoreFails() throws Exception {
+    NearCache nearCache = newNearCache(FailingStore.class.getName());
+
+    assertTrue(nearCache.load("user1").get().allowPublishTo("v1"));
+    assertTrue(nearCache.load("user1").get().allowPublishTo("v2"));
+    assertEquals(2, backendCalls.get());
+    // Both the lookups and the updates failed.
+    assertEquals(4, nearCache.getStoreFailures());
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RequestCoalescerTest {
+
+  private static final int CALLERS = 8;
+
+  private StubHttpServer server;
+
+  private HttpAuthorizationBackend backend;
+
+  private final RequestCoalescer<String, PermissionInfo> coalescer = new RequestCoalescer<>();
+
+  private final ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+
+  /** Released by the tests to let the stub server answer */
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  private final AtomicInteger calls = new AtomicInteger();
+
+  @Before
+  public void startServer() throws IOException {
+    server = new StubHttpServer();
+    backend = new HttpAuthorizationBackend(
+        new HookSettings(Collections.singletonMap("backend.http.url", server.getUrl())),
+        new BrokerRegistry(Collections.emptySet()));
+  }
+
+  @After
+  public void stopServer() {
+    release.countDown();
+    callers.shutdownNow();
+    server.close();
+  }
+
+  private void serve(int status, String body) {
+    server.handle("/permissions/", exchange -> {
+      calls.incrementAndGet();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      StubHttpServer.respond(exchange, status, body);
+    });
+  }
+
+  private List<Future<PermissionInfo>> lookUp(int count) {
+    List<Future<PermissionInfo>> lookups = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      lookups.add(
+          callers.submit(() -> coalescer.execute("user1", () -> backend.getPermissions("user1"))));
+    }
+    return lookups;
+  }
+
+  /*
+   * Waits until all the callers but the first one have joined the request in flight.
+   */
+  private void awaitCoalesced(long expected) throws InterruptedException {
+    while (coalescer.getCoalesced() < expected) {
+      Thread.sleep(5);
+    }
+  }
+
+  @Test(timeout = 10_000)
+  public void turnsConcurrentLookupsIntoOneCall() throws Exception {
+    serve(200, "{\"publish\": [\"fleet/#\"]}");
+
+    List<Future<PermissionInfo>> lookups = lookUp(CALLERS);
+    awaitCoalesced(CALLERS - 1);
+    release.countDown();
+
+    PermissionInfo first = lookups.get(0).get();
+    assertTrue(first.allowPublishTo("fleet/42"));
+    for (Future<PermissionInfo> lookup : lookups) {
+      assertSame(first, lookup.get());
+    }
+    assertEquals(1, calls.get());
+  }
+
+  @Test(timeout = 10_000)
+  public void propagatesFailuresToAllTheCallers() throws Exception {
+    serve(503, null);
+
+    List<Future<PermissionInfo>> lookups = lookUp(CALLERS);
+    awaitCoalesced(CALLERS - 1);
+    release.countDown();
+
+    for (Future<PermissionInfo> lookup : lookups) {
+      try {
+        lookup.get();
+        fail("The failure of the shared request was not propagated");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IOException);
+      }
+    }
+    assertEquals(1, calls.get());
+  }
+
+  @Test(timeout = 10_000)
+  public void doesNotJoinRequestsStartedBeforeAnInvalidation() throws Exception {
+    serve(200, "{}");
+
+    List<Future<PermissionInfo>> lookups = lookUp(1);
+    while (calls.get() == 0) {
+      Thread.sleep(5);
+    }
+    coalescer.invalidate("user1");
+    lookups.addAll(lookUp(1));
+    while (calls.get() < 2) {
+      Thread.sleep(5);
+    }
+    release.countDown();
+
+    for (Future<PermissionInfo> lookup : lookups) {
+      lookup.get();
+    }
+    assertEquals(0, coalescer.getCoalesced());
+  }
+}
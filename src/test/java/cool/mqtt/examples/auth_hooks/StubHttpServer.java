@@ -0,0 +1,107 @@
+/*
+ * MQTT.Cool - https://mqtt.cool
+ *
+ * Authentication and Authorization Demo
+ *
+ * Copyright (c) Lightstreamer Srl
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package cool.mqtt.examples.auth_hooks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process HTTP server bound to the loopback interface, standing for the remote authorization
+ * service in the tests. It records the client endpoints it served, so that the tests can tell how
+ * many connections were opened.
+ */
+final class StubHttpServer implements AutoCloseable {
+
+  private final HttpServer server;
+
+  private final ExecutorService threads = Executors.newCachedThreadPool();
+
+  private final Set<InetSocketAddress> clients = ConcurrentHashMap.newKeySet();
+
+  StubHttpServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.setExecutor(threads);
+    server.start();
+  }
+
+  /**
+   * Serves the requests whose path starts with the specified one through the specified handler.
+   *
+   * @param path the path
+   * @param handler the handler
+   */
+  void handle(String path, HttpHandler handler) {
+    server.createContext(path, exchange -> {
+      clients.add(exchange.getRemoteAddress());
+      handler.handle(exchange);
+    });
+  }
+
+  /**
+   * Sends the specified response, which has no body if {@code body} is {@code null}.
+   *
+   * @param exchange the exchange
+   * @param status the status code
+   * @param body the JSON body, or {@code null}
+   */
+  static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    exchange.getRequestBody().close();
+    if (body == null) {
+      exchange.sendResponseHeaders(status, -1);
+    } else {
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(status, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    }
+    exchange.close();
+  }
+
+  /**
+   * @return the base URL of the server
+   */
+  String getUrl() {
+    InetSocketAddress address = server.getAddress();
+    return "http://" + address.getHostString() + ":" + address.getPort();
+  }
+
+  /**
+   * @return the number of distinct connections served so far
+   */
+  int getConnections() {
+    return clients.size();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    threads.shutdownNow();
+  }
+}
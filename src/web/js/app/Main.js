@@ -47,7 +47,10 @@ const Constants = {
 
   // Message shown in the topic rows.
   CLICK_TO_PUBLISH: 'click to publish',
-  CLICK_TO_SUBSCRIBE: 'click to susbcribe'
+  CLICK_TO_SUBSCRIBE: 'click to susbcribe',
+
+  // Error code sent by the Hook when the client exceeds its rate limits.
+  RATE_LIMITED_ERROR_CODE: 5
 };
 
 // The MQTT client instance used to interact with the target MQTT broker.
@@ -333,10 +336,21 @@ function onMessageNotAuthorized(message, responseObject) {
   // MQTT.Cool refused publishing: probably this user is not enabled to
   // publish to this topic.
   if (responseObject) {
-    // Show the custom error message.
     var topic = message.destinationName;
     var whichTopic = topic.substring(topic.length - 1);
     var id = '#publish' + whichTopic;
+
+    // Publishing too fast: the row stays clickable, as publishing again later
+    // will succeed.
+    if (responseObject.errorCode == Constants.RATE_LIMITED_ERROR_CODE) {
+      $(id)
+        .css('background-color', 'orange')
+        .text(responseObject.errorMessage + ', click to publish again to ' +
+          topic);
+      return;
+    }
+
+    // Show the custom error message.
     $(id)
       .css('background-color', 'red')    // Background to red
       .text(responseObject.errorMessage) // Show the error message
@@ -478,7 +492,7 @@ function subscribeTo(id, topicFilter) {
       },
 
       onNotAuthorized: function(responseObject) {
-        onSubscriptionNotAuthorized(id, responseObject);
+        onSubscriptionNotAuthorized(id, topicFilter, responseObject);
       }
     });
   };
@@ -488,13 +502,24 @@ function subscribeTo(id, topicFilter) {
  * Callback invoked upon subscription not authorized.
  *
  * @param {string} id - The row id of not authorized topic.
+ * @param {string} topicFilter - The not authorized topic filter.
  * @param {Object=} responseObject - The object with details about
  *   authorization failure.
  */
-function onSubscriptionNotAuthorized(id, responseObject) {
+function onSubscriptionNotAuthorized(id, topicFilter, responseObject) {
   // MQTT.Cool refused subscription: probably this user is not
   // enabled to subscribe to this topic filter.
   if (responseObject) {
+    // Subscribing too fast: the row stays clickable, as subscribing again
+    // later will succeed.
+    if (responseObject.errorCode == Constants.RATE_LIMITED_ERROR_CODE) {
+      $('#' + id)
+        .css('background-color', 'orange')
+        .text(responseObject.errorMessage + ', click to subscribe again to ' +
+          topicFilter);
+      return;
+    }
+
     // Show the custom error message.
     $('#' + id)
       .css('background-color', 'red')    // Background to red.